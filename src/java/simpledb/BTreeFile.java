@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import simpledb.Predicate.Op;
@@ -16,6 +17,9 @@ import simpledb.Predicate.Op;
  * a set of internal pages, and a set of leaf pages, which contain a collection of tuples
  * in sorted order. BTreeFile works closely with BTreeLeafPage, BTreeInternalPage,
  * and BTreeRootPtrPage. The format of these pages is described in their constructors.
+ * <p>
+ * Pages are read and written through one FileChannel that stays open until
+ * the file is closed, which {@link Catalog#clear} does for every table.
  * 
  * @see simpledb.BTreeLeafPage#BTreeLeafPage
  * @see simpledb.BTreeInternalPage#BTreeInternalPage
@@ -23,9 +27,10 @@ import simpledb.Predicate.Op;
  * @see simpledb.BTreeRootPtrPage#BTreeRootPtrPage
  * @author Becca Taft
  */
-public class BTreeFile implements DbFile {
+public class BTreeFile implements DbFile, Closeable, PageRunWriter {
 
 	private final File f;
+	private final PageChannel channel;
 	private final TupleDesc td;
 	private final int tableid ;
 	private int keyField;
@@ -44,6 +49,7 @@ public class BTreeFile implements DbFile {
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		this.channel = new PageChannel(f);
 	}
 
 	/**
@@ -85,13 +91,11 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
-		BufferedInputStream bis = null;
 
 		try {
-			bis = new BufferedInputStream(new FileInputStream(f));
 			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
 				byte pageBuf[] = new byte[BTreeRootPtrPage.getPageSize()];
-				int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
+				int retval = channel.read(ByteBuffer.wrap(pageBuf), 0);
 				if (retval == -1) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
@@ -105,12 +109,7 @@ public class BTreeFile implements DbFile {
 			}
 			else {
 				byte pageBuf[] = new byte[BufferPool.getPageSize()];
-				if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.getPageNumber()-1) * BufferPool.getPageSize()) !=
-						BTreeRootPtrPage.getPageSize() + (id.getPageNumber()-1) * BufferPool.getPageSize()) {
-					throw new IllegalArgumentException(
-							"Unable to seek to correct place in BTreeFile");
-				}
-				int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
+				int retval = channel.read(ByteBuffer.wrap(pageBuf), pageOffset(id.getPageNumber()));
 				if (retval == -1) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
@@ -134,14 +133,6 @@ public class BTreeFile implements DbFile {
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
-		} finally {
-			// Close the file on success or error
-			try {
-				if (bis != null)
-					bis.close();
-			} catch (IOException ioe) {
-				// Ignore failures closing the file
-			}
 		}
 	}
 
@@ -155,17 +146,50 @@ public class BTreeFile implements DbFile {
 		BTreePageId id = (BTreePageId) page.getId();
 		
 		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
 		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
+			channel.write(ByteBuffer.wrap(data), 0);
 		}
 		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (page.getId().getPageNumber()-1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+			channel.write(ByteBuffer.wrap(data), pageOffset(id.getPageNumber()));
 		}
 	}
+
+	/**
+	 * Write pages that are adjacent on disk with one write. The root pointer
+	 * page is page 0 and sits right before page 1.
+	 * 
+	 * @param run - pages with consecutive page numbers, in ascending order
+	 */
+	public void writePages(List<Page> run) throws IOException {
+		ArrayList<byte[]> data = new ArrayList<byte[]>(run.size());
+		int size = 0;
+		for (Page page : run) {
+			byte[] d = page.getPageData();
+			data.add(d);
+			size += d.length;
+		}
+		ByteBuffer buf = ByteBuffer.allocate(size);
+		for (byte[] d : data)
+			buf.put(d);
+		buf.flip();
+		BTreePageId first = (BTreePageId) run.get(0).getId();
+		channel.write(buf, first.pgcateg() == BTreePageId.ROOT_PTR ? 0 : pageOffset(first.getPageNumber()));
+	}
+
+	/**
+	 * Returns the file offset of a page other than the root pointer page.
+	 */
+	private static long pageOffset(int pgNo) {
+		return BTreeRootPtrPage.getPageSize() + (long) (pgNo-1) * BufferPool.getPageSize();
+	}
+
+	/**
+	 * Closes the channel to the backing file. The file can still be used;
+	 * it is reopened on the next read or write.
+	 */
+	public void close() throws IOException {
+		channel.close();
+	}
 	
 	/**
 	 * Returns the number of pages in this BTreeFile.
@@ -1270,13 +1294,10 @@ public class BTreeFile implements DbFile {
 		synchronized(this) {
 			if(f.length() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
 				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				channel.write(ByteBuffer.wrap(emptyRootPtrData), 0);
+				channel.write(ByteBuffer.wrap(emptyLeafData), pageOffset(1));
 			}
 		}
 
@@ -1332,11 +1353,8 @@ public class BTreeFile implements DbFile {
 		if(headerId == null) {		
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				channel.write(ByteBuffer.wrap(emptyData), pageOffset(numPages() + 1));
 				emptyPageNo = numPages();
 			}
 		}
@@ -1367,10 +1385,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo-1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		channel.write(ByteBuffer.wrap(BTreePage.createEmptyPageData()), pageOffset(emptyPageNo));
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -1507,6 +1522,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
 	Iterator<Tuple> it = null;
 	BTreeLeafPage curp = null;
+	/** the leaf pages of a large tree are read through a ring; see BufferRing */
+	BufferRing ring = null;
 
 	TransactionId tid;
 	BTreeFile f;
@@ -1528,6 +1545,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
 				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
 		BTreePageId root = rootPtr.getRootId();
+		ring = Database.getBufferPool().bulkReadRing(f.numPages());
 		curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
 		it = curp.iterator();
 	}
@@ -1550,7 +1568,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 			}
 			else {
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+						nextp, Permissions.READ_ONLY, ring);
 				it = curp.iterator();
 				if (!it.hasNext())
 					it = null;
@@ -1577,6 +1595,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		super.close();
 		it = null;
 		curp = null;
+		Database.getBufferPool().releaseRing(ring);
+		ring = null;
 	}
 }
 
@@ -228,12 +228,12 @@ public class BTreeFileEncoder {
 		}
 		// pointerbytes: left sibling pointer, right sibling pointer, parent pointer
 		int leafpointerbytes = 3 * BTreeLeafPage.INDEX_SIZE; 
-		int nrecords = (npagebytes * 8 - leafpointerbytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
+		int nrecords = ((npagebytes - PageChecksum.SIZE) * 8 - leafpointerbytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
 
 		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
 		// pointerbytes: one extra child pointer, parent pointer, child page category
 		int internalpointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
-		int nentries = (npagebytes * 8 - internalpointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
+		int nentries = ((npagebytes - PageChecksum.SIZE) * 8 - internalpointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
 
 		ArrayList<ArrayList<BTreeEntry>> entries = new ArrayList<ArrayList<BTreeEntry>>();
 
@@ -514,7 +514,7 @@ public class BTreeFileEncoder {
 		}
 		// pointerbytes: left sibling pointer, right sibling pointer, parent pointer
 		int pointerbytes = 3 * BTreeLeafPage.INDEX_SIZE; 
-		int nrecords = (npagebytes * 8 - pointerbytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
+		int nrecords = ((npagebytes - PageChecksum.SIZE) * 8 - pointerbytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
 
 		//  per record, we need one bit; there are nrecords per page, so we need
 		// nrecords bits, i.e., ((nrecords/32)+1) integers.
@@ -564,11 +564,13 @@ public class BTreeFileEncoder {
 			}
 		}
 
-		// pad the rest of the page with zeroes
+		// pad the rest of the page with zeroes, up to and including the checksum
 		for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes + pointerbytes)); i++)
 			dos.writeByte(0);
 
-		return baos.toByteArray();
+		byte[] data = baos.toByteArray();
+		PageChecksum.set(data);
+		return data;
 	}
 
 	/**
@@ -629,7 +631,7 @@ public class BTreeFileEncoder {
 		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
 		// pointerbytes: one extra child pointer, parent pointer, child page category
 		int pointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
-		int nentries = (npagebytes * 8 - pointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
+		int nentries = ((npagebytes - PageChecksum.SIZE) * 8 - pointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
 
 		//  per entry, we need one bit; there are nentries per page, so we need
 		// nentries bits, plus 1 for the extra child pointer.
@@ -691,11 +693,13 @@ public class BTreeFileEncoder {
 			}
 		}
 
-		// pad the rest of the page with zeroes
+		// pad the rest of the page with zeroes, up to and including the checksum
 		for (i=0; i<(npagebytes - (nentries * nentrybytes + nheaderbytes + pointerbytes)); i++)
 			dos.writeByte(0);
 
-		return baos.toByteArray();
+		byte[] data = baos.toByteArray();
+		PageChecksum.set(data);
+		return data;
 
 	}
 
@@ -718,8 +722,11 @@ public class BTreeFileEncoder {
 		dos.writeByte((byte) rootCategory); // root page category
 
 		dos.writeInt(header); // header pointer
+		dos.write(new byte[PageChecksum.SIZE]);
 
-		return baos.toByteArray();
+		byte[] data = baos.toByteArray();
+		PageChecksum.set(data);
+		return data;
 	}
 
 }
@@ -13,6 +13,7 @@ import java.io.*;
 public class BTreeHeaderPage implements Page {
 	private volatile boolean dirty = false;
 	private volatile TransactionId dirtier = null;
+	private volatile long lsn = 0;
 	
 	final static int INDEX_SIZE = Type.INT_TYPE.getLen();
 
@@ -24,17 +25,20 @@ public class BTreeHeaderPage implements Page {
 	private int prevPage; // previous header page or 0
 
 	byte[] oldData;
-	private final Byte oldDataLock=new Byte((byte)0);
+	private final Object oldDataLock = new Object();
 
 	/**
 	 * Create a BTreeHeaderPage from a set of bytes of data read from disk.
 	 * The format of a BTreeHeaderPage is two pointers to the next and previous
 	 * header pages, followed by a set of bytes indicating which pages in the file
-	 * are used or available
+	 * are used or available, and the checksum in the last bytes of the page
+	 * (see PageChecksum)
 	 * @see BufferPool#getPageSize()
-	 * 
+	 * @throws IOException if the checksum does not match the data
 	 */
 	public BTreeHeaderPage(BTreePageId id, byte[] data) throws IOException {
+		PageChecksum.verify(id, data);
+		this.lsn = PageChecksum.lsn(data);
 		this.pid = id;
 		this.numSlots = getNumSlots();
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
@@ -74,11 +78,12 @@ public class BTreeHeaderPage implements Page {
 
 	/**
 	 * Computes the number of bytes in the header while saving room for pointers
+	 * and the checksum
 	 */
 	private static int getHeaderSize() {        
 		// pointerBytes: nextPage and prevPage pointers
 		int pointerBytes = 2 * INDEX_SIZE; 
-		return BufferPool.getPageSize() - pointerBytes;
+		return BufferPool.getPageSize() - pointerBytes - PageChecksum.SIZE;
 	}
 
 	/**
@@ -160,13 +165,17 @@ public class BTreeHeaderPage implements Page {
 			}
 		}
 
+		// room for the checksum
 		try {
+			dos.write(new byte[PageChecksum.SIZE]);
 			dos.flush();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 
-		return baos.toByteArray();
+		byte[] data = baos.toByteArray();
+		PageChecksum.set(data, lsn);
+		return data;
 	}
 
 	/**
@@ -264,6 +273,14 @@ public class BTreeHeaderPage implements Page {
 			return null;
 	}
 
+	public long getLSN() {
+		return lsn;
+	}
+
+	public void setLSN(long lsn) {
+		this.lsn = lsn;
+	}
+
 	/**
 	 * Returns true if the page of the BTreeFile associated with slot i is used
 	 */
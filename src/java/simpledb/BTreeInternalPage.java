@@ -46,8 +46,9 @@ public class BTreeInternalPage extends BTreePage {
 	 * The format of a BTreeInternalPage is a set of header bytes indicating
 	 * the slots of the page that are in use, some number of entry slots, and extra
 	 * bytes for the parent pointer, one extra child pointer (a node with m entries 
-	 * has m+1 pointers to children), and the category of all child pages (either 
-	 * leaf or internal).
+	 * has m+1 pointers to children), the category of all child pages (either 
+	 * leaf or internal), and the checksum in the last bytes of the page (see
+	 * PageChecksum).
 	 *  Specifically, the number of entries is equal to: <p>
 	 *          floor((BufferPool.getPageSize()*8 - extra bytes*8) / (entry size * 8 + 1))
 	 * <p> where entry size is the size of entries in this index node
@@ -64,9 +65,12 @@ public class BTreeInternalPage extends BTreePage {
 	 * @param id - the id of this page
 	 * @param data - the raw data of this page
 	 * @param key - the field which the index is keyed on
+	 * @throws IOException if the checksum does not match the data
 	 */
 	public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
 		super(id, key);
+		PageChecksum.verify(id, data);
+		this.lsn = PageChecksum.lsn(data);
 		this.numSlots = getMaxEntries() + 1;
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
@@ -118,8 +122,9 @@ public class BTreeInternalPage extends BTreePage {
 		int keySize = td.getFieldType(keyField).getLen();
 		int bitsPerEntryIncludingHeader = keySize * 8 + INDEX_SIZE * 8 + 1;
 		// extraBits are: one parent pointer, 1 byte for child page category, 
-		// one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header
-		int extraBits = 2 * INDEX_SIZE * 8 + 8 + 1; 
+		// one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header,
+		// the checksum
+		int extraBits = 2 * INDEX_SIZE * 8 + 8 + 1 + PageChecksum.SIZE * 8;
 		int entriesPerPage = (BufferPool.getPageSize()*8 - extraBits) / bitsPerEntryIncludingHeader; //round down
 		return entriesPerPage;
 	}
@@ -314,7 +319,7 @@ public class BTreeInternalPage extends BTreePage {
 			}
 		}
 
-		// padding
+		// padding, and room for the checksum
 		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length + 
 				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length); 
 		byte[] zeroes = new byte[zerolen];
@@ -330,7 +335,9 @@ public class BTreeInternalPage extends BTreePage {
 			e.printStackTrace();
 		}
 
-		return baos.toByteArray();
+		byte[] data = baos.toByteArray();
+		PageChecksum.set(data, lsn);
+		return data;
 	}
 
 	/**
@@ -761,8 +768,15 @@ class BTreeInternalPageReverseIterator implements Iterator<BTreeEntry> {
 			while (true) {
 				int entry = curEntry--;
 				Field key = p.getKey(entry);
-				BTreePageId childId = p.getChildId(entry - 1);
-				if(key != null && childId != null) {
+				if(key == null)
+					continue;
+				// the left child is in the closest used slot below, which
+				// need not be entry - 1 once entries have been deleted
+				int left = entry - 1;
+				while(left > 0 && !p.isSlotUsed(left))
+					left--;
+				BTreePageId childId = p.getChildId(left);
+				if(childId != null) {
 					nextToReturn = new BTreeEntry(key, childId, nextChildId);
 					nextToReturn.setRecordId(new RecordId(p.pid, entry));
 					nextChildId = childId;
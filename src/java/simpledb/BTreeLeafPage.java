@@ -11,13 +11,14 @@ import java.io.*;
  * @see BufferPool
  *
  */
-public class BTreeLeafPage extends BTreePage {
+public class BTreeLeafPage extends BTreePage implements SlotLoggedPage {
 	private final byte header[];
 	private final Tuple tuples[];
 	private final int numSlots;
 	
 	private int leftSibling; // leaf node or 0 leafnode就是pgNo
 	private int rightSibling; // leaf node or 0
+	private final BitSet changedSlots = new BitSet(); // since oldData, protected by oldDataLock
 	//看不懂
 	public void checkRep(int fieldid, Field lowerBound, Field upperBound, boolean checkoccupancy, int depth) {
 		Field prev = lowerBound;
@@ -44,7 +45,8 @@ public class BTreeLeafPage extends BTreePage {
 	 * Create a BTreeLeafPage from a set of bytes of data read from disk.
 	 * The format of a BTreeLeafPage is a set of header bytes indicating
 	 * the slots of the page that are in use, and some number of tuple slots, 
-	 * as well as some extra bytes for the parent and sibling pointers.
+	 * as well as some extra bytes for the parent and sibling pointers and the
+	 * checksum in the last bytes of the page (see PageChecksum).
 	 *  Specifically, the number of tuples is equal to: <p>
 	 *          floor((BufferPool.getPageSize()*8 - extra bytes*8) / (tuple size * 8 + 1))
 	 * <p> where tuple size is the size of tuples in this
@@ -60,9 +62,12 @@ public class BTreeLeafPage extends BTreePage {
 	 * @param id - the id of this page
 	 * @param data - the raw data of this page
 	 * @param key - the field which the index is keyed on
+	 * @throws IOException if the checksum does not match the data
 	 */
 	public BTreeLeafPage(BTreePageId id, byte[] data, int key) throws IOException {
 		super(id, key);
+		PageChecksum.verify(id, data);
+		this.lsn = PageChecksum.lsn(data);
 		this.numSlots = getMaxTuples();
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
@@ -111,8 +116,8 @@ public class BTreeLeafPage extends BTreePage {
 	 */
 	public int getMaxTuples() {        
 		int bitsPerTupleIncludingHeader = td.getSize() * 8 + 1;
-		// extraBits are: left sibling pointer, right sibling pointer, parent pointer
-		int extraBits = 3 * INDEX_SIZE * 8; 
+		// extraBits are: left sibling pointer, right sibling pointer, parent pointer, checksum
+		int extraBits = 3 * INDEX_SIZE * 8 + PageChecksum.SIZE * 8;
 		int tuplesPerPage = (BufferPool.getPageSize()*8 - extraBits) / bitsPerTupleIncludingHeader; //round down
 		return tuplesPerPage;
 	}
@@ -150,6 +155,7 @@ public class BTreeLeafPage extends BTreePage {
 		synchronized(oldDataLock)
 		{
 			oldData = getPageData().clone();
+			changedSlots.clear();
 		}
 	}
 
@@ -261,7 +267,7 @@ public class BTreeLeafPage extends BTreePage {
 			}
 		}
 
-		// padding
+		// padding, and room for the checksum
 		int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length + 3 * INDEX_SIZE); //- numSlots * td.getSize();
 		byte[] zeroes = new byte[zerolen];
 		try {
@@ -276,7 +282,9 @@ public class BTreeLeafPage extends BTreePage {
 			e.printStackTrace();
 		}
 
-		return baos.toByteArray();
+		byte[] data = baos.toByteArray();
+		PageChecksum.set(data, lsn);
+		return data;
 	}
 
 	/**
@@ -452,6 +460,59 @@ public class BTreeLeafPage extends BTreePage {
 		return cnt;
 	}
 
+	/**
+	 * Slot changes describe this page only while its parent and sibling
+	 * pointers are the ones in the before image; a page whose pointers
+	 * moved was split, merged or rebalanced and is logged whole.
+	 */
+	public int[] changedSlots() {
+		synchronized(oldDataLock)
+		{
+			DataInputStream dis = new DataInputStream(new ByteArrayInputStream(oldData));
+			try {
+				if (dis.readInt() != parent || dis.readInt() != leftSibling || dis.readInt() != rightSibling)
+					return null;
+			} catch (IOException e) {
+				return null;
+			}
+			return changedSlots.stream().toArray();
+		}
+	}
+
+	public byte[] slotData(int i) {
+		if (!isSlotUsed(i))
+			return null;
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			for (int j=0; j<td.numFields(); j++)
+				tuples[i].getField(j).serialize(dos);
+		} catch (IOException e) {
+			// this really shouldn't happen
+			e.printStackTrace();
+		}
+		return baos.toByteArray();
+	}
+
+	public byte[] beforeSlotData(int i) {
+		byte[] oldDataRef;
+		synchronized(oldDataLock)
+		{
+			oldDataRef = oldData;
+		}
+		int headerOffset = 3 * INDEX_SIZE;
+		if ((oldDataRef[headerOffset + i/8] & (1 << (i%8))) == 0)
+			return null;
+		int offset = headerOffset + header.length + i * td.getSize();
+		return Arrays.copyOfRange(oldDataRef, offset, offset + td.getSize());
+	}
+
+	public void applySlot(int i, byte[] data) {
+		markSlotUsed(i, data != null);
+		tuples[i] = data == null ? null
+				: readNextTuple(new DataInputStream(new ByteArrayInputStream(data)), i);
+	}
+
 	/**
 	 * Returns true if associated slot on this page is filled.
 	 */
@@ -469,6 +530,10 @@ public class BTreeLeafPage extends BTreePage {
 		int headerbyte = (i - headerbit) / 8;
 
 		Debug.log(1, "BTreeLeafPage.setSlot: setting slot %d to %b", i, value);
+		synchronized(oldDataLock)
+		{
+			changedSlots.set(i);
+		}
 		if(value)
 			header[headerbyte] |= 1 << headerbit;
 		else
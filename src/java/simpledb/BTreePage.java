@@ -13,6 +13,7 @@ import java.io.*;
 public abstract class BTreePage implements Page {
 	protected volatile boolean dirty = false;
 	protected volatile TransactionId dirtier = null;
+	protected volatile long lsn = 0;
 
 	protected final static int INDEX_SIZE = Type.INT_TYPE.getLen();
 
@@ -22,7 +23,7 @@ public abstract class BTreePage implements Page {
 
 	protected int parent; // parent is always internal node or 0 for root node
 	protected byte[] oldData;
-	protected final Byte oldDataLock=new Byte((byte)0);
+	protected final Object oldDataLock = new Object();
 
 	/**
 	 * Create a BTreeInternalPage from a set of bytes of data read from disk.
@@ -128,6 +129,14 @@ public abstract class BTreePage implements Page {
 			return null;
 	}
 
+	public long getLSN() {
+		return lsn;
+	}
+
+	public void setLSN(long lsn) {
+		this.lsn = lsn;
+	}
+
 	/**
 	 * Returns the number of empty slots on this page.
 	 */
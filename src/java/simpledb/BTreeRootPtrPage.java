@@ -10,10 +10,11 @@ import java.io.*;
  */
 public class BTreeRootPtrPage implements Page {
 	// size of this page
-	public final static int PAGE_SIZE = 9;
+	public final static int PAGE_SIZE = 9 + PageChecksum.SIZE;
 
 	private boolean dirty = false;
 	private TransactionId dirtier = null;
+	private volatile long lsn = 0;
 
 	private BTreePageId pid;
 	private DataInputStream dis;
@@ -31,9 +32,12 @@ public class BTreeRootPtrPage implements Page {
 	 * The format of an BTreeRootPtrPage is an integer for the page number
 	 * of the root node, followed by a byte to encode the category of the root page
 	 * (either leaf or internal), followed by an integer for the page number
-	 * of the first header page
+	 * of the first header page, and the checksum (see PageChecksum)
+	 * @throws IOException if the checksum does not match the data
 	 */
 	public BTreeRootPtrPage(BTreePageId id, byte[] data) throws IOException {
+		PageChecksum.verify(id, data);
+		this.lsn = PageChecksum.lsn(data);
 		this.pid = id;
 		this.dis = new DataInputStream(new ByteArrayInputStream(data));
 
@@ -103,13 +107,17 @@ public class BTreeRootPtrPage implements Page {
 			e.printStackTrace();
 		}
 
+		// room for the checksum
 		try {
+			dos.write(new byte[PageChecksum.SIZE]);
 			dos.flush();
 		}catch(IOException e) {
 			e.printStackTrace();
 		}
 
-		return baos.toByteArray();
+		byte[] data = baos.toByteArray();
+		PageChecksum.set(data, lsn);
+		return data;
 	}
 
 	/**
@@ -138,6 +146,14 @@ public class BTreeRootPtrPage implements Page {
 			return null;
 	}
 
+	public long getLSN() {
+		return lsn;
+	}
+
+	public void setLSN(long lsn) {
+		this.lsn = lsn;
+	}
+
 	/** Return a view of this page before it was modified
         -- used by recovery */
 	public BTreeRootPtrPage getBeforeImage(){
@@ -278,7 +278,7 @@ public class BTreeUtility {
 	 */
 	public static int getNumTuplesPerPage(int columns) {
 		int bytesPerTuple = Type.INT_TYPE.getLen() * columns * 8;
-		int tuplesPerPage = (BufferPool.getPageSize() * 8 - 3 * BTreeLeafPage.INDEX_SIZE * 8) /  (bytesPerTuple + 1);
+		int tuplesPerPage = ((BufferPool.getPageSize() - PageChecksum.SIZE) * 8 - 3 * BTreeLeafPage.INDEX_SIZE * 8) /  (bytesPerTuple + 1);
 		return tuplesPerPage;
 	}
 	
@@ -325,7 +325,7 @@ public class BTreeUtility {
 		int nentrybytes = Type.INT_TYPE.getLen() + BTreeInternalPage.INDEX_SIZE;
 		// pointerbytes: one extra child pointer, parent pointer, child page category
 		int internalpointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
-		int entriesPerPage = (BufferPool.getPageSize() * 8 - internalpointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
+		int entriesPerPage = ((BufferPool.getPageSize() - PageChecksum.SIZE) * 8 - internalpointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
 		return entriesPerPage;
 	}
 	
@@ -3,6 +3,7 @@ package simpledb;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -19,15 +20,158 @@ public class BufferPool {
     /** Bytes per page, including header. */
     int maxPages;
     private static final int DEFAULT_PAGE_SIZE = 4096;
-    private ConcurrentHashMap<PageId,Page> idToPages;
     private static int pageSize = DEFAULT_PAGE_SIZE;
     /** Default number of pages passed to the constructor. This is used by
      other classes. BufferPool should use the numPages argument to the
      constructor instead. */
     public static final int DEFAULT_PAGES = 50;
-    private  ConcurrentHashMap<PageId,Integer> idToTime;
-    private int retriveTime;
-    private PageLockRecorder lockRecorder;
+    /** Smallest partition worth having; smaller pools get a single shard. */
+    static final int MIN_PAGES_PER_SHARD = 64;
+    /** Upper bound on the number of partitions picked automatically. */
+    static final int MAX_SHARDS = 64;
+    /**
+     * Pages read ahead of a sequential scan, taken from the simpledb.readAhead
+     * system property; 0 (the default) turns read-ahead off.
+     */
+    public static final int DEFAULT_READ_AHEAD = Integer.getInteger("simpledb.readAhead", 0);
+    /** Most frames a bulk read cycles through; see {@link BufferRing}. */
+    static final int RING_PAGES = 16;
+
+    /**
+     * The frame table is split into shards keyed by PageId.hashCode(), each
+     * with its own map, replacement policy and latch (the shard's monitor),
+     * so requests for pages in different shards never contend. All shards
+     * draw frames from the one budget of maxPages.
+     */
+    private final Shard[] shards;
+    private final int shardMask;
+    private final AtomicInteger residentPages;
+    /** where the next cross-shard eviction starts looking */
+    private final AtomicInteger evictionCursor;
+
+    /**
+     * One partition of the frame table. Every method runs under the shard
+     * latch; callers never hold two shard latches at once.
+     */
+    private static final class Shard {
+        private final HashMap<PageId, Page> pages;
+        private final ReplacementPolicy replacement;
+        /**
+         * Bumped whenever a page of the shard is dropped or replaced, so a
+         * page read from disk without a lock can tell that the disk copy may
+         * be stale by the time it is cached: a newer copy can only have
+         * reached the disk from a cached page, which has either been
+         * dropped since or is still cached.
+         */
+        long version;
+        /**
+         * Set when a search for a victim found every page dirty, so the
+         * evictions after it do not search again; cleared once a page is
+         * added or cleaned. Pages are only cleaned by the pool, which
+         * reports it.
+         */
+        private boolean allDirty;
+        private final ReplacementPolicy.VictimFilter cleanPagesOnly = new ReplacementPolicy.VictimFilter() {
+            public boolean canEvict(PageId pid) {
+                Page page = pages.get(pid);
+                return page != null && page.isDirty() == null;
+            }
+        };
+
+        Shard(int capacity, ReplacementPolicy.Factory replacementPolicy) {
+            pages = new HashMap<>(capacity * 2);
+            replacement = replacementPolicy.create(capacity);
+        }
+
+        synchronized Page get(PageId pid) {
+            Page page = pages.get(pid);
+            if (page != null)
+                replacement.pageAccessed(pid);
+            return page;
+        }
+
+        synchronized Page peek(PageId pid) {
+            return pages.get(pid);
+        }
+
+        /** @return the page already cached under the same id, or null if page was added */
+        synchronized Page putIfAbsent(Page page) {
+            Page cached = pages.get(page.getId());
+            if (cached != null) {
+                replacement.pageAccessed(page.getId());
+                return cached;
+            }
+            pages.put(page.getId(), page);
+            replacement.pageAdded(page.getId());
+            allDirty = false;
+            return null;
+        }
+
+        /** @return true if the page was not cached before */
+        synchronized boolean put(Page page) {
+            PageId pid = page.getId();
+            if (pages.put(pid, page) == null) {
+                replacement.pageAdded(pid);
+                allDirty = false;
+                return true;
+            }
+            replacement.pageAccessed(pid);
+            return false;
+        }
+
+        /** Swap in a new copy of a cached page without counting it as a use. */
+        synchronized void replace(Page page) {
+            version++;
+            if (pages.containsKey(page.getId()))
+                pages.put(page.getId(), page);
+        }
+
+        synchronized boolean remove(PageId pid) {
+            version++;
+            if (pages.remove(pid) == null)
+                return false;
+            replacement.pageRemoved(pid);
+            return true;
+        }
+
+        /** Tell the replacement policy that pid was written out. */
+        synchronized void cleaned(PageId pid) {
+            if (pages.containsKey(pid)) {
+                replacement.pageCleaned(pid);
+                allDirty = false;
+            }
+        }
+
+        /** Drop one clean page; @return the page dropped, or null if every page is dirty. */
+        synchronized PageId evictOne() {
+            if (allDirty)
+                return null;
+            PageId victim = replacement.chooseVictim(cleanPagesOnly);   // never evict a dirty page
+            if (victim != null)
+                remove(victim);
+            else
+                allDirty = true;
+            return victim;
+        }
+
+        /** Drop pid if it is cached and clean; @return true if it was dropped. */
+        synchronized boolean removeIfClean(PageId pid) {
+            Page page = pages.get(pid);
+            return page != null && page.isDirty() == null && remove(pid);
+        }
+
+        synchronized List<Page> snapshot() {
+            return new ArrayList<>(pages.values());
+        }
+    }
+
+    private final LockManager lockManager;
+    private final ReadAhead readAhead;
+    private final PageCleaner pageCleaner;
+    /** Pages brought in by a bulk read and not used by anyone else since. */
+    private final ConcurrentHashMap<PageId, BufferRing> ringPages = new ConcurrentHashMap<>();
+    /** Transactions whose dirty pages are in the log, ready to commit without writing them. */
+    private final Set<TransactionId> loggedCommits = ConcurrentHashMap.newKeySet();
     private TupleLockRecorder lockTupleRecorder;
 
     boolean isUsingTpLock;
@@ -171,203 +315,96 @@ public class BufferPool {
     }
 
 
-    private static class PageLockRecorder {
-        ConcurrentHashMap<PageId, List<LockStru>> stateRecord;
-        ConcurrentHashMap<TransactionId,PageId> waitList;
-
-        public PageLockRecorder(){
-            stateRecord = new ConcurrentHashMap<>();
-            waitList=new ConcurrentHashMap<>();
-        }
-
-        public synchronized boolean requireLock(PageId pid, TransactionId tid, int lockType){
-            if(stateRecord.get(pid) == null){
-                LockStru lockStru = new LockStru(tid, lockType);
-                List<LockStru> lockStrus = new Vector<>();
-                lockStrus.add(lockStru);
-                stateRecord.put(pid, lockStrus);
-                if(waitList.get(tid)!=null)
-                {
-                    waitList.remove(tid);
-                }
-                return true;
-            }
-
-            List<LockStru> lockStrus = stateRecord.get(pid);
-            for(LockStru lockStru : lockStrus){
-                if(lockStru.tid == tid){
-                    if(lockStru.locktype == lockType)
-                    {
-                        if(waitList.get(tid)!=null)
-                        {
-                            waitList.remove(tid);
-                        }
-                        return true;
-                    }
-                    //  if(lock.locktype == 1)
-                    //    return true;
-                    if(lockStrus.size()==1){
-                        lockStru.locktype = 1;
-                        if(waitList.get(tid)!=null)
-                        {
-                            waitList.remove(tid);
-                        }
-                        return true;
-                    }
-                    else{
-                        waitList.put(tid,pid);
-                        return false;
-                    }
-                }
-            }
-            if (lockStrus.get(0).locktype ==1){
-                waitList.put(tid,pid);
-                return false;
-            }
-            if(lockType == 0){
-                LockStru lockStru = new LockStru(tid, 0);
-                lockStrus.add(lockStru);
-                stateRecord.put(pid, lockStrus);
-                if(waitList.get(tid)!=null)
-                {
-                    waitList.remove(tid);
-                }
-                return true;
-            }
-            waitList.put(tid,pid);
-            return false;
-        }
-        public synchronized void releaseLock(PageId pid, TransactionId tid){
-
-            List<LockStru> lockStrus = stateRecord.get(pid);
-            if(lockStrus ==null)
-            {
-                return;
-            }
-            for(int i = 0; i< lockStrus.size(); i++){
-                LockStru lockStru = lockStrus.get(i);
-                if(lockStru.tid == tid){
-                    lockStrus.remove(lockStru);
-
-                    if(lockStrus.size() == 0)
-                        stateRecord.remove(pid);
-                    return;
-                }
-            }
-        }
-        public synchronized boolean holdsLock(PageId pid,TransactionId tid){
-            if(stateRecord.get(pid) == null)
-                return false;
-            List<LockStru> lockStrus = stateRecord.get(pid);
-            for(LockStru lockStru : lockStrus){
-                if(lockStru.tid == tid){
-                    return true;
-                }
-            }
-            return false;
-        }
-
-        private synchronized boolean waitSrc(TransactionId curHolder, List<PageId> curSrc, List<TransactionId> TestedTids) {
-            //来判断等待
-           PageId waitPg = waitList.get(curHolder);//这页事务正在等待的 资源pid
-            if (waitPg == null) {   //如果这个tid什么资源都没有在等待 false
-               return false;
-
-            }
-           for (PageId tmpPid : curSrc) {
-
-                if (tmpPid == waitPg)
-                {
-                    return true;    //直接等待
-                }
-            }
-            //检测间接等待
-            List<LockStru> holders=stateRecord.get(waitPg);   //拥有现在这个事务tid等待的pid的事务们
-
-            if(holders==null||holders.size()==0)
-            {
-                return false;//没有 就没有
-            }
-            for (LockStru pls : holders) {      //否则，遍历这些事务
-               TransactionId holder = pls.tid;
-               if (!TestedTids.contains(holder)) {      //如果有新的没有被测试的事务tid,添加进已经在测试的事务（tested） 进入下一层
-                   TestedTids.add(holder);              //否则，不进行处理，防止无限递归
-                   boolean isWaiting = waitSrc(holder, curSrc, TestedTids);
-                        if (isWaiting)
-                        {
-                            return true;
-                        }
-                    }
-                }
-            return false;
-        }
-
-        public synchronized boolean isDeadLock(PageId pid,TransactionId tid)
-        {
-            //System.out.println("dd?");
-            List<TransactionId> TestedTids=new ArrayList<>();
-            TestedTids.add(tid);
-            //找到现在占用的Pid的资源，看他是否需要tid现在占用的资源
-
-            List<LockStru> lcLst=stateRecord.get(pid);  //获取现在霸占着pid的事务
-
-            if(lcLst==null||lcLst.size()==0)    //没有最好
-            {
-                return false;
-            }
-
-            List<PageId> tidRs=new ArrayList<>();      //tid占有的page们
-
-            for (Map.Entry<PageId, List<LockStru>> entry : stateRecord.entrySet()) {
-                for (LockStru ls : entry.getValue()) {
-                    if (ls.tid==tid) {
-                        tidRs.add(entry.getKey());
-                    }
-                }
-            }
-
-            /*******************************/
-            for(LockStru ls:lcLst)      //看现在拿着pid的tid们有没有间接或者直接等待 tisRs 的
-            {
-                TransactionId curHolder=ls.tid;
-                if(curHolder!=tid) {
-                    boolean isWaiting=waitSrc(curHolder,tidRs,TestedTids);
-                    if(isWaiting)
-                        return true;
-                }
-            }
-
-        return true;
-
-        }
-
-        private synchronized boolean haveCrush(List<PageId> tidRs, PageId pid)
-        {
-            for(PageId p:tidRs)
-            {
-                if(p==pid)
-                    return true;
-            }
-            return false;
-        }
-
+    /**
+     * Creates a BufferPool that caches up to numPages pages, using CLOCK
+     * replacement.
+     *
+     * @param maxPages maximum number of pages in this buffer pool.
+     */
+    public BufferPool(int maxPages) {
+        this(maxPages, ClockReplacementPolicy.FACTORY);
+    }
 
+    /**
+     * Creates a BufferPool that caches up to numPages pages, split into as
+     * many shards as the pool size and core count make worthwhile.
+     *
+     * @param maxPages maximum number of pages in this buffer pool.
+     * @param replacementPolicy creates the policy that picks eviction victims
+     */
+    public BufferPool(int maxPages, ReplacementPolicy.Factory replacementPolicy) {
+        this(maxPages, replacementPolicy, defaultShardCount(maxPages));
     }
 
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
      * @param maxPages maximum number of pages in this buffer pool.
+     * @param replacementPolicy creates the policy of each shard
+     * @param numShards number of partitions of the frame table, rounded
+     *   down to a power of two
      */
-    public BufferPool(int maxPages) {
+    public BufferPool(int maxPages, ReplacementPolicy.Factory replacementPolicy, int numShards) {
         // some code goes here
-        idToPages = new ConcurrentHashMap<>();
         this.maxPages = maxPages;
-        idToTime = new ConcurrentHashMap<>();
-        retriveTime = 0;
-        lockRecorder = new PageLockRecorder();
+        int n = Integer.highestOneBit(Math.max(1, numShards));
+        shards = new Shard[n];
+        for (int i = 0; i < n; i++)
+            shards[i] = new Shard((maxPages + n - 1) / n, replacementPolicy);
+        shardMask = n - 1;
+        residentPages = new AtomicInteger(0);
+        evictionCursor = new AtomicInteger(0);
+        lockManager = new LockManager();
+        readAhead = new ReadAhead(new ReadAhead.Loader() {
+            public void prefetch(PageId pid) {
+                prefetchPage(pid);
+            }
+        }, DEFAULT_READ_AHEAD);
         lockTupleRecorder=new TupleLockRecorder();
         isUsingTpLock=false;
+        pageCleaner = new PageCleaner(this);
+        pageCleaner.start();
+    }
+
+    private static int defaultShardCount(int maxPages) {
+        int byCores = Runtime.getRuntime().availableProcessors() * 4;
+        return Math.max(1, Math.min(Math.min(byCores, MAX_SHARDS), maxPages / MIN_PAGES_PER_SHARD));
+    }
+
+    /** @return the background writer of this pool's dirty pages */
+    PageCleaner pageCleaner() {
+        return pageCleaner;
+    }
+
+    /**
+     * Stops this pool's page cleaner. The pool still works, but dirty pages
+     * are only written when a transaction, an eviction or a checkpoint
+     * needs them to be.
+     */
+    void stopPageCleaner() {
+        pageCleaner.stop();
+    }
+
+    /** @return the number of partitions of the frame table */
+    public int getNumShards() {
+        return shards.length;
+    }
+
+    private Shard shardFor(PageId pid) {
+        int h = pid.hashCode();
+        return shards[(h ^ (h >>> 16)) & shardMask];
+    }
+
+    /**
+     * Sets how many pages past the current one a sequential scan has read
+     * ahead in the background; 0 turns read-ahead off.
+     */
+    public void setReadAheadWindow(int pages) {
+        readAhead.setWindow(pages);
+    }
+
+    public int getReadAheadWindow() {
+        return readAhead.getWindow();
     }
 
     public static int getPageSize() {
@@ -401,54 +438,133 @@ public class BufferPool {
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException, IOException, InterruptedException {
-        int lockType;
-        if(perm == Permissions.READ_ONLY){
-            lockType = 0;
-        }
-        else{
-            lockType = 1;
-        }
-
-        long start = System.currentTimeMillis();
-        long timeout = new Random().nextInt(2000) + 1000;
+        return getPage(tid, pid, perm, null);
+    }
 
+    /**
+     * Retrieve the specified page on behalf of a bulk read. If the page is
+     * not cached it takes a frame from ring instead of one from the rest of
+     * the pool once the ring is full. Bulk reads get no read-ahead: the
+     * prefetched pages would fill the rest of the pool the ring keeps the
+     * read out of.
+     *
+     * @param ring the bulk read's ring, or null for an ordinary request
+     * @see #getPage(TransactionId, PageId, Permissions)
+     * @see #bulkReadRing(int)
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+            throws TransactionAbortedException, DbException, IOException, InterruptedException {
+        lockManager.acquireLock(tid, pid, perm == Permissions.READ_WRITE);
+        if (ring == null)
+            readAhead.pageRequested(tid, pid);
+
+        Shard shard = shardFor(pid);
+        Page page = shard.get(pid);
+        if (page != null) {
+            // a ring page someone else needs is worth keeping
+            if (ring == null && !ringPages.isEmpty())
+                ringPages.remove(pid);
+            return page;
+        }
 
-        boolean flag= lockRecorder.requireLock(pid,tid,lockType);
+        // read outside the latch; if another reader beat us to it, use its copy
+        int tabId = pid.getTableId();
+        DbFile file = Database.getCatalog().getDatabaseFile(tabId);
+        page = file.readPage(pid);
+        if (ring != null)
+            recycleRingFrame(ring);
+        reserveFrame(shard, tid);
+        Page cached = shard.putIfAbsent(page);
+        if (cached != null) {
+            residentPages.decrementAndGet();
+            return cached;
+        }
+        if (ring != null) {
+            ring.add(pid);
+            ringPages.put(pid, ring);
+        }
+        return page;
+        // some code goes here
+    }
 
-        
+    /**
+     * Returns a ring for a bulk read of a file of the given number of pages,
+     * or null if the file fits in the pool and can be read through it as
+     * usual.
+     */
+    public BufferRing bulkReadRing(int filePages) {
+        int size = Math.min(RING_PAGES, maxPages / 8);
+        if (size < 1 || filePages <= maxPages)
+            return null;
+        return new BufferRing(size);
+    }
 
-        while (!flag)
-        {
-/*
-            if(lockRecorder.isDeadLock(pid,tid))
-                throw new TransactionAbortedException();
+    /**
+     * Ends a bulk read. The pages still in its ring stay cached as ordinary
+     * pages.
+     */
+    public void releaseRing(BufferRing ring) {
+        if (ring == null)
+            return;
+        for (PageId pid : ring.clear())
+            ringPages.remove(pid, ring);
+    }
 
- */
+    /** Frees the oldest frame of a full ring, unless the page has left the ring. */
+    private void recycleRingFrame(BufferRing ring) {
+        PageId victim = ring.nextVictim();
+        if (victim == null || !ringPages.remove(victim, ring))
+            return;
+        if (shardFor(victim).removeIfClean(victim))
+            residentPages.decrementAndGet();
+    }
 
-            long now = System.currentTimeMillis();
-            if(now-start > timeout){
-                throw new TransactionAbortedException();
+    /**
+     * Loads a page for read-ahead without locking it. The read is thrown
+     * away if the page turns up in the pool meanwhile, or if anything in
+     * its shard was dropped or replaced while the page was being read,
+     * since the disk copy may then be stale.
+     */
+    private void prefetchPage(PageId pid) {
+        Shard shard = shardFor(pid);
+        long version;
+        synchronized (shard) {
+            if (shard.peek(pid) != null)
+                return;
+            version = shard.version;
+        }
+        try {
+            Page page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            if (page == null)
+                return;
+            reserveFrame(shard, null);
+            synchronized (shard) {
+                if (shard.version == version && shard.putIfAbsent(page) == null)
+                    return;
             }
-             //   Thread.sleep(500);
-
-
-            flag= lockRecorder.requireLock(pid,tid,lockType);
+            residentPages.decrementAndGet();
+        } catch (RuntimeException | DbException e) {
+            // the table is gone or the pool is full of dirty pages; the scan
+            // will read the page itself
         }
+    }
 
-
-        if(!idToPages.containsKey(pid)){
-            int tabId = pid.getTableId();
-            DbFile file = Database.getCatalog().getDatabaseFile(tabId);
-            Page page = file.readPage(pid);
-            if(idToPages.size()== maxPages){
-                evictPage();
-            }
-            idToPages.put(pid,page);
-            idToTime.put(pid, retriveTime++);
-            return page;
+    /**
+     * Claims one frame of the pool budget for a page about to be added to
+     * the given shard, evicting a page if the pool is full.
+     *
+     * @param tid the transaction the frame is for, or null for a read-ahead
+     */
+    private void reserveFrame(Shard preferred, TransactionId tid) throws DbException {
+        while (residentPages.incrementAndGet() > maxPages) {
+            residentPages.decrementAndGet();
+            evictPage(preferred, tid);
         }
-        return idToPages.get(pid);
-        // some code goes here
+    }
+
+    /** Return true if pid is cached in the pool. */
+    boolean isCached(PageId pid) {
+        return shardFor(pid).peek(pid) != null;
     }
 
     /**
@@ -463,7 +579,7 @@ public class BufferPool {
     public void releasePage(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for lab1|lab2
-        lockRecorder.releaseLock(pid,tid);
+        lockManager.releaseLock(tid, pid);
     }
 
     public void releaseTuple(TransactionId tid,RecordId rid)
@@ -486,7 +602,7 @@ public class BufferPool {
     public boolean holdsLock(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for lab1|lab2
-        return lockRecorder.holdsLock(pid,tid);
+        return lockManager.holdsLock(tid, pid);
     }
 
     public boolean holdsTupleLock(TransactionId tid,RecordId rid)
@@ -496,6 +612,11 @@ public class BufferPool {
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
+     * <p>
+     * If {@link #logDirtyPages} was called for tid, its commit is already in
+     * the log and its pages stay dirty in the pool until the page cleaner or
+     * an eviction writes them (NO-FORCE). Otherwise committing writes them
+     * out first.
      *
      * @param tid the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
@@ -504,35 +625,70 @@ public class BufferPool {
             throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        boolean logged = loggedCommits.remove(tid);
         if(commit){
-            flushPages(tid);
+            if (!logged)
+                flushPages(tid);
+            for (PageId pid : lockManager.exclusiveLocks(tid)) {
+                Page page = shardFor(pid).peek(pid);
+                if (page != null)
+                    page.setBeforeImage();
+            }
         }else{
             abortPages(tid);
         }
-        for(PageId pid: idToPages.keySet())
-        {
-            if(holdsLock(tid,pid))
-                releasePage(tid,pid);
-
-            if(isUsingTpLock)
-            {
+        lockManager.releaseAllLocks(tid);
+        readAhead.transactionComplete(tid);
 
+    }
 
+    /**
+     * Puts back the last committed version of the pages tid changed. That
+     * version may never have been written (NO-FORCE), so it comes from the
+     * page's before image rather than from disk, and stays dirty.
+     */
+    private void abortPages(TransactionId tid) throws IOException {
+        // tid can only have changed pages it holds the write lock on
+        for (PageId pid : lockManager.exclusiveLocks(tid)) {
+            Shard shard = shardFor(pid);
+            Page page = shard.peek(pid);
+            if (page == null)
+                continue;
+            if (page.isDirty() != null) {
+                Page committed = page.getBeforeImage();
+                committed.markDirty(true, tid);
+                shard.replace(committed);
+            } else {
+                // a deadlock abort can interrupt an operation after it
+                // changed a page but before the page was marked dirty
+                discardPage(pid);
             }
         }
+    }
 
+    /**
+     * Logs the changes to every page tid has dirtied, ahead of its
+     * commit record. Once tid commits, its pages can stay dirty in the pool
+     * since the log has what is needed to redo them after a crash.
+     *
+     * @see #transactionComplete(TransactionId, boolean)
+     */
+    public void logDirtyPages(TransactionId tid) throws IOException {
+        LogFile log = Database.getLogFile();
+        for (Page page : pagesDirtiedBy(tid))
+            page.setLSN(log.logChange(tid, page));
+        loggedCommits.add(tid);
     }
-    private synchronized void abortPages(TransactionId tid) throws IOException {
-        for (PageId pid : idToPages.keySet()) {
-            Page page = idToPages.get(pid);
 
-            if (page.isDirty() == tid) {
-                int tabId = pid.getTableId();
-                DbFile file =  Database.getCatalog().getDatabaseFile(tabId);
-                Page pageFromDisk = file.readPage(pid);//读回来
-                idToPages.put(pid, pageFromDisk);
-            }
+    /** The cached pages tid has dirtied. */
+    private List<Page> pagesDirtiedBy(TransactionId tid) {
+        ArrayList<Page> dirty = new ArrayList<>();
+        for (PageId pid : lockManager.exclusiveLocks(tid)) {
+            Page page = shardFor(pid).peek(pid);
+            if (page != null && page.isDirty() == tid)
+                dirty.add(page);
         }
+        return dirty;
     }
 
 
@@ -557,11 +713,20 @@ public class BufferPool {
         // not necessary for lab1
         DbFile file = Database.getCatalog().getDatabaseFile(tableId);
         List<Page> pgLst=file.insertTuple(tid,t);
-        for(Page p:pgLst){
-            p.markDirty(true,tid);// update bufferpool
-            if(idToPages.size() > maxPages)
-                evictPage();
-            idToPages.put(p.getId(),p);
+        cacheDirtyPages(tid, pgLst);
+    }
+
+    private void cacheDirtyPages(TransactionId tid, List<Page> pages) throws DbException {
+        for (Page p : pages) {
+            p.markDirty(true, tid);// update bufferpool
+            Shard shard = shardFor(p.getId());
+            if (shard.peek(p.getId()) == p) {
+                shard.put(p);
+                continue;
+            }
+            reserveFrame(shard, tid);
+            if (!shard.put(p))
+                residentPages.decrementAndGet();
         }
     }
 
@@ -585,12 +750,7 @@ public class BufferPool {
         DbFile file = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
         List<Page> pgLst=file.deleteTuple(tid,t);
 
-        for(Page p:pgLst){
-            p.markDirty(true,tid);// update bufferpool
-            if(idToPages.size() > maxPages)
-                evictPage();
-            idToPages.put(p.getId(),p);
-        }
+        cacheDirtyPages(tid, pgLst);
     }
 
 
@@ -599,12 +759,79 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-        for (PageId pid : idToPages.keySet()) {
-            flushPage(pid);
+        writePages(dirtyPages());
+    }
+
+    /**
+     * Writes pages to their files and marks them clean. A page dirtied by a
+     * transaction that is still running is logged with its before image
+     * first, so the change can be undone if the transaction aborts or never
+     * finishes, and the log is forced through the newest page LSN before
+     * any page is written. Written pages leave the log's dirty page table.
+     */
+    private void writePages(List<Page> pages) throws IOException {
+        LogFile log = Database.getLogFile();
+        long lsn = 0;
+        long[] newest = new long[pages.size()];
+        for (int i = 0; i < pages.size(); i++) {
+            Page page = pages.get(i);
+            TransactionId dirtier = page.isDirty();
+            if (dirtier != null && log.isActive(dirtier))
+                page.setLSN(log.logChange(dirtier, page));
+            lsn = Math.max(lsn, page.getLSN());
+            newest[i] = log.newestUpdate(page.getId());
         }
+        if (lsn > 0)
+            log.force(lsn);
+        PageCleaner.write(pages);
+        for (int i = 0; i < pages.size(); i++) {
+            Page page = pages.get(i);
+            log.pageWritten(page.getId(), newest[i]);
+            page.markDirty(false, null);
+            shardFor(page.getId()).cleaned(page.getId());
+        }
+    }
+
+    /** The dirty pages in the pool. */
+    List<Page> dirtyPages() {
+        ArrayList<Page> dirty = new ArrayList<>();
+        for (Shard shard : shards) {
+            for (Page page : shard.snapshot()) {
+                if (page.isDirty() != null)
+                    dirty.add(page);
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * Writes out those of the given pages that are still dirty and cached
+     * and that nobody holds the write lock on, and marks them clean. Each
+     * page is read-locked while it is written so nobody can change it
+     * in the meantime; pages that cannot be locked without waiting are
+     * skipped.
+     *
+     * @return the number of pages written
+     */
+    int writeBack(List<Page> pages) throws IOException {
+        TransactionId cleaner = new TransactionId();
+        ArrayList<Page> locked = new ArrayList<>();
+        try {
+            for (Page page : pages) {
+                PageId pid = page.getId();
+                if (!lockManager.tryAcquireLock(cleaner, pid, false))
+                    continue;
+                if (shardFor(pid).peek(pid) == page && page.isDirty() != null)
+                    locked.add(page);
+            }
+            writePages(locked);
+        } finally {
+            lockManager.releaseAllLocks(cleaner);
+        }
+        return locked.size();
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -615,70 +842,81 @@ public class BufferPool {
      Also used by B+ tree files to ensure that deleted pages
      are removed from the cache so they can be reused safely
      */
-    public synchronized void discardPage(PageId pid) {
-        // some code goes here
-        // not necessary for lab1
-        idToPages.remove(pid);
-        idToTime.remove(pid);
-    }
-
-    /**
-     * Flushes a certain page to disk
-     * @param pid an ID indicating the page to flush
-     */
-    private synchronized  void flushPage(PageId pid) throws IOException {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-        Page rtPg=idToPages.get(pid);
-
-        Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(rtPg);
-
-        TransactionId tid=rtPg.isDirty();
-
-        //rtPg.markDirty(false,tid);
-        rtPg.markDirty(false,null);
+        if (shardFor(pid).remove(pid))
+            residentPages.decrementAndGet();
+        ringPages.remove(pid);
     }
 
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
-        for (PageId pid : idToPages.keySet()) {
-            Page page = idToPages.get(pid);
-            if (page.isDirty() == tid) {
-                flushPage(pid);
-            }
-        }
+        // tid holds the write locks, so nobody else can change these pages
+        writePages(pagesDirtiedBy(tid));
+    }
 
+    /**
+     * Writes out the pages tid has dirtied so their frames can be reused
+     * (STEAL). Only a transaction that is in the log can lose its pages
+     * this way, since its log records are what an abort or recovery undoes
+     * the writes from. A transaction only ever steals its own pages: those
+     * of another transaction may be in the middle of a change.
+     *
+     * @return the number of pages written
+     */
+    private int stealPages(TransactionId tid) throws IOException {
+        if (!Database.getLogFile().isActive(tid))
+            return 0;
+        List<Page> pages = pagesDirtiedBy(tid);
+        writePages(pages);
+        return pages.size();
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Discards a page from the buffer pool, starting with the shard the
+     * caller is about to add a page to and moving on to the others if all of
+     * its pages are dirty. If every page is dirty, the ones nobody is
+     * changing are written out first, and failing that the ones tid has
+     * changed itself.
      */
-    private synchronized  void evictPage() throws DbException {
+    private void evictPage(Shard preferred, TransactionId tid) throws DbException {
         // some code goes here
         // not necessary for lab1
-        PageId pageId = null;
-        int minTime = -1;         // find the oldest page to evict (which is not dirty)
-        for (PageId pid: idToTime.keySet()) {
-            Page page = idToPages.get(pid);            // skip dirty page
-            if (page.isDirty() != null)
-                continue;
-            if (pageId == null) {
-                pageId = pid;
-                minTime = idToTime.get(pid);
-                continue;
+        PageId victim = findVictim(preferred);
+        try {
+            if (victim == null) {
+                pageCleaner.wakeUp();
+                writeBack(dirtyPages());
+                victim = findVictim(preferred);
             }
-            if (idToTime.get(pid) < minTime)
-            {
-                pageId = pid;
-                minTime = idToTime.get(pid);
+            if (victim == null && tid != null && stealPages(tid) > 0)
+                victim = findVictim(preferred);
+        } catch (IOException e) {
+            throw new DbException("could not write back dirty pages: " + e);
+        }
+        if (victim != null) {
+            residentPages.decrementAndGet();
+            ringPages.remove(victim);
+            return;
+        }
+        throw  new DbException("Wrong in evict Page!");
+    }
+
+    /** Drops a clean page; @return the page dropped, or null if every page is dirty. */
+    private PageId findVictim(Shard preferred) {
+        PageId victim = preferred.evictOne();
+        if (victim == null) {
+            int start = evictionCursor.getAndIncrement();
+            for (int i = 0; victim == null && i < shards.length; i++) {
+                Shard shard = shards[(start + i) & shardMask];
+                if (shard != preferred)
+                    victim = shard.evictOne();
             }
         }
-        if (pageId == null)
-            throw  new DbException("Wrong in evict Page!");
-        discardPage(pageId);
+        return victim;
     }
 }
@@ -0,0 +1,50 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+
+/**
+ * A small private set of frames for one bulk read, such as a sequential
+ * scan of a table larger than the buffer pool.
+ * <p>
+ * Pages a bulk read brings into the pool through {@link BufferPool#getPage(
+ * TransactionId, PageId, Permissions, BufferRing)} are remembered in the
+ * ring. Once the ring is full, the next page the read brings in replaces
+ * the oldest of them instead of a page from the rest of the pool, so one
+ * big scan cycles through a handful of frames and leaves the working set
+ * of everyone else alone. A ring page that another request uses in the
+ * meantime has proved to be worth keeping; it leaves the ring and stays in
+ * the pool like any other page. Pages that were already cached when the
+ * read got to them are used as they are.
+ * <p>
+ * A ring belongs to one iterator and is not safe for concurrent use.
+ */
+class BufferRing {
+
+    private final int capacity;
+    private final ArrayDeque<PageId> pages;
+
+    BufferRing(int capacity) {
+        this.capacity = capacity;
+        this.pages = new ArrayDeque<>(capacity);
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /** @return the oldest page if the ring is full, so it can be recycled */
+    PageId nextVictim() {
+        return pages.size() >= capacity ? pages.pollFirst() : null;
+    }
+
+    void add(PageId pid) {
+        pages.addLast(pid);
+    }
+
+    /** Empties the ring; @return the pages it held */
+    ArrayDeque<PageId> clear() {
+        ArrayDeque<PageId> held = new ArrayDeque<>(pages);
+        pages.clear();
+        return held;
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
@@ -59,7 +60,9 @@ public class Catalog {
             throw new IllegalArgumentException();
         Table tmpTable=new Table(file,name,pkeyField);
 
-        inToTable.put(file.getId(),tmpTable);
+        Table replaced=inToTable.put(file.getId(),tmpTable);
+        if(replaced!=null&&replaced.file!=file)
+            closeFile(replaced.file);
         nameToId.put(name,file.getId());
 
     }
@@ -137,13 +140,25 @@ public class Catalog {
         return inToTable.get(id).name;
     }//ok
     
-    /** Delete all tables from the catalog */
+    /** Delete all tables from the catalog, closing their files */
     public void clear() {
         // some code goes here
+        for (Table table : inToTable.values())
+            closeFile(table.file);
         inToTable.clear();
         nameToId.clear();
     }
     
+    private static void closeFile(DbFile file) {
+        if (!(file instanceof Closeable))
+            return;
+        try {
+            ((Closeable) file).close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
      * @param catalogFile
@@ -155,7 +170,10 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
             
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [option ...]
+                //the table options are mmap, to read the table through a memory mapping,
+                //slotted, to store it as a SlottedFile with variable-length records,
+                //and pax, to store it as a PaxFile whose pages group values by column
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -186,8 +204,44 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
-                addTable(tabHf,name,primaryKey);
+                boolean mmap = false, slotted = false, pax = false;
+                for (String option : line.substring(line.indexOf(")") + 1).trim().split("\\s+")) {
+                    if (option.equals("mmap"))
+                        mmap = true;
+                    else if (option.equals("slotted"))
+                        slotted = true;
+                    else if (option.equals("pax"))
+                        pax = true;
+                    else if (option.length() > 0) {
+                        System.out.println("Unknown table option " + option);
+                        System.exit(0);
+                    }
+                }
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabFile;
+                if (slotted && pax) {
+                    System.out.println("Options slotted and pax conflict for table " + name);
+                    System.exit(0);
+                }
+                if ((slotted || pax) && mmap) {
+                    System.out.println("Option mmap does not apply to " + (slotted ? "slotted" : "pax")
+                            + " table " + name);
+                    System.exit(0);
+                }
+                if (slotted) {
+                    tabFile = new SlottedFile(dataFile, t);
+                } else if (pax) {
+                    tabFile = new PaxFile(dataFile, t);
+                } else {
+                    HeapFile tabHf = new HeapFile(dataFile, t);
+                    tabHf.setMemoryMapped(mmap);
+                    //page ranges for skipping pages in filtered scans, and the free
+                    //space on each page for inserts, kept next to the data
+                    tabHf.keepZoneMap(new File(baseFolder+"/"+name + ".zone"));
+                    tabHf.keepFreeSpaceMap(new File(baseFolder+"/"+name + ".fsm"));
+                    tabFile = tabHf;
+                }
+                addTable(tabFile,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
@@ -0,0 +1,95 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * CLOCK (second chance) replacement. Resident pages sit in a circular array of
+ * frames with one reference bit each; a hit only sets the bit, and the clock
+ * hand sweeps forward clearing bits until it finds an unreferenced page that
+ * the filter accepts. Each page is passed over at most twice per sweep, so
+ * victim selection is O(1) amortized.
+ */
+public class ClockReplacementPolicy implements ReplacementPolicy {
+
+    public static final ReplacementPolicy.Factory FACTORY = new ReplacementPolicy.Factory() {
+        public ReplacementPolicy create(int capacity) {
+            return new ClockReplacementPolicy(capacity);
+        }
+    };
+
+    private final ArrayList<PageId> frames;
+    private final ArrayList<Boolean> referenced;
+    private final HashMap<PageId, Integer> frameOf;
+    /** indexes of frames whose page was removed, reused before growing */
+    private final ArrayList<Integer> freeFrames;
+    private int hand;
+
+    public ClockReplacementPolicy(int capacity) {
+        frames = new ArrayList<>(capacity);
+        referenced = new ArrayList<>(capacity);
+        frameOf = new HashMap<>(capacity * 2);
+        freeFrames = new ArrayList<>();
+        hand = 0;
+    }
+
+    public void pageAdded(PageId pid) {
+        if (frameOf.containsKey(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        int frame;
+        if (!freeFrames.isEmpty()) {
+            frame = freeFrames.remove(freeFrames.size() - 1);
+            frames.set(frame, pid);
+            referenced.set(frame, true);
+        } else {
+            frame = frames.size();
+            frames.add(pid);
+            referenced.add(true);
+        }
+        frameOf.put(pid, frame);
+    }
+
+    public void pageAccessed(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame != null)
+            referenced.set(frame, true);
+    }
+
+    public void pageRemoved(PageId pid) {
+        Integer frame = frameOf.remove(pid);
+        if (frame == null)
+            return;
+        frames.set(frame, null);
+        referenced.set(frame, false);
+        freeFrames.add(frame);
+    }
+
+    public void pageCleaned(PageId pid) {
+        // dirty pages are not set aside, so there is nothing to bring back
+    }
+
+    public PageId chooseVictim(VictimFilter filter) {
+        int n = frames.size();
+        if (n == 0)
+            return null;
+        // the first lap clears reference bits, the second one can pick any
+        // unreferenced page; after that every candidate was rejected
+        for (int step = 0; step < 2 * n; step++) {
+            if (hand >= n)
+                hand = 0;
+            int frame = hand++;
+            PageId pid = frames.get(frame);
+            if (pid == null)
+                continue;
+            if (referenced.get(frame)) {
+                referenced.set(frame, false);
+                continue;
+            }
+            if (filter.canEvict(pid))
+                return pid;
+        }
+        return null;
+    }
+}
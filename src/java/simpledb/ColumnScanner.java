@@ -0,0 +1,18 @@
+package simpledb;
+
+/**
+ * A DbFile that can scan its tuples decoding only some of their columns,
+ * for a scan whose query reads only those.
+ *
+ * @see SeqScan#setColumns
+ */
+interface ColumnScanner {
+    /**
+     * Returns an iterator over all the tuples stored in this file whose
+     * fields are decoded only for the given columns; the other fields of
+     * the tuples it returns may be null.
+     *
+     * @param columns which columns the caller reads, by field index
+     */
+    DbFileIterator iterator(TransactionId tid, boolean[] columns);
+}
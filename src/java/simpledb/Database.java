@@ -52,10 +52,18 @@ public class Database {
 
     /**
      * Method used for testing -- create a new instance of the buffer pool and
-     * return it
+     * return it. The old pool's page cleaner is stopped, and committed pages
+     * the old pool has not written yet are written first.
      */
     public static BufferPool resetBufferPool(int pages) {
         java.lang.reflect.Field bufferPoolF=null;
+        try {
+            BufferPool old = getBufferPool();
+            old.stopPageCleaner();
+            old.writeBack(old.dirtyPages());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
@@ -75,7 +83,7 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
-        _instance.set(new Database());
+        _instance.getAndSet(new Database())._bufferpool.stopPageCleaner();
     }
 
 }
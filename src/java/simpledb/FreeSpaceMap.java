@@ -0,0 +1,185 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * How many empty slots each page of a HeapFile had when it was last seen,
+ * so that an insert goes straight to a page with room instead of trying
+ * every page of the table in turn.
+ * <p>
+ * The counts are only hints: a page is seen when it is read from disk,
+ * by a scan or anything else, and when a tuple is inserted into or deleted
+ * from it, and an insert that is sent to a page that has filled up since
+ * corrects the count and asks again. Pages that have not been seen, as in
+ * a table loaded without a saved map or after a crash, are offered once
+ * no page is known to have room: the last page first, then the rest in
+ * page order, so every page is tried once before the file grows.
+ * <p>
+ * Each page offered to a transaction is claimed for it and leaves the set
+ * of pages on offer, so that concurrent inserters are spread over
+ * different pages instead of waiting for each other's locks, and each
+ * transaction keeps inserting into the page it has. A claim lasts while
+ * the claimant holds a lock on the page; whether it still does is only
+ * checked when no other page is on offer, so finding a page costs
+ * O(log pages) rather than a look at every claimed page.
+ * <p>
+ * The counts can be saved to a small sidecar file when the table is
+ * closed (see {@link HeapFile#keepFreeSpaceMap}), which is ignored, like
+ * a zone map's, if the data file has changed since.
+ */
+class FreeSpaceMap {
+
+    private final int tableId;
+    /** empty slots by page, or -1 if the page has not been seen */
+    private final ArrayList<Integer> emptySlots = new ArrayList<Integer>();
+    /** pages with empty slots that nobody has claimed, lowest first */
+    private final TreeSet<Integer> withSpace = new TreeSet<Integer>();
+    /** the transaction each claimed page was offered to */
+    private final HashMap<Integer, TransactionId> claims = new HashMap<Integer, TransactionId>();
+    /** the page each transaction was last offered */
+    private final HashMap<TransactionId, Integer> claimed = new HashMap<TransactionId, Integer>();
+    /** every page before this one has been seen or offered */
+    private int nextUnseen;
+
+    FreeSpaceMap(int tableId) {
+        this.tableId = tableId;
+    }
+
+    private boolean isKnown(int pgNo) {
+        return pgNo < emptySlots.size() && emptySlots.get(pgNo) >= 0;
+    }
+
+    private boolean hasSpace(int pgNo) {
+        return pgNo < emptySlots.size() && emptySlots.get(pgNo) > 0;
+    }
+
+    /** Records that page pgNo has empty empty slots. */
+    synchronized void update(int pgNo, int empty) {
+        while (emptySlots.size() <= pgNo)
+            emptySlots.add(-1);
+        emptySlots.set(pgNo, empty);
+        if (empty == 0) {
+            withSpace.remove(pgNo);
+            unclaim(pgNo);
+        } else if (!claims.containsKey(pgNo)) {
+            withSpace.add(pgNo);
+        }
+    }
+
+    /** Claims page pgNo for tid, e.g. because tid is about to insert into it. */
+    synchronized void claim(int pgNo, TransactionId tid) {
+        withSpace.remove(pgNo);
+        TransactionId old = claims.put(pgNo, tid);
+        if (old != null && !old.equals(tid) && Integer.valueOf(pgNo).equals(claimed.get(old)))
+            claimed.remove(old);
+        claimed.put(tid, pgNo);
+    }
+
+    private void unclaim(int pgNo) {
+        TransactionId holder = claims.remove(pgNo);
+        if (holder != null && Integer.valueOf(pgNo).equals(claimed.get(holder)))
+            claimed.remove(holder);
+    }
+
+    /**
+     * Offers tid a page that may have an empty slot, preferring the page it
+     * was offered last, and claims it for tid.
+     *
+     * @param numPages the number of pages in the file
+     * @return the page number, or -1 if no page has room
+     */
+    synchronized int pageFor(TransactionId tid, int numPages) {
+        Integer own = claimed.get(tid);
+        if (own != null && hasSpace(own))
+            return own;
+        if (withSpace.isEmpty())
+            releaseClaims(tid);
+        if (withSpace.isEmpty()) {
+            // the last page first, where a file that was appended to has room
+            int pgNo = numPages - 1;
+            if (pgNo < 0 || isKnown(pgNo)) {
+                while (nextUnseen < numPages && isKnown(nextUnseen))
+                    nextUnseen++;
+                pgNo = nextUnseen < numPages ? nextUnseen : -1;
+            }
+            if (pgNo >= 0) {
+                // a page nobody has seen yet; the insert finds out how much room it has
+                update(pgNo, 1);
+                claim(pgNo, tid);
+                return pgNo;
+            }
+        }
+        Integer next = withSpace.pollFirst();
+        if (next == null)
+            return -1;
+        claim(next, tid);
+        return next;
+    }
+
+    /**
+     * Puts the claimed pages whose claimant holds no lock on them any more
+     * back on offer, and the pages tid has claimed itself.
+     */
+    private void releaseClaims(TransactionId tid) {
+        Iterator<Map.Entry<Integer, TransactionId>> it = claims.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, TransactionId> e = it.next();
+            int pgNo = e.getKey();
+            TransactionId holder = e.getValue();
+            if (holder.equals(tid)
+                    || !Database.getBufferPool().holdsLock(holder, new HeapPageId(tableId, pgNo))) {
+                it.remove();
+                if (Integer.valueOf(pgNo).equals(claimed.get(holder)))
+                    claimed.remove(holder);
+                withSpace.add(pgNo);
+            }
+        }
+    }
+
+    /**
+     * Reads the counts saved in sidecar, if it was saved for dataFile as
+     * it is now; otherwise no page has been seen.
+     */
+    synchronized void load(File sidecar, File dataFile) throws IOException {
+        emptySlots.clear();
+        withSpace.clear();
+        claims.clear();
+        claimed.clear();
+        nextUnseen = 0;
+        if (!sidecar.exists())
+            return;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)));
+        try {
+            if (in.readLong() != dataFile.length() || in.readLong() != dataFile.lastModified())
+                return;
+            int pages = in.readInt();
+            for (int p = 0; p < pages; p++)
+                update(p, in.readInt());
+        } catch (EOFException e) {
+            // truncated; use none of it
+            emptySlots.clear();
+            withSpace.clear();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Saves the counts to sidecar, recording dataFile's length and
+     * modification time; the data file must not change until the table is
+     * used again.
+     */
+    synchronized void save(File sidecar, File dataFile) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sidecar)));
+        try {
+            out.writeLong(dataFile.length());
+            out.writeLong(dataFile.lastModified());
+            out.writeInt(emptySlots.size());
+            for (int empty : emptySlots)
+                out.writeInt(empty);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -1,23 +1,43 @@
 
 package simpledb;
 
-import jdk.internal.org.objectweb.asm.tree.TryCatchBlockNode;
-
 import java.io.*;
 import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.util.*;
-import java.io.RandomAccessFile;
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
  * in no particular order. Tuples are stored on pages, each of which is a fixed
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * Pages are read and written through one FileChannel that stays open until
+ * the file is closed, which {@link Catalog#clear} does for every table.
+ * <p>
+ * A read-mostly table can be put in memory-mapped mode (see
+ * {@link #setMemoryMapped}), in which pages are copied out of a read-only
+ * mapping of the file instead of being read with a system call each. Writes
+ * still go through the channel and show up in the mapping; the file is
+ * mapped again once it has grown past the end of the mapping. Because of
+ * that, a page does not keep a view of the mapping: its tuples and its
+ * before image must go on seeing the bytes it was read with after the page
+ * has been written back. The mapping saves the system call, not the copy.
+ * <p>
+ * The file keeps a {@link ZoneMap} of the range of each INT column on each
+ * page, so a scan given predicates on them (see {@link #iterator(
+ * TransactionId, List)}) skips the pages where they cannot hold. For
+ * tables loaded in time order this prunes a range query like an index.
+ * <p>
+ * Inserts find a page with room through a {@link FreeSpaceMap} instead of
+ * trying the pages in turn, and concurrent inserters are given different
+ * pages.
  *
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
-public class HeapFile implements DbFile {
+public class HeapFile implements DbFile, Closeable, PageRunWriter, PredicateScanner {
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -30,10 +50,25 @@ public class HeapFile implements DbFile {
      */
     private File oneFile;
     private TupleDesc tpDesc;
+    private final PageChannel channel;
+    private volatile boolean memoryMapped;
+    /** the current mapping in memory-mapped mode, or null if not mapped yet */
+    private volatile MappedByteBuffer mapping;
+    private final ZoneMap zoneMap;
+    /** where the zone map is saved when the file is closed, or null */
+    private volatile File zoneFile;
+    private final FreeSpaceMap freeSpace;
+    /** where the free space map is saved when the file is closed, or null */
+    private volatile File freeSpaceFile;
+    /** held while a page is appended to the file */
+    private final Object appendLock = new Object();
     public HeapFile(File f, TupleDesc td) {
         // some code goes here
         this.oneFile=f;
         this.tpDesc=td;
+        this.channel=new PageChannel(f);
+        this.zoneMap=new ZoneMap(td);
+        this.freeSpace=new FreeSpaceMap(getId());
     }
 
     /**
@@ -69,6 +104,62 @@ public class HeapFile implements DbFile {
         // some code goes here
         return tpDesc;
     }
+    /**
+     * Selects whether pages are read through a memory mapping of the file.
+     * Each page read is still copied out of the mapping, see the class
+     * comment.
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+        if (!memoryMapped)
+            mapping = null;
+    }
+
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * Keeps the zone map of this file in sidecar across runs: reads it now
+     * if it was saved for the file as it is, and saves it there whenever
+     * the file is closed.
+     */
+    public void keepZoneMap(File sidecar) throws IOException {
+        zoneMap.load(sidecar, oneFile);
+        this.zoneFile = sidecar;
+    }
+
+    /**
+     * Keeps the free space map of this file in sidecar across runs, the
+     * same way as {@link #keepZoneMap}.
+     */
+    public void keepFreeSpaceMap(File sidecar) throws IOException {
+        freeSpace.load(sidecar, oneFile);
+        this.freeSpaceFile = sidecar;
+    }
+
+    /**
+     * Returns a mapping that covers the first end bytes of the file,
+     * mapping the file again if it has grown, or null if the file is too
+     * large to map in one piece.
+     */
+    private MappedByteBuffer mappingTo(long end) throws IOException {
+        MappedByteBuffer m = mapping;
+        if (m != null && m.capacity() >= end)
+            return m;
+        synchronized (this) {
+            m = mapping;
+            if (m == null || m.capacity() < end) {
+                long length = oneFile.length();
+                if (length > Integer.MAX_VALUE)
+                    return null;
+                m = channel.map(length);
+                mapping = m;
+            }
+            return m;
+        }
+    }
+
     /**
      * Read the specified page from disk.
      *
@@ -80,29 +171,40 @@ public class HeapFile implements DbFile {
     public Page readPage(PageId pid){
         // some code goes here
         try{
-            RandomAccessFile tmpFile=new RandomAccessFile(oneFile,"r");
             int pgNo=pid.getPageNumber();
             int pageSize=BufferPool.getPageSize();
-            if(pageSize*(pgNo+1)>oneFile.length())         //页码从0开始
+            if((long)pageSize*(pgNo+1)>oneFile.length())         //页码从0开始
             {
-                tmpFile.close();
                 throw new IllegalArgumentException("Wrong in HeapFile! pgNo does no exist!");
             }
 
+            HeapPageId rtId= new HeapPageId(pid.getTableId(),pid.getPageNumber());
+            long offset=(long)pgNo*pageSize;
+            MappedByteBuffer m = memoryMapped ? mappingTo(offset+pageSize) : null;
+            if(m!=null)
+            {
+                ByteBuffer slice=m.duplicate();
+                slice.position((int)offset).limit((int)offset+pageSize);
+                HeapPage rtPage=new HeapPage(rtId,slice.slice());
+                zoneMap.include(pgNo, slice.slice(), true);
+                freeSpace.update(pgNo, rtPage.getNumEmptySlots());
+                return rtPage;
+            }
+
             byte[] bytes = new byte[pageSize];
 
-            tmpFile.seek(pgNo*pageSize);
-            tmpFile.read(bytes);
+            channel.read(ByteBuffer.wrap(bytes), offset);
 
-            HeapPageId rtId= new HeapPageId(pid.getTableId(),pid.getPageNumber());
             HeapPage rtPage=new HeapPage(rtId,bytes);
+            zoneMap.include(pgNo, ByteBuffer.wrap(bytes), true);
+            freeSpace.update(pgNo, rtPage.getNumEmptySlots());
 
             return rtPage;
         }
         catch (IOException e){
-            e.printStackTrace();
+            // including a page whose checksum does not match
+            throw new RuntimeException(e);
         }
-        return null;
     }// TO DO
 
     // see DbFile.java for javadocs
@@ -115,12 +217,10 @@ public class HeapFile implements DbFile {
             {
                 throw new IllegalArgumentException();
             }
-            RandomAccessFile tmpFile=new RandomAccessFile(oneFile,"rw");    //跟下面一致
-            tmpFile.seek(pgNo*(BufferPool.getPageSize()));
             // 见paga.java
             byte[] bytes=page.getPageData();
-            tmpFile.write(bytes);
-            tmpFile.close();
+            zoneMap.include(pgNo, ByteBuffer.wrap(bytes), false);
+            channel.write(ByteBuffer.wrap(bytes), (long)pgNo*BufferPool.getPageSize());
 
         }
         catch (IOException e){
@@ -129,6 +229,35 @@ public class HeapFile implements DbFile {
 
     }
 
+    // see PageRunWriter for javadocs
+    public void writePages(List<Page> run) throws IOException {
+        int pageSize=BufferPool.getPageSize();
+        ByteBuffer buf=ByteBuffer.allocate(run.size()*pageSize);
+        for(Page page:run) {
+            byte[] bytes=page.getPageData();
+            zoneMap.include(page.getId().getPageNumber(), ByteBuffer.wrap(bytes), false);
+            buf.put(bytes);
+        }
+        buf.flip();
+        channel.write(buf, (long)run.get(0).getId().getPageNumber()*pageSize);
+    }
+
+    /**
+     * Closes the channel to the backing file, and saves the zone map and
+     * free space map if they are kept (see {@link #keepZoneMap}). The file
+     * can still be used; it is reopened on the next read or write.
+     */
+    public void close() throws IOException {
+        mapping = null;
+        channel.close();
+        File sidecar = zoneFile;
+        if (sidecar != null)
+            zoneMap.save(sidecar, oneFile);
+        sidecar = freeSpaceFile;
+        if (sidecar != null)
+            freeSpace.save(sidecar, oneFile);
+    }
+
     /**
      * Returns the number of pages in this HeapFile.
      */
@@ -147,36 +276,41 @@ public class HeapFile implements DbFile {
         ArrayList<Page> rtPage = new ArrayList<>();
         HeapPage tmpPage = null;
 
-        for (int i = 0; i < numPages(); i++) {
-            HeapPageId pid = new HeapPageId(this.getId(), i);  //!!!!!
+        // ask the free space map for a page with room until one really has
+        while (true) {
+            int pgNo = freeSpace.pageFor(tid, numPages());
+            if (pgNo < 0)
+                break;
+            HeapPageId pid = new HeapPageId(this.getId(), pgNo);  //!!!!!
+            boolean held = Database.getBufferPool().holdsLock(tid, pid);
             tmpPage = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);   //不要用原型！会少函数！！！！
             if (!(tmpPage.getNumEmptySlots() == 0)) {
+                zoneMap.include(pgNo, t);
                 tmpPage.insertTuple(t);
+                freeSpace.update(pgNo, tmpPage.getNumEmptySlots());
                 rtPage.add(tmpPage);
                 return rtPage;
-            } else {
-                Database.getBufferPool().releasePage(tid, pid);
             }
+            freeSpace.update(pgNo, 0);
+            // keep the lock on a page tid had already, which it may have filled
+            if (!held)
+                Database.getBufferPool().releasePage(tid, pid);
         }
         //重要！！！ 不够了还可以新开一个page！
         //throw new DbException("can not insert new tuple");
         // not necessary for lab1
-        if (tmpPage == null || tmpPage.getNumEmptySlots() == 0) {
-            byte[] emptypage = HeapPage.createEmptyPageData();
-
-            //https://blog.csdn.net/merry3602/article/details/7045515/ 用字节流
-            try {
-                //打开一个写文件器，构造函数中的第二个参数true表示以追加形式写文件
-                FileOutputStream writer = new FileOutputStream(oneFile, true);
-                writer.write(emptypage);
-                writer.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            HeapPageId tmpPid = new HeapPageId(getId(), numPages() - 1); //序号从0！！！！！！
-            tmpPage = (HeapPage) Database.getBufferPool().getPage(tid, tmpPid, Permissions.READ_WRITE);
+        byte[] emptypage = HeapPage.createEmptyPageData();
+        HeapPageId tmpPid;
+        synchronized (appendLock) {
+            // append the empty page at the end of the file
+            channel.write(ByteBuffer.wrap(emptypage), (long)numPages()*BufferPool.getPageSize());
+            tmpPid = new HeapPageId(getId(), numPages() - 1); //序号从0！！！！！！
+            freeSpace.claim(tmpPid.getPageNumber(), tid);
         }
+        tmpPage = (HeapPage) Database.getBufferPool().getPage(tid, tmpPid, Permissions.READ_WRITE);
+        zoneMap.include(tmpPid.getPageNumber(), t);
         tmpPage.insertTuple(t);
+        freeSpace.update(tmpPid.getPageNumber(), tmpPage.getNumEmptySlots());
         rtPage.add(tmpPage);
         return rtPage;
     }
@@ -191,6 +325,10 @@ public class HeapFile implements DbFile {
         ArrayList<Page> rtPage=new ArrayList<>();
         HeapPage page=(HeapPage)Database.getBufferPool().getPage(tid,t.getRecordId().getPageId(),Permissions.READ_WRITE);
         page.deleteTuple(t); //自己就可以抛异常
+        // the page's zone map range still covers t, which an abort may put back
+        int pgNo = page.getId().getPageNumber();
+        freeSpace.update(pgNo, page.getNumEmptySlots());
+        freeSpace.claim(pgNo, tid);
         rtPage.add(page);
         return rtPage;
         // not necessary for lab1
@@ -207,45 +345,61 @@ public class HeapFile implements DbFile {
     //返回tuple
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new fileItr(tid);
+        return new fileItr(tid, Collections.<Predicate>emptyList());
+    }
+
+    /**
+     * Returns an iterator over the tuples of the pages of this file that
+     * may hold tuples satisfying all of predicates, skipping the others
+     * by their zone map ranges without reading them. The tuples returned
+     * are not filtered.
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> predicates) {
+        return new fileItr(tid, predicates);
     }
     //TransactionId x //调bufferpool需要pageid类型
+    // scans of large files go through a BufferRing so they leave the rest of the pool alone
     private class fileItr implements DbFileIterator{
         //调用page的Itr
         int pageNo;
         private Iterator<Tuple> pageTupleItr;
+        private BufferRing ring;
 
-        private HeapFile file;
         private TransactionId tid;
+        private final List<Predicate> predicates;
 
-        fileItr(TransactionId tid)
+        fileItr(TransactionId tid, List<Predicate> predicates)
         {
             this.tid=tid;
+            this.predicates=predicates;
             pageNo=-1;
             pageTupleItr=null;
         }
 
         @Override
         public void open() throws DbException, TransactionAbortedException, IOException, InterruptedException {
-            pageNo=0;
-            HeapPageId tmpPgId=new HeapPageId(getId(),pageNo);      //见HeapPageId的声名
-            pageTupleItr=((HeapPage) Database.getBufferPool().getPage(tid,tmpPgId,Permissions.READ_ONLY)).iterator();
-
+            pageNo=-1;
+            Database.getBufferPool().releaseRing(ring);
+            ring=Database.getBufferPool().bulkReadRing(numPages());
+            pageTupleItr=Collections.<Tuple>emptyIterator();
+            hasNext();
         }
 
         public boolean hasNext() throws TransactionAbortedException, DbException, IOException, InterruptedException {
-            if(pageNo==-1)
+            if(pageTupleItr==null)
                 return false;
-            if(pageTupleItr.hasNext())
-                return true;
-            if(pageNo<numPages()-1)
+            // go on to the next page that may match, past empty pages too
+            while(!pageTupleItr.hasNext())
             {
-                pageNo++;
+                do {
+                    pageNo++;
+                } while(pageNo<numPages()&&!zoneMap.mayMatch(pageNo,predicates));
+                if(pageNo>=numPages())
+                    return false;
                 HeapPageId tmpPgId=new HeapPageId(getId(),pageNo);
-                pageTupleItr=((HeapPage)Database.getBufferPool().getPage(tid,tmpPgId,Permissions.READ_ONLY)).iterator();
-                return pageTupleItr.hasNext();
+                pageTupleItr=((HeapPage)Database.getBufferPool().getPage(tid,tmpPgId,Permissions.READ_ONLY,ring)).iterator();
             }
-            return false;
+            return true;
         }
 
         @Override
@@ -266,7 +420,8 @@ public class HeapFile implements DbFile {
         public void close() {
             pageNo=-1;
             pageTupleItr=null;
+            Database.getBufferPool().releaseRing(ring);
+            ring=null;
         }
     }
 }
-
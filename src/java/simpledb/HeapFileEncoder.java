@@ -95,7 +95,7 @@ public class HeapFileEncoder {
       for (int i = 0; i < numFields ; i++) {
           nrecbytes += typeAr[i].getLen();
       }
-      int nrecords = (npagebytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
+      int nrecords = ((npagebytes - PageChecksum.SIZE) * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
       
     //  per record, we need one bit; there are nrecords per page, so we need
     // nrecords bits, i.e., ((nrecords/32)+1) integers.
@@ -199,16 +199,20 @@ public class HeapFileEncoder {
             if (i % 8 > 0)
                 headerStream.writeByte(headerbyte);
             
-            // pad the rest of the page with zeroes
+            // pad the rest of the page with zeroes, up to and including
+            // the checksum
             
             for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
                 pageStream.writeByte(0);
             
             // write header and body to file
             headerStream.flush();
-            headerBAOS.writeTo(os);
             pageStream.flush();
-            pageBAOS.writeTo(os);
+            byte[] page = new byte[npagebytes];
+            System.arraycopy(headerBAOS.toByteArray(), 0, page, 0, nheaderbytes);
+            System.arraycopy(pageBAOS.toByteArray(), 0, page, nheaderbytes, npagebytes - nheaderbytes);
+            PageChecksum.set(page);
+            os.write(page);
             
             // reset header and body for next page
             headerBAOS = new ByteArrayOutputStream(nheaderbytes);
@@ -6,31 +6,41 @@ import java.io.*;
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and //还没写
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A page keeps the bytes it was read from and decodes nothing up front:
+ * the tuples it hands out are views of their records in those bytes (see
+ * Tuple), made when they are first asked for, and getPageData copies the
+ * records of untouched slots instead of serializing them again.
  *
  * @see HeapFile
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements SlotLoggedPage {
 
     final HeapPageId pid;
     final TupleDesc td;     //calculate tuple size
     final byte header[];
-    final Tuple tuples[];
+    final Tuple tuples[];   // made lazily for used slots, see tuple()
     final int numSlots;
+    final byte[] data;      // the page as read, never changed
+    final int[] fieldOffsets;
 
     byte[] oldData;
-    private final Byte oldDataLock=new Byte((byte)0);
+    private final Object oldDataLock = new Object();
+    private final BitSet changedSlots = new BitSet(); // since oldData, protected by oldDataLock
 
     private boolean isDirty;
     private TransactionId tid;
+    private volatile long lsn;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
      * The format of a HeapPage is a set of header bytes indicating
-     * the slots of the page that are in use, some number of tuple slots.
+     * the slots of the page that are in use, some number of tuple slots,
+     * and a checksum in the last bytes of the page (see PageChecksum).
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1))
+     *          floor(((BufferPool.getPageSize() - checksum size)*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
      * database table, which can be determined via {@link Catalog#getTupleDesc}.
      * The number of 8-bit header words is equal to:
@@ -40,32 +50,51 @@ public class HeapPage implements Page {
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
+     * @param data the bytes of the page, which the page keeps; they must
+     *        not be changed afterwards
+     * @throws IOException if the checksum does not match the data
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        PageChecksum.verify(id, data);
+        this.lsn = PageChecksum.lsn(data);
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.data = data;
 
         this.isDirty=false;
         this.tid=null;
 
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
+        // the header is changed in place, so it is copied
+        header = Arrays.copyOf(data, getHeaderSize());
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        fieldOffsets = new int[td.numFields()];
+        for (int j=1; j<fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j-1] + td.getFieldType(j-1).getLen();
+
+        // the page as read is its before image
+        synchronized(oldDataLock)
+        {
+            oldData = data;
         }
-        dis.close();
+    }
+
+    /**
+     * Create a HeapPage from the remaining bytes of a buffer, such as a
+     * slice of a memory-mapped file.  The bytes are copied once, since the
+     * tuples of the page go on reading them long after the mapping may have
+     * changed.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, java.nio.ByteBuffer data) throws IOException {
+        this(id, bytesOf(data));
+    }
 
-        setBeforeImage();
+    private static byte[] bytesOf(java.nio.ByteBuffer data) {
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return bytes;
     }
 
     /** Retrieve the number of tuples on this page.
@@ -75,7 +104,7 @@ public class HeapPage implements Page {
         // some code goes here
         //return numSlots;  <--  !!!看构造函数
         int tupleSize=td.getSize();
-        int rt=(int)Math.floor((BufferPool.getPageSize()*8)*1.0 / (tupleSize * 8 + 1));
+        int rt=(int)Math.floor(((BufferPool.getPageSize()-PageChecksum.SIZE)*8)*1.0 / (tupleSize * 8 + 1));
         return rt;
     }
 
@@ -111,7 +140,8 @@ public class HeapPage implements Page {
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = getPageData();
+        changedSlots.clear();
         }
     }
 
@@ -124,38 +154,41 @@ public class HeapPage implements Page {
         return pid;
     }
 
+    /** @return where the record of slot i starts in the page */
+    private int slotOffset(int i) {
+        return header.length + i * td.getSize();
+    }
+
     /**
-     * Suck up tuples from the source file.
+     * @return the tuple in slot i, which must be used, made as a view of
+     *         its record the first time it is asked for
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    private Tuple tuple(int i) {
+        Tuple t = tuples[i];
+        if (t == null) {
+            t = new Tuple(td, data, slotOffset(i), fieldOffsets, pid, i);
+            tuples[i] = t;
         }
+        return t;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
+    /** @return true if the record of slot i is the one the page was read with */
+    private boolean isUnchanged(int i) {
+        return tuples[i] == null || tuples[i].isViewOf(data, slotOffset(i));
+    }
+
+    /** Writes the fields of t at offset in page. */
+    private void serialize(Tuple t, byte[] page, int offset) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+        DataOutputStream dos = new DataOutputStream(baos);
         try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
+            for (int j=0; j<td.numFields(); j++)
+                t.getField(j).serialize(dos);
+        } catch (IOException e) {
+            // this really shouldn't happen
             e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
         }
-
-        return t;
+        System.arraycopy(baos.toByteArray(), 0, page, offset, td.getSize());
     }
 
     /**
@@ -170,64 +203,18 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
+        // start from the page as read, where untouched records already are
+        byte[] page = data.clone();
+        System.arraycopy(header, 0, page, 0, header.length);
         for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+            int offset = slotOffset(i);
+            if (!isSlotUsed(i))
+                Arrays.fill(page, offset, offset + td.getSize(), (byte) 0);
+            else if (!isUnchanged(i))
+                serialize(tuples[i], page, offset);
         }
-
-        return baos.toByteArray();
+        PageChecksum.set(page, lsn);
+        return page;
     }
 
     /**
@@ -257,7 +244,7 @@ public class HeapPage implements Page {
         // Rid 由pageId 和 TupleId 共同构成 表述元组存在磁盘的位置
         int tid=t.getRecordId().getTupleNumber();
         PageId tmppid=t.getRecordId().getPageId();
-        if(!tmppid.equals(this.pid)||tuples[tid]==null||!isSlotUsed(tid))     //顺序不可颠倒
+        if(!tmppid.equals(this.pid)||tid<0||tid>=numSlots||!isSlotUsed(tid))     //顺序不可颠倒
         {
             throw new DbException("tuple not exist");
         }
@@ -320,7 +307,50 @@ public class HeapPage implements Page {
         return null;      
     }
 
+    public long getLSN() {
+        return lsn;
+    }
+
+    public void setLSN(long lsn) {
+        this.lsn = lsn;
+    }
+
+
+
+    public int[] changedSlots() {
+        synchronized(oldDataLock)
+        {
+            return changedSlots.stream().toArray();
+        }
+    }
+
+    public byte[] slotData(int i) {
+        if (!isSlotUsed(i))
+            return null;
+        if (isUnchanged(i))
+            return Arrays.copyOfRange(data, slotOffset(i), slotOffset(i) + td.getSize());
+        byte[] record = new byte[td.getSize()];
+        serialize(tuples[i], record, 0);
+        return record;
+    }
+
+    public byte[] beforeSlotData(int i) {
+        byte[] oldDataRef;
+        synchronized(oldDataLock)
+        {
+            oldDataRef = oldData;
+        }
+        if ((oldDataRef[i/8] & (1 << (i%8))) == 0)
+            return null;
+        int offset = header.length + i * td.getSize();
+        return Arrays.copyOfRange(oldDataRef, offset, offset + td.getSize());
+    }
 
+    public void applySlot(int i, byte[] record) {
+        markSlotUsed(i, record != null);
+        tuples[i] = record == null ? null
+                : new Tuple(td, record, 0, fieldOffsets, pid, i);
+    }
 
     /**
      * Returns true if associated slot on this page is filled.
@@ -366,6 +396,10 @@ public class HeapPage implements Page {
         byte uzhd=header[tarHdr];
         int fram=i%8;
         byte mark=(byte)(1<<fram);
+        synchronized(oldDataLock)
+        {
+            changedSlots.set(i);
+        }
         if(value)
         {
             header[tarHdr]=(byte)(uzhd|mark);
@@ -403,7 +437,7 @@ public class HeapPage implements Page {
                 pos++;
             }
             count++;
-            return tuples[pos++];
+            return tuple(pos++);
         }
     }
 
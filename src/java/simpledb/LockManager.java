@@ -1,165 +1,414 @@
-/** @author Nan Zuo (devinz1993.github.io) */
-
 package simpledb;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Random;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.Vector;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Page-level shared/exclusive lock table used by the BufferPool.
+ * <p>
+ * Each locked page has an entry holding the set of transactions that own
+ * the lock and a FIFO queue of requests waiting for it. A request that
+ * cannot be granted joins the queue and parks; whoever releases the lock
+ * grants the queue head (and any shared requests right behind it) and
+ * unparks their threads, so waiting costs no CPU and locks are handed over
+ * in arrival order. A holder of a shared lock asking for an exclusive one
+ * is an upgrade and goes to the front of the queue, since every request
+ * behind it would otherwise wait on it anyway.
+ * <p>
+ * Entries are created on first use and dropped once they have neither
+ * holders nor waiters. Each entry is its own monitor, so requests for
+ * different pages never contend. Every transaction also has the set of
+ * pages it holds locks on, so releasing its locks, and finding the pages
+ * it may have dirtied, costs time in the number of pages it touched
+ * rather than the size of the lock table.
+ * <p>
+ * Deadlocks are found on the waits-for graph: a waiting transaction has an
+ * edge to every holder of the lock it wants and, if it is not first in the
+ * queue, to the request at the head of the queue. Edges only change when a
+ * request is queued or when a page's holders or queue change, so the graph
+ * is searched for a cycle through a request when it is queued and, after
+ * every release, grant or cancellation on a page, through each request
+ * still queued on it. Searches run one at a time, after the change that
+ * prompted them, so of two requests that close a cycle together the one
+ * searched for last finds it. The youngest transaction on a cycle (the one
+ * with the largest id, which has done the least work) that is still
+ * waiting is aborted and its thread woken, and the search is repeated
+ * until no cycle is left, since one request can be on several cycles.
+ * Waiting threads are woken only by a grant or by such an abort.
+ */
 class LockManager {
 
-    private final Object[] mutexes;
-    private final List<Set<TransactionId>> readLockHolders;
-    private final List<TransactionId> writeLockHolders;
-    private final int[] writers;	/* number of writers waiting or working */
-    private final Random rand = new Random();
-    private final int MIN_TIME = 100, MAX_TIME = 1000;
+    /** A request waiting in a page's queue. Guarded by the page's LockState. */
+    private static final class Request {
+        final TransactionId tid;
+        final boolean exclusive;
+        final LockState state;
+        final Thread thread;
+        boolean granted;
+        /** set when the request was chosen as a deadlock victim */
+        boolean aborted;
 
-    public LockManager(int numPages) {
-        mutexes = new Object[numPages];
-        readLockHolders = new Vector<Set<TransactionId>>(numPages);
-        writeLockHolders = new Vector<TransactionId>(numPages);
-        for (int i=0; i<numPages; i++) {
-            mutexes[i] = new Object();
-            readLockHolders.add(new HashSet<TransactionId>());
-            writeLockHolders.add(null);
+        Request(TransactionId tid, boolean exclusive, LockState state, Thread thread) {
+            this.tid = tid;
+            this.exclusive = exclusive;
+            this.state = state;
+            this.thread = thread;
         }
-        writers = new int[numPages];
     }
 
-    private boolean holdsReadLock(TransactionId tid, int idx) {
-        synchronized(mutexes[idx]) {
-            return readLockHolders.get(idx).contains(tid);
-        }
-    }
+    /** Lock on one page. */
+    private static final class LockState {
+        final PageId pid;
+        final HashSet<TransactionId> holders = new HashSet<>();
+        /** true if the (single) holder has the lock in exclusive mode */
+        boolean exclusive;
+        final ArrayDeque<Request> waiters = new ArrayDeque<>();
+        /** set once the entry has left the table; requests must look it up again */
+        boolean retired;
 
-    private boolean holdsWriteLock(TransactionId tid, int idx) {
-        synchronized(mutexes[idx]) {
-            return tid.equals(writeLockHolders.get(idx));
+        LockState(PageId pid) {
+            this.pid = pid;
         }
     }
 
-    public boolean isHolding(TransactionId tid, int idx) {
-        return holdsWriteLock(tid, idx) || holdsReadLock(tid, idx);
-    }
+    private final ConcurrentHashMap<PageId, LockState> table = new ConcurrentHashMap<>();
+    /** The waits-for graph: the pending request of each waiting transaction. */
+    private final ConcurrentHashMap<TransactionId, Request> waiting = new ConcurrentHashMap<>();
+    /** The pages each transaction holds a lock on, in either mode. */
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> held = new ConcurrentHashMap<>();
+    /** Serializes deadlock searches so a cycle loses only one victim. */
+    private final Object detector = new Object();
 
-    private void acquireReadLock(TransactionId tid, int idx)
-            throws InterruptedException {
-        // System.out.println(tid.myid+" wants to read "+idx);
-        if (!isHolding(tid, idx)) {
-            synchronized(mutexes[idx]) {
-                final Thread thread = Thread.currentThread();
-                final Timer timer = new Timer(true);
+    private LockState stateFor(PageId pid) {
+        LockState state = table.get(pid);
+        if (state == null) {
+            LockState created = new LockState(pid);
+            state = table.putIfAbsent(pid, created);
+            if (state == null)
+                state = created;
+        }
+        return state;
+    }
 
-                timer.schedule(new TimerTask() {
-                    @Override public void run() {
-                        thread.interrupt();
-                    }
-                }, MIN_TIME+rand.nextInt(MAX_TIME-MIN_TIME));
-                while (0 != writers[idx]) {
-                    mutexes[idx].wait();
+    /**
+     * Acquires a lock on pid for tid, blocking until it is granted.
+     *
+     * @param exclusive true for a write lock, false for a read lock
+     * @throws TransactionAbortedException if tid was chosen as the victim of
+     *   a deadlock
+     */
+    public void acquireLock(TransactionId tid, PageId pid, boolean exclusive)
+            throws TransactionAbortedException {
+        LockState state;
+        Request request;
+        while (true) {
+            state = stateFor(pid);
+            synchronized (state) {
+                if (state.retired)
+                    continue;
+                if (state.holders.contains(tid) && (state.exclusive || !exclusive))
+                    return;
+                if (canGrant(state, tid, exclusive, true)) {
+                    grant(state, tid, exclusive);
+                    return;
                 }
-                readLockHolders.get(idx).add(tid);
-                timer.cancel();
+                request = new Request(tid, exclusive, state, Thread.currentThread());
+                if (state.holders.contains(tid))
+                    state.waiters.addFirst(request);
+                else
+                    state.waiters.addLast(request);
+                waiting.put(tid, request);
+                break;
             }
         }
-        // System.out.println(tid.myid+" gets to read "+idx);
-    }
 
-    private boolean releaseReadLock(TransactionId tid, int idx) {
-        if (!holdsReadLock(tid, idx)) {
-            return false;
-        } else {
-            synchronized(mutexes[idx]) {
-                readLockHolders.get(idx).remove(tid);
-                if (readLockHolders.get(idx).isEmpty()) {
-                    mutexes[idx].notifyAll();
+        boolean granted = false;
+        boolean interrupted = false;
+        try {
+            detectDeadlock(request);
+            while (true) {
+                synchronized (state) {
+                    if (request.granted) {
+                        granted = true;
+                        return;
+                    }
+                    if (request.aborted)
+                        throw new TransactionAbortedException();
                 }
+                LockSupport.park(this);
+                // park returns at once while the flag is set; keep it for the caller
+                if (Thread.interrupted())
+                    interrupted = true;
             }
-            // System.out.println(tid.myid+" ceases to read "+idx);
-            return true;
+        } finally {
+            // also runs if the thread is stopped while parked
+            waiting.remove(tid, request);
+            if (!granted)
+                cancel(pid, state, request);
+            if (interrupted)
+                Thread.currentThread().interrupt();
         }
     }
 
-    private boolean hasOtherReader(TransactionId tid, int idx) {
-        synchronized(mutexes[idx]) {
-            for (TransactionId otherTid : readLockHolders.get(idx)) {
-                if (!otherTid.equals(tid)) {
+    /**
+     * Acquires a lock on pid for tid if that is possible without waiting.
+     *
+     * @return true if tid now holds the lock
+     */
+    public boolean tryAcquireLock(TransactionId tid, PageId pid, boolean exclusive) {
+        while (true) {
+            LockState state = stateFor(pid);
+            synchronized (state) {
+                if (state.retired)
+                    continue;
+                if (state.holders.contains(tid) && (state.exclusive || !exclusive))
+                    return true;
+                if (canGrant(state, tid, exclusive, true)) {
+                    grant(state, tid, exclusive);
                     return true;
                 }
+                retireIfUnused(pid, state);
+                return false;
             }
-            return false;
         }
     }
 
-    private void acquireWriteLock(TransactionId tid, int idx)
-            throws InterruptedException {
-        // System.out.println(tid.myid+" wants to write "+idx);
-        if (!holdsWriteLock(tid, idx)) {
-            synchronized(mutexes[idx]) {
-                final Thread thread = Thread.currentThread();
-                final Timer timer = new Timer(true);
-
-                writers[idx]++;
-                timer.schedule(new TimerTask() {
-                    @Override public void run() {
-                        thread.interrupt();
-                    }
-                }, MIN_TIME+rand.nextInt(MAX_TIME-MIN_TIME));
-                while (hasOtherReader(tid, idx) || null != writeLockHolders.get(idx)) {
-                    mutexes[idx].wait();
-                }
-                readLockHolders.get(idx).remove(tid);
-                writeLockHolders.set(idx, tid);
-                timer.cancel();
+    /**
+     * Breaks every cycle in the waits-for graph through request by aborting
+     * the youngest waiting transaction on each. The search looks at one page
+     * at a time rather than a frozen snapshot; a cycle closed by an edge
+     * added underneath it is found by the search for that edge's request.
+     */
+    private void detectDeadlock(Request request) {
+        synchronized (detector) {
+            while (true) {
+                ArrayList<Request> path = new ArrayList<>();
+                if (!findCycle(request, request.tid, path, new HashSet<TransactionId>()))
+                    return;
+                if (!abortYoungest(path))
+                    return;
             }
         }
-        // System.out.println(tid.myid+" gets to write "+idx);
     }
 
-    private boolean releaseWriteLock(TransactionId tid, int idx) {
-        if (!holdsWriteLock(tid, idx)) {
-            return false;
-        } else {
-            synchronized(mutexes[idx]) {
-                writeLockHolders.set(idx, null);
-                writers[idx]--;
-                mutexes[idx].notifyAll();
+    /**
+     * Aborts the youngest request on a cycle that is still waiting.
+     *
+     * @return false if every request on the cycle has been granted or
+     *   aborted since it was found, so the cycle is already broken
+     */
+    private static boolean abortYoungest(List<Request> cycle) {
+        ArrayList<Request> byAge = new ArrayList<>(cycle);
+        Collections.sort(byAge, new Comparator<Request>() {
+            public int compare(Request a, Request b) {
+                return Long.compare(b.tid.getId(), a.tid.getId());
+            }
+        });
+        for (Request doomed : byAge) {
+            synchronized (doomed.state) {
+                if (doomed.granted || doomed.aborted)
+                    continue;
+                doomed.aborted = true;
+                LockSupport.unpark(doomed.thread);
+                return true;
             }
-            // System.out.println(tid.myid+" ceases to write "+idx);
-            return true;
         }
+        return false;
     }
 
-    public void acquire(TransactionId tid, int idx, Permissions perm)
-            throws InterruptedException {
-        try {
-            if (perm.equals(Permissions.READ_ONLY)) {
-                acquireReadLock(tid, idx);
-            } else {
-                acquireWriteLock(tid, idx);
+    /**
+     * Depth-first search of the waits-for graph from a waiting request back
+     * to target. On success path holds the requests on the cycle.
+     */
+    private boolean findCycle(Request request, TransactionId target, List<Request> path,
+                              HashSet<TransactionId> visited) {
+        path.add(request);
+        for (TransactionId blocker : blockersOf(request)) {
+            if (blocker.equals(target))
+                return true;
+            if (!visited.add(blocker))
+                continue;
+            Request next = waiting.get(blocker);
+            if (next != null && findCycle(next, target, path, visited))
+                return true;
+        }
+        path.remove(path.size() - 1);
+        return false;
+    }
+
+    /** The transactions a queued request is waiting for. */
+    private static List<TransactionId> blockersOf(Request request) {
+        ArrayList<TransactionId> blockers = new ArrayList<>();
+        LockState state = request.state;
+        synchronized (state) {
+            if (request.granted || request.aborted)
+                return blockers;
+            for (TransactionId holder : state.holders) {
+                if (!holder.equals(request.tid))
+                    blockers.add(holder);
             }
+            // nothing behind the head of the queue is granted before it
+            Request head = state.waiters.peekFirst();
+            if (head != null && head != request && !head.tid.equals(request.tid))
+                blockers.add(head.tid);
+        }
+        return blockers;
+    }
+
+    /**
+     * Whether tid may take the lock now. A new request must also respect the
+     * requests already queued; the head of the queue only has to be
+     * compatible with the holders.
+     */
+    private static boolean canGrant(LockState state, TransactionId tid, boolean exclusive, boolean newRequest) {
+        if (state.holders.isEmpty())
+            return !newRequest || state.waiters.isEmpty();
+        if (exclusive)
+            return state.holders.size() == 1 && state.holders.contains(tid);
+        return !state.exclusive && (!newRequest || state.waiters.isEmpty());
+    }
+
+    private void grant(LockState state, TransactionId tid, boolean exclusive) {
+        if (state.holders.add(tid))
+            pagesLockedBy(tid).add(state.pid);
+        if (exclusive)
+            state.exclusive = true;
+    }
+
+    private Set<PageId> pagesLockedBy(TransactionId tid) {
+        Set<PageId> pids = held.get(tid);
+        if (pids == null) {
+            Set<PageId> created = ConcurrentHashMap.newKeySet();
+            pids = held.putIfAbsent(tid, created);
+            if (pids == null)
+                pids = created;
+        }
+        return pids;
+    }
+
+    /** Grants queued requests in order until one has to keep waiting. */
+    private void grantWaiters(LockState state) {
+        while (!state.waiters.isEmpty()) {
+            Request next = state.waiters.peekFirst();
+            if (!canGrant(state, next.tid, next.exclusive, false))
+                break;
+            state.waiters.pollFirst();
+            grant(state, next.tid, next.exclusive);
+            next.granted = true;
+            LockSupport.unpark(next.thread);
+        }
+    }
+
+    private void retireIfUnused(PageId pid, LockState state) {
+        if (state.holders.isEmpty() && state.waiters.isEmpty()) {
+            state.retired = true;
+            table.remove(pid, state);
+        }
+    }
+
+    private void cancel(PageId pid, LockState state, Request request) {
+        ArrayList<Request> queued;
+        synchronized (state) {
+            if (request.granted)
+                return; // granted just as we gave up; released when tid completes
+            state.waiters.remove(request);
+            grantWaiters(state);
+            retireIfUnused(pid, state);
+            queued = new ArrayList<>(state.waiters);
+        }
+        detectDeadlocks(queued);
+    }
+
+    /**
+     * Searches for cycles through each request still queued on a page whose
+     * holders or queue just changed, and so the edges out of them.
+     */
+    private void detectDeadlocks(List<Request> queued) {
+        for (Request request : queued)
+            detectDeadlock(request);
+    }
+
+    /**
+     * Releases tid's lock on pid, if it has one, and hands the lock to the
+     * requests waiting for it.
+     */
+    public void releaseLock(TransactionId tid, PageId pid) {
+        Set<PageId> pids = held.get(tid);
+        if (pids != null)
+            pids.remove(pid);
+        unlock(tid, pid);
+    }
+
+    private void unlock(TransactionId tid, PageId pid) {
+        LockState state = table.get(pid);
+        if (state == null)
             return;
-        } catch (InterruptedException e) {
-            for (int j=0; j<mutexes.length; j++) {
-                release(tid, j);
-            }
-            if (!perm.equals(Permissions.READ_ONLY)) {
-                synchronized(mutexes[idx]) {
-                    writers[idx]--;
-                }
-            }
-            throw new InterruptedException("DEADLOCK DETECTED");
+        ArrayList<Request> queued;
+        synchronized (state) {
+            if (!state.holders.remove(tid))
+                return;
+            if (state.holders.isEmpty())
+                state.exclusive = false;
+            grantWaiters(state);
+            retireIfUnused(pid, state);
+            queued = new ArrayList<>(state.waiters);
         }
+        detectDeadlocks(queued);
     }
 
-    public boolean release(TransactionId tid, int idx) {
-        return releaseWriteLock(tid, idx) || releaseReadLock(tid, idx);
+    /**
+     * Releases every lock tid holds. Locks must not outlive a transaction
+     * now that nothing times out, including locks on pages that have since
+     * left the buffer pool.
+     */
+    public void releaseAllLocks(TransactionId tid) {
+        Set<PageId> pids = held.remove(tid);
+        if (pids == null)
+            return;
+        for (PageId pid : pids)
+            unlock(tid, pid);
+    }
+
+    /**
+     * Returns the pages tid holds the exclusive lock on: the only pages it
+     * can have dirtied.
+     */
+    public List<PageId> exclusiveLocks(TransactionId tid) {
+        ArrayList<PageId> exclusive = new ArrayList<>();
+        Set<PageId> pids = held.get(tid);
+        if (pids == null)
+            return exclusive;
+        for (PageId pid : pids) {
+            if (holdsExclusiveLock(tid, pid))
+                exclusive.add(pid);
+        }
+        return exclusive;
     }
 
+    /** Return true if tid holds the exclusive lock on pid. */
+    public boolean holdsExclusiveLock(TransactionId tid, PageId pid) {
+        LockState state = table.get(pid);
+        if (state == null)
+            return false;
+        synchronized (state) {
+            return state.exclusive && state.holders.contains(tid);
+        }
+    }
+
+    /** Return true if tid holds a lock (of either mode) on pid. */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        LockState state = table.get(pid);
+        if (state == null)
+            return false;
+        synchronized (state) {
+            return state.holders.contains(tid);
+        }
+    }
 }
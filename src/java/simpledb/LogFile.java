@@ -2,8 +2,16 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
-import java.lang.reflect.*;
+import java.util.zip.CRC32C;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -15,23 +23,12 @@ two-phase locking discipline are followed.  <p>
 <p>
 
 Many of the methods here are synchronized (to prevent concurrent log
-writes from happening); many of the methods in BufferPool are also
-synchronized (for similar reasons.)  Problem is that BufferPool writes
-log records (on page flushed) and the log file flushes BufferPool
-pages (on checkpoints and recovery.)  This can lead to deadlock.  For
-that reason, any LogFile operation that needs to access the BufferPool
-must not be declared synchronized and must begin with a block like:
-
-<p>
-<pre>
-    synchronized (Database.getBufferPool()) {
-       synchronized (this) {
-
-       ..
-
-       }
-    }
-</pre>
+writes from happening).  The BufferPool writes log records while it
+writes pages, and rollback and recovery drop pages from the BufferPool
+while holding this monitor.  That is safe because the BufferPool has no
+pool-wide lock: its shards are locked only briefly, and never while
+calling into the log, so nobody waits for this monitor while holding
+one.
 */
 
 /**
@@ -39,8 +36,11 @@ must not be declared synchronized and must begin with a block like:
 
 <ul>
 
-<li> The first long integer of the file represents the offset of the
-last written checkpoint, or -1 if there are no checkpoints
+<li> Records are addressed by LSN, their offset in the log as a whole.
+The log is kept in fixed-size segment files next to the log file, which
+only holds the LSN of the last written checkpoint, or -1 if there are no
+checkpoints (see LogSegments).  Truncating the log deletes old segments;
+LSNs never change.
 
 <li> All additional data in the log consists of log records.  Log
 records are variable length.
@@ -48,24 +48,45 @@ records are variable length.
 <li> Each log record begins with an integer type and a long integer
 transaction id.
 
-<li> Each log record ends with a long integer file offset representing
-the position in the log file where the record began.
+<li> Each log record ends with an integer CRC32C checksum of the
+bytes of the record before it, then a long integer file offset
+representing the position in the log file where the record began.
+Recovery treats the first record whose checksum or offset does not match
+as the end of the log.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, SLOTS, BEGIN,
+and CHECKPOINT
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
+<li> UPDATE and SLOTS records start with the LSN of the transaction's
+previous record: its previous UPDATE or SLOTS record, or its BEGIN
+record, or -1 if it has none.  Following these back from a
+transaction's last record visits exactly its updates, newest first, so
+undoing one transaction costs time in the number of its own records
+rather than in the length of the log since it began.
+
 <li>UPDATE RECORDS consist of two entries, a before image and an
 after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
-methods.  See LogFile.print() for an example.
+methods.  See LogFile.print() for an example.  Each image starts with the
+one-byte tag of its page class and its page id, which starts with a tag
+for the kind of id (see PageCodec).
+
+<li>SLOTS records log the change to a page as changes to its tuple
+slots: the page id, a count, and for each slot its number, whether a
+tuple was inserted, deleted or updated there, and the tuple bytes before
+and after as they apply.  They take the place of UPDATE records for pages
+that implement SlotLoggedPage, except after structural changes.
 
 <li> CHECKPOINT records consist of active transactions at the time
-the checkpoint was taken and their first log record on disk.  The format
-of the record is an integer count of the number of transactions, as well
-as a long integer transaction id and a long integer first record offset
-for each active transaction.
+the checkpoint was taken and their first and last log records, followed
+by the dirty page table.  The format of the record is an integer count
+of the number of transactions, as well as a long integer transaction id,
+a long integer first record offset and a long integer last record offset
+for each active transaction; then an integer count of dirty pages, and
+for each a page id and the offset of the first record that may not have
+reached the page on disk.
 
 </ul>
 
@@ -74,7 +95,7 @@ for each active transaction.
 public class LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
+    private LogSegments segments;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -82,16 +103,81 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int SLOTS_RECORD = 6;
+    static final byte SLOT_INSERT = 1;
+    static final byte SLOT_DELETE = 2;
+    static final byte SLOT_UPDATE = 3;
     static final long NO_CHECKPOINT_ID = -1;
+    /** The previous-record LSN of a transaction's first update when it has no BEGIN record. */
+    static final long NO_PREV_RECORD = -1;
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
+    /**
+     * Microseconds a group commit waits for more commits to join it, taken
+     * from the simpledb.groupCommitWindow system property.
+     */
+    public static final long DEFAULT_GROUP_COMMIT_WINDOW = Long.getLong("simpledb.groupCommitWindow", 0);
+
+    /**
+     * Threads that redo pages in parallel during recovery, taken from the
+     * simpledb.redoThreads system property; one per core by default.
+     */
+    public static final int DEFAULT_REDO_THREADS = Integer.getInteger("simpledb.redoThreads",
+            Runtime.getRuntime().availableProcessors());
+
+    /** Bytes of records collected in memory before they are appended to the file. */
+    static final int LOG_BUFFER_SIZE = 1 << 20;
+
     long currentOffset = -1;//protected by this
+    /**
+     * Records are assembled in logBuffer and appended to the file with one
+     * FileChannel write when it fills up or the log is forced.  bufferStart
+     * is the LSN of its first byte, so a record's LSN is known as
+     * soon as it is buffered.
+     */
+    private final ByteBuffer logBuffer = ByteBuffer.allocate(LOG_BUFFER_SIZE); //protected by this
+    private long bufferStart; //protected by this
+    private final CRC32C recordChecksum = new CRC32C(); // of the record being written, protected by this
+    private final DataOutputStream out = new DataOutputStream(new OutputStream() {
+        public void write(int b) throws IOException {
+            recordChecksum.update(b);
+            if (!logBuffer.hasRemaining())
+                flushBuffer();
+            logBuffer.put((byte) b);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            recordChecksum.update(b, off, len);
+            while (len > 0) {
+                if (!logBuffer.hasRemaining())
+                    flushBuffer();
+                int n = Math.min(len, logBuffer.remaining());
+                logBuffer.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+    }); //protected by this
+    long flushedOffset = 0; // records before this are on disk //protected by this
+    private IOException flushFailure; //protected by this
+    private volatile long groupCommitWindow = DEFAULT_GROUP_COMMIT_WINDOW;
+    private volatile int redoThreads = DEFAULT_REDO_THREADS;
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
+    /** The LSN of the newest record of each active transaction. */
+    private final HashMap<Long,Long> tidToLastLogRecord = new HashMap<Long,Long>(); //protected by this
+
+    /**
+     * Dirty page table: every page with log records that may not be in its
+     * file yet, mapped to { the LSN of the first such record, the LSN of
+     * the newest }.  Checkpoints write it out instead of writing the pages,
+     * and recovery redoes each page from its first LSN.
+     */
+    private final HashMap<PageId, long[]> dirtyPageTable = new HashMap<PageId, long[]>(); //protected by this
 
     /** Constructor.
         Initialize and back the log file with the specified file.
@@ -105,8 +191,13 @@ public class LogFile {
         @param f The log file's name
     */
     public LogFile(File f) throws IOException {
+        this(f, LogSegments.DEFAULT_SEGMENT_SIZE);
+    }
+
+    /** Constructor for a log whose segments, if it is new, hold segmentSize bytes each. */
+    LogFile(File f, long segmentSize) throws IOException {
 	this.logFile = f;
-        raf = new RandomAccessFile(f, "rw");
+        segments = new LogSegments(f, segmentSize);
         recoveryUndecided = true;
 
         // install shutdown hook to force cleanup on close
@@ -125,65 +216,209 @@ public class LogFile {
     // the log.
     void preAppend() throws IOException {
         totalRecords++;
+        recordChecksum.reset();
         if(recoveryUndecided){
             recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            segments.clear();
+            logBuffer.clear();
+            bufferStart = segments.length();
+            currentOffset = bufferStart;
+            flushedOffset = Math.min(flushedOffset, currentOffset);
         }
     }
 
+    /**
+     * End the record being written: append the checksum of its bytes so
+     * far and its own LSN, and move currentOffset past it.
+     */
+    private void endRecord() throws IOException {
+        out.writeInt((int) recordChecksum.getValue());
+        out.writeLong(currentOffset);
+        recordChecksum.reset();
+        currentOffset = tail();
+    }
+
+    /**
+     * Read the end of the record at lsn, whose body has just been read from
+     * in, and check its checksum and LSN.  A record that fails either was
+     * torn by a crash or corrupted, and ends the log.
+     */
+    private void readRecordEnd(LogSegments in, long lsn) throws IOException {
+        int checksum = in.checksum(lsn, in.getFilePointer());
+        if (in.readInt() != checksum || in.readLong() != lsn)
+            throw new EOFException("bad log record at " + lsn);
+    }
+
+    /** @return the offset the next record will be written at */
+    private long tail() {
+        return bufferStart + logBuffer.position();
+    }
+
+    /** Append the buffered records to the log with one write per segment. */
+    private void flushBuffer() throws IOException {
+        logBuffer.flip();
+        int n = logBuffer.remaining();
+        segments.write(logBuffer, bufferStart);
+        bufferStart += n;
+        logBuffer.clear();
+    }
+
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
+
+    /** @return the LSN the next record will be written at */
+    public synchronized long getCurrentLSN() {
+        return tail();
+    }
+
+    /** @return the LSN of the last checkpoint, or -1 if there is none */
+    public synchronized long getCheckpointLSN() throws IOException {
+        return segments.checkpoint();
+    }
+
+    /** @return the number of bytes of log kept, from the oldest segment on */
+    public synchronized long getSize() {
+        return tail() - segments.start();
+    }
     
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
         @param tid The aborting transaction.
     */
-    public void logAbort(TransactionId tid) throws IOException {
-        // must have buffer pool lock before proceeding, since this
-        // calls rollback
+    public synchronized void logAbort(TransactionId tid) throws IOException {
+        preAppend();
+        //Debug.log("ABORT");
+        //should we verify that this is a live transaction?
 
-        synchronized (Database.getBufferPool()) {
+        // must do this here, since rollback only works for
+        // live transactions (needs tidToFirstLogRecord)
+        rollback(tid);
 
-            synchronized(this) {
-                preAppend();
-                //Debug.log("ABORT");
-                //should we verify that this is a live transaction?
+        out.writeInt(ABORT_RECORD);
+        out.writeLong(tid.getId());
+        endRecord();
+        force();
+        tidToFirstLogRecord.remove(tid.getId());
+        tidToLastLogRecord.remove(tid.getId());
+    }
 
-                // must do this here, since rollback only works for
-                // live transactions (needs tidToFirstLogRecord)
-                rollback(tid);
+    /** Write a commit record to disk for the specified tid,
+        and force the log to disk.
+        <p>
+        Unless group commit is off, the force is left to the log flusher,
+        which forces once for every commit waiting at the time, and this
+        method returns once the record is on disk.
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+        @param tid The committing transaction.
+        @see #setGroupCommitWindow
+    */
+    public void logCommit(TransactionId tid) throws IOException {
+        long end;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            out.writeInt(COMMIT_RECORD);
+            out.writeLong(tid.getId());
+            endRecord();
+            tidToFirstLogRecord.remove(tid.getId());
+            tidToLastLogRecord.remove(tid.getId());
+            if (groupCommitWindow < 0) {
                 force();
-                tidToFirstLogRecord.remove(tid.getId());
+                return;
             }
+            end = currentOffset;
         }
+        awaitFlush(end);
     }
 
-    /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+    /** Wait until the log is on disk up to end. */
+    private synchronized void awaitFlush(long end) throws IOException {
+        while (flushedOffset < end) {
+            if (flushFailure != null)
+                throw new IOException("could not force the log", flushFailure);
+            LogFlusher.request(this);
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                force();
+            }
+        }
+    }
 
-        @param tid The committing transaction.
-    */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
+    /**
+     * Called by the log flusher: force everything appended so far and wake
+     * the commits waiting for it. The force runs outside the monitor, so
+     * other transactions keep appending and their commits join the next
+     * batch. It covers every segment from flushedOffset on rather than
+     * just those written since the last force, so a force() that runs
+     * meanwhile forces those segments itself instead of finding nothing
+     * to do and declaring records on disk that are not there yet.
+     */
+    void flushCommits() {
+        List<FileChannel> channels;
+        long target;
+        synchronized (this) {
+            if (flushedOffset >= currentOffset) {
+                notifyAll();
+                return;
+            }
+            try {
+                flushBuffer();
+            } catch (IOException e) {
+                flushFailure = e;
+                notifyAll();
+                return;
+            }
+            channels = segments.channels(flushedOffset, currentOffset);
+            target = currentOffset;
+        }
+        IOException failure = null;
+        for (FileChannel channel : channels) {
+            try {
+                channel.force(true);
+            } catch (IOException e) {
+                // including a segment closed meanwhile, by a checkpoint
+                // dropping it or by the log shutting down
+                failure = e;
+                break;
+            }
+        }
+        synchronized (this) {
+            if (target > flushedOffset) {
+                if (failure != null)
+                    flushFailure = failure;
+                else
+                    flushedOffset = target;
+            }
+            notifyAll();
+        }
+    }
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    /**
+     * Sets how many microseconds a group commit waits for more commits to
+     * join before forcing the log. 0 forces as soon as the flusher gets to
+     * it; a negative window turns group commit off, so each commit forces
+     * the log itself.
+     */
+    public void setGroupCommitWindow(long micros) {
+        groupCommitWindow = micros;
+    }
+
+    public long getGroupCommitWindow() {
+        return groupCommitWindow;
+    }
+
+    /** Sets how many threads recover() redoes pages with; 1 redoes them on the calling thread. */
+    public void setRedoThreads(int threads) {
+        redoThreads = Math.max(1, threads);
+    }
+
+    public int getRedoThreads() {
+        return redoThreads;
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -192,107 +427,303 @@ public class LogFile {
         @param before The before image of the page
         @param after The after image of the page
 
+        @return the LSN of the record
         @see simpledb.Page#getBeforeImage
     */
-    public  synchronized void logWrite(TransactionId tid, Page before,
+    public  synchronized long logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, offset = " + currentOffset);
         preAppend();
+        long lsn = currentOffset;
         /* update record conists of
 
            record type
            transaction id
+           previous record of the transaction
            before page data (see writePageData)
            after page data
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
+        out.writeInt(UPDATE_RECORD);
+        out.writeLong(tid.getId());
+        out.writeLong(chainRecord(tid, lsn));
 
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        writePageData(out,before);
+        writePageData(out,after);
+        endRecord();
+        noteUpdate(after.getId(), lsn);
 
         Debug.log("WRITE OFFSET = " + currentOffset);
+        return lsn;
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
-        PageId pid = p.getId();
-        int pageInfo[] = pid.serialize();
+    /**
+     * Write a log record for the changes tid made to page since its before
+     * image was taken.  Pages that can list their changed slots get a SLOTS
+     * record with just the tuple bytes of those slots; structural changes,
+     * other pages, and pages where so many slots changed that the images
+     * are smaller get an UPDATE record as written by logWrite.
 
-        //page data is:
-        // page class name
-        // id class name
-        // id class bytes
-        // id class data
-        // page class bytes
-        // page class data
+        @param tid The transaction performing the write
+        @param page The page it changed
 
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
+        @return the LSN of the record, or the LSN the page already has if
+        it is back the way its before image was
+        @see SlotLoggedPage
+    */
+    public synchronized long logChange(TransactionId tid, Page page)
+        throws IOException {
+        int[] changed = page instanceof SlotLoggedPage
+                ? ((SlotLoggedPage) page).changedSlots() : null;
+        if (changed == null)
+            return logWrite(tid, page.getBeforeImage(), page);
+
+        SlotLoggedPage slotted = (SlotLoggedPage) page;
+        SlotRecord record = new SlotRecord(page.getId(), changed.length);
+        int bytes = 0;
+        for (int slot : changed) {
+            byte[] before = slotted.beforeSlotData(slot);
+            byte[] after = slotted.slotData(slot);
+            if (before == null ? after == null : Arrays.equals(before, after))
+                continue;
+            record.add(slot, before, after);
+            bytes += (before == null ? 0 : before.length) + (after == null ? 0 : after.length);
+        }
+        if (bytes >= 2 * BufferPool.getPageSize())
+            return logWrite(tid, page.getBeforeImage(), page);
+        if (record.count == 0)
+            return page.getLSN();
 
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+        preAppend();
+        long lsn = currentOffset;
+        out.writeInt(SLOTS_RECORD);
+        out.writeLong(tid.getId());
+        out.writeLong(chainRecord(tid, lsn));
+        writeSlotRecord(out, record);
+        endRecord();
+        noteUpdate(page.getId(), lsn);
+        return lsn;
+    }
 
-        raf.writeInt(pageInfo.length);
-        for (int i = 0; i < pageInfo.length; i++) {
-            raf.writeInt(pageInfo[i]);
-        }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
-        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
+    /**
+     * Makes lsn the newest record of tid.
+     *
+     * @return the record before it, to be written into the record at lsn
+     */
+    private long chainRecord(TransactionId tid, long lsn) {
+        Long prev = tidToLastLogRecord.put(tid.getId(), lsn);
+        return prev == null ? NO_PREV_RECORD : prev;
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
+    private void noteUpdate(PageId pid, long lsn) {
+        long[] lsns = dirtyPageTable.get(pid);
+        if (lsns == null)
+            dirtyPageTable.put(pid, new long[] { lsn, lsn });
+        else
+            lsns[1] = lsn;
+    }
 
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
+    /**
+     * @return the LSN of the newest record for pid that may not be in its
+     *         file yet, or -1 if there is none; pass it to pageWritten once
+     *         the page is written
+     */
+    public synchronized long newestUpdate(PageId pid) {
+        long[] lsns = dirtyPageTable.get(pid);
+        return lsns == null ? -1 : lsns[1];
+    }
 
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object idArgs[] = new Object[numIdArgs];
-            for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = new Integer(raf.readInt());
-            }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
+    /**
+     * Drops pid from the dirty page table after it was written, unless a
+     * record newer than newest (what newestUpdate said before the write)
+     * was logged for it in the meantime.
+     */
+    public synchronized void pageWritten(PageId pid, long newest) {
+        long[] lsns = dirtyPageTable.get(pid);
+        if (lsns != null && lsns[1] == newest)
+            dirtyPageTable.remove(pid);
+    }
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
+    /** The body of a SLOTS record: changes to tuple slots of one page. */
+    static class SlotRecord {
+        final PageId pid;
+        int count;
+        int[] slots;
+        byte[][] before;
+        byte[][] after;
+
+        SlotRecord(PageId pid, int capacity) {
+            this.pid = pid;
+            slots = new int[capacity];
+            before = new byte[capacity][];
+            after = new byte[capacity][];
+        }
 
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+        void add(int slot, byte[] beforeData, byte[] afterData) {
+            slots[count] = slot;
+            before[count] = beforeData;
+            after[count] = afterData;
+            count++;
+        }
 
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+        /** Apply the changes to page, oldest state first. */
+        void redo(SlotLoggedPage page) {
+            for (int i = 0; i < count; i++)
+                page.applySlot(slots[i], after[i]);
+        }
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+        /** Take the changes back out of page. */
+        void undo(SlotLoggedPage page) {
+            for (int i = count - 1; i >= 0; i--)
+                page.applySlot(slots[i], before[i]);
+        }
+    }
 
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException e){
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InstantiationException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InvocationTargetException e) {
-            e.printStackTrace();
-            throw new IOException();
+    /**
+     * Write the body of a SLOTS record: the page id, then the length in
+     * bytes of the slot changes, so that they can be read with one read or
+     * skipped with one seek, then the changes themselves.
+     */
+    void writeSlotRecord(DataOutput dos, SlotRecord record) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream changes = new DataOutputStream(baos);
+        changes.writeInt(record.count);
+        for (int i = 0; i < record.count; i++) {
+            changes.writeInt(record.slots[i]);
+            byte[] before = record.before[i];
+            byte[] after = record.after[i];
+            changes.writeByte(before == null ? SLOT_INSERT : after == null ? SLOT_DELETE : SLOT_UPDATE);
+            if (before != null) {
+                changes.writeInt(before.length);
+                changes.write(before);
+            }
+            if (after != null) {
+                changes.writeInt(after.length);
+                changes.write(after);
+            }
         }
-        return newPage;
+        writePageId(dos, record.pid);
+        dos.writeInt(baos.size());
+        dos.write(baos.toByteArray());
+    }
+
+    SlotRecord readSlotRecord(LogSegments in) throws IOException {
+        PageId pid = readId(in);
+        DataInputStream changes = new DataInputStream(new ByteArrayInputStream(readSlotData(in)));
+        int count = changes.readInt();
+        if (count < 0)
+            throw new EOFException("bad slot count " + count);
+        SlotRecord record = new SlotRecord(pid, count);
+        for (int i = 0; i < count; i++) {
+            int slot = changes.readInt();
+            byte op = changes.readByte();
+            byte[] before = op == SLOT_INSERT ? null : readSlotData(changes);
+            byte[] after = op == SLOT_DELETE ? null : readSlotData(changes);
+            record.add(slot, before, after);
+        }
+        return record;
+    }
+
+    /** Read the id of the page in a SLOTS record and skip the slot changes. */
+    PageId skipSlotRecord(LogSegments in) throws IOException {
+        PageId pid = readId(in);
+        int len = in.readInt();
+        in.seek(in.getFilePointer() + len);
+        return pid;
+    }
+
+    /** Read a length and that many bytes; a length that cannot be right means a torn record. */
+    private byte[] readSlotData(DataInput in) throws IOException {
+        byte[] data = new byte[slotDataLength(in.readInt())];
+        in.readFully(data);
+        return data;
+    }
+
+    private byte[] readSlotData(LogSegments in) throws IOException {
+        byte[] data = new byte[slotDataLength(in.readInt())];
+        in.readFully(data);
+        return data;
+    }
+
+    private static int slotDataLength(int len) throws EOFException {
+        if (len < 0 || len > LOG_BUFFER_SIZE)
+            throw new EOFException("bad slot data length " + len);
+        return len;
+    }
+
+    void writePageData(DataOutput dos, Page p) throws IOException{
+        //page data is:
+        // page tag (see PageCodec)
+        // page id (see writePageId)
+        // page data length
+        // page data
+        dos.writeByte(PageCodec.forPage(p).tag);
+        writePageId(dos, p.getId());
+
+        byte[] pageData = p.getPageData();
+        dos.writeInt(pageData.length);
+        dos.write(pageData);
+    }
+
+    Page readPageData(LogSegments in) throws IOException {
+        PageCodec codec = PageCodec.forTag(in.readByte());
+        PageId pid = readId(in);
+        byte[] pageData = readSlotData(in);
+        return codec.decode(pid, pageData);
+    }
 
+    /** Write a page id: a tag for its kind, then its serialized ints. */
+    void writePageId(DataOutput dos, PageId pid) throws IOException {
+        PageCodec.writeId(dos, pid);
+    }
+
+    /** Read a page id written by writePageId. */
+    PageId readId(LogSegments in) throws IOException {
+        byte tag = in.readByte();
+        int[] ints = new int[PageCodec.idInts(tag)];
+        for (int i = 0; i < ints.length; i++)
+            ints[i] = in.readInt();
+        return PageCodec.idOf(tag, ints);
+    }
+
+    /** Read the id of the page written by writePageData and skip its contents. */
+    PageId readPageId(LogSegments in) throws IOException {
+        in.readByte();
+        PageId pid = readId(in);
+        int pageSize = in.readInt();
+        in.seek(in.getFilePointer() + pageSize);
+        return pid;
+    }
+
+    /** Skip over page data written by writePageData. */
+    void skipPageData(LogSegments in) throws IOException {
+        in.readByte();
+        int idInts = PageCodec.idInts(in.readByte());
+        in.seek(in.getFilePointer() + idInts * INT_SIZE);
+        int pageSize = in.readInt();
+        in.seek(in.getFilePointer() + pageSize);
+    }
+
+    /** Skip over the rest of a record after its type and transaction id. */
+    private void skipRecordBody(LogSegments in, int type) throws IOException {
+        switch (type) {
+        case UPDATE_RECORD:
+            in.readLong();
+            skipPageData(in);
+            skipPageData(in);
+            break;
+        case SLOTS_RECORD:
+            in.readLong();
+            skipSlotRecord(in);
+            break;
+        case CHECKPOINT_RECORD:
+            int numXactions = in.readInt();
+            in.seek(in.getFilePointer() + numXactions * 3L * LONG_SIZE);
+            readDirtyPages(in);
+            break;
+        }
+        in.seek(in.getFilePointer() + INT_SIZE + LONG_SIZE);
     }
 
     /** Write a BEGIN record for the specified transaction
@@ -307,150 +738,104 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
+        out.writeInt(BEGIN_RECORD);
+        out.writeLong(tid.getId());
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        tidToLastLogRecord.put(tid.getId(), currentOffset);
+        endRecord();
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
-    public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
+    /**
+     * Write a fuzzy checkpoint: a record of the active transactions with
+     * their first records, and of the dirty page table.  No pages are
+     * written and the buffer pool is not locked, so transactions carry on
+     * while it is taken.  Recovery redoes each page from the first LSN
+     * the table gives for it instead of from the checkpoint.  The page
+     * cleaner is asked to write the dirty pages out in the background, so
+     * that the next checkpoint finds fewer of them and older ones.  Log
+     * segments the checkpoint makes unnecessary are then deleted.
+     */
+    public synchronized void logCheckpoint() throws IOException {
+        preAppend();
+        long startCpOffset = currentOffset;
+        out.writeInt(CHECKPOINT_RECORD);
+        out.writeLong(-1); //no tid , but leave space for convenience
+
+        //write list of outstanding transactions
+        out.writeInt(tidToFirstLogRecord.size());
+        for (Map.Entry<Long, Long> xaction : tidToFirstLogRecord.entrySet()) {
+            Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + xaction.getKey());
+            out.writeLong(xaction.getKey());
+            out.writeLong(xaction.getValue());
+            out.writeLong(tidToLastLogRecord.get(xaction.getKey()));
+        }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
-            }
+        //and the dirty page table
+        out.writeInt(dirtyPageTable.size());
+        for (Map.Entry<PageId, long[]> page : dirtyPageTable.entrySet()) {
+            writePageId(out, page.getKey());
+            out.writeLong(page.getValue()[0]);
         }
+        endRecord();
 
+        //once the CP is on disk, make sure the CP location at the
+        // beginning of the log file is updated
+        force();
+        segments.setCheckpoint(startCpOffset);
+
+        Database.getBufferPool().pageCleaner().requestFullPass();
         logTruncate();
     }
 
+    /** Read the dirty page table of a checkpoint record. */
+    private HashMap<PageId, Long> readDirtyPages(LogSegments in) throws IOException {
+        HashMap<PageId, Long> dirty = new HashMap<PageId, Long>();
+        int numPages = in.readInt();
+        while (numPages-- > 0) {
+            PageId pid = readId(in);
+            dirty.put(pid, in.readLong());
+        }
+        return dirty;
+    }
+
     /** Truncate any unneeded portion of the log to reduce its space
-        consumption */
+        consumption.  Recovery needs nothing older than the last
+        checkpoint, the first record of a transaction it lists as active,
+        or the first LSN of a page in its dirty page table; the segments
+        wholly before the oldest of these are deleted.  Records are never
+        copied and LSNs never change, so this costs the same however long
+        the log is. */
     public synchronized void logTruncate() throws IOException {
         preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
+        long cpLoc = segments.checkpoint();
+        if (cpLoc == NO_CHECKPOINT_ID)
+            return;
+        flushBuffer();
+
+        segments.seek(cpLoc);
+        int cpType = segments.readInt();
+        @SuppressWarnings("unused")
+        long cpTid = segments.readLong();
+
+        if (cpType != CHECKPOINT_RECORD) {
+            throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+        }
 
         long minLogRecord = cpLoc;
-
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
+        int numOutstanding = segments.readInt();
+        for (int i = 0; i < numOutstanding; i++) {
             @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
-
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-            }
-
-            int numOutstanding = raf.readInt();
-
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
-            }
+            long tid = segments.readLong();
+            minLogRecord = Math.min(minLogRecord, segments.readLong());
+            segments.readLong();
         }
+        for (long firstLogRecord : readDirtyPages(segments).values())
+            minLogRecord = Math.min(minLogRecord, firstLogRecord);
 
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
-
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
-
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
-                }
-
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
-
-            } catch (EOFException e) {
-                break;
-            }
-        }
-
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
-
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
-
-        currentOffset = raf.getFilePointer();
-        //print();
+        int dropped = segments.dropBefore(minLogRecord);
+        Debug.log("TRUNCATING LOG; DROPPED " + dropped + " SEGMENTS, NOW STARTS AT " + segments.start());
     }
 
     /** Rollback the specified transaction, setting the state of any
@@ -461,16 +846,212 @@ public class LogFile {
 
         @param tid The transaction to rollback
     */
-    public void rollback(TransactionId tid)
+    public synchronized void rollback(TransactionId tid)
         throws NoSuchElementException, IOException {
-        synchronized (Database.getBufferPool()) {
-            synchronized(this) {
-                preAppend();
-                // some code goes here
+        preAppend();
+        // some code goes here
+        Long lastRecord = tidToLastLogRecord.get(tid.getId());
+        if (lastRecord == null)
+            throw new NoSuchElementException("transaction " + tid.getId() + " is not in the log");
+        for (PageId pid : undo(Collections.singletonMap(tid.getId(), lastRecord)))
+            Database.getBufferPool().discardPage(pid);
+    }
+
+    /**
+     * Undo pass: follows each given transaction's chain of records back
+     * from its last one, taking every update back out of its page: an
+     * UPDATE record puts back the before image, a SLOTS record the before
+     * bytes of its slots, starting from the page on disk. The records of
+     * all the transactions are visited newest first, which leaves each page
+     * as it was before the earliest of them; the pages are written once at
+     * the end.
+     *
+     * @param lastRecords the LSN of the last record of each transaction
+     * @return the pages written
+     */
+    private Set<PageId> undo(Map<Long, Long> lastRecords) throws IOException {
+        flushBuffer();
+        HashMap<PageId, Page> pages = new HashMap<PageId, Page>();
+        PriorityQueue<Long> next = new PriorityQueue<Long>(Math.max(1, lastRecords.size()),
+                Collections.reverseOrder());
+        next.addAll(lastRecords.values());
+        while (!next.isEmpty()) {
+            long lsn = next.poll();
+            if (lsn == NO_PREV_RECORD)
+                continue;
+            segments.seek(lsn);
+            int type = segments.readInt();
+            segments.readLong();
+            if (type != UPDATE_RECORD && type != SLOTS_RECORD)
+                continue;   // the transaction's BEGIN record ends its chain
+            next.add(segments.readLong());
+            if (type == UPDATE_RECORD) {
+                Page before = readPageData(segments);
+                pages.put(before.getId(), before);
+            } else if (type == SLOTS_RECORD) {
+                SlotRecord record = readSlotRecord(segments);
+                record.undo((SlotLoggedPage) pageFor(pages, record.pid));
+            }
+        }
+        for (Page page : pages.values()) {
+            Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
+            dirtyPageTable.remove(page.getId());
+        }
+        return pages.keySet();
+    }
+
+    /**
+     * Redo the committed updates to each page in updates.  The pages are
+     * split between up to redoThreads threads by the hash of their ids;
+     * each thread reads the log through a reader of its own and redoes its
+     * pages one at a time, so the updates to a page are still applied in
+     * log order, while different pages are rebuilt and written at once.
+     *
+     * @param touched gets the ids of the pages written
+     * @return the number of records redone
+     */
+    private int redo(HashMap<PageId, ArrayList<Long>> updates, final Set<Long> committed,
+            final Map<Long, Long> updateTid, final Map<Long, SlotRecord> slotRecords,
+            Set<PageId> touched) throws IOException {
+        int threads = Math.min(redoThreads, updates.size());
+        if (threads <= 1)
+            return redoPages(segments, updates.entrySet(), committed, updateTid, slotRecords, touched);
+
+        final ArrayList<ArrayList<Map.Entry<PageId, ArrayList<Long>>>> partitions =
+                new ArrayList<ArrayList<Map.Entry<PageId, ArrayList<Long>>>>();
+        for (int i = 0; i < threads; i++)
+            partitions.add(new ArrayList<Map.Entry<PageId, ArrayList<Long>>>());
+        for (Map.Entry<PageId, ArrayList<Long>> entry : updates.entrySet())
+            partitions.get(Math.floorMod(entry.getKey().hashCode(), threads)).add(entry);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "simpledb-redo");
+                t.setDaemon(true);
+                return t;
             }
+        });
+        try {
+            ArrayList<Future<Set<PageId>>> written = new ArrayList<Future<Set<PageId>>>();
+            final int[] redone = new int[threads];
+            for (int i = 0; i < threads; i++) {
+                final int partition = i;
+                written.add(pool.submit(new Callable<Set<PageId>>() {
+                    public Set<PageId> call() throws IOException {
+                        HashSet<PageId> pages = new HashSet<PageId>();
+                        redone[partition] = redoPages(segments.reader(), partitions.get(partition),
+                                committed, updateTid, slotRecords, pages);
+                        return pages;
+                    }
+                }));
+            }
+            int total = 0;
+            for (int i = 0; i < threads; i++) {
+                try {
+                    touched.addAll(written.get(i).get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException)
+                        throw (IOException) cause;
+                    if (cause instanceof RuntimeException)
+                        throw (RuntimeException) cause;
+                    if (cause instanceof Error)
+                        throw (Error) cause;
+                    throw new IOException(cause);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("interrupted waiting for redo");
+                }
+                total += redone[i];
+            }
+            return total;
+        } finally {
+            pool.shutdownNow();
         }
     }
 
+    /**
+     * Redo the committed updates to some pages, reading the log from in:
+     * skip the records the page on disk already reflects, those up to the
+     * LSN in its trailer, then start from the newest committed image of the
+     * page after that, or from the page on disk, apply the committed slot
+     * changes logged after it, and write the page if anything was applied.
+     *
+     * @param touched gets the ids of the pages written
+     * @return the number of records redone
+     */
+    private int redoPages(LogSegments in, Collection<Map.Entry<PageId, ArrayList<Long>>> work,
+            Set<Long> committed, Map<Long, Long> updateTid, Map<Long, SlotRecord> slotRecords,
+            Set<PageId> touched) throws IOException {
+        int redone = 0;
+        long logEnd = currentOffset;
+        for (Map.Entry<PageId, ArrayList<Long>> entry : work) {
+            PageId pid = entry.getKey();
+            ArrayList<Long> lsns = entry.getValue();
+            HashMap<PageId, Page> pages = new HashMap<PageId, Page>();
+            int newestImage = -1;
+            for (int i = lsns.size() - 1; i >= 0 && newestImage < 0; i--) {
+                long lsn = lsns.get(i);
+                if (!slotRecords.containsKey(lsn) && committed.contains(updateTid.get(lsn)))
+                    newestImage = i;
+            }
+            long pageLsn = 0;
+            try {
+                pageLsn = pageFor(pages, pid).getLSN();
+            } catch (RuntimeException e) {
+                // torn, or past the end of the file: only an image can restore it
+                if (newestImage < 0)
+                    throw e;
+                pages.clear();
+            }
+            if (pageLsn > logEnd)
+                pageLsn = 0;    // written under an older log; it tells nothing about this one
+            int from = 0;
+            while (from < lsns.size() && lsns.get(from) <= pageLsn)
+                from++;
+            long applied = 0;
+            if (newestImage >= from) {
+                long lsn = lsns.get(newestImage);
+                in.seek(lsn + INT_SIZE + 2 * LONG_SIZE);
+                skipPageData(in);
+                pages.put(pid, readPageData(in));
+                from = newestImage + 1;
+                applied = lsn;
+                redone++;
+            }
+            for (int i = from; i < lsns.size(); i++) {
+                long lsn = lsns.get(i);
+                SlotRecord record = slotRecords.get(lsn);
+                if (record == null || !committed.contains(updateTid.get(lsn)))
+                    continue;
+                record.redo((SlotLoggedPage) pageFor(pages, pid));
+                applied = lsn;
+                redone++;
+            }
+            if (applied == 0)
+                continue;   // the page on disk is up to date
+            Page page = pages.get(pid);
+            page.setLSN(applied);
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+            touched.add(pid);
+        }
+        return redone;
+    }
+
+    /** The copy of pid being recovered in pages, read from disk the first time. */
+    private Page pageFor(Map<PageId, Page> pages, PageId pid) {
+        Page page = pages.get(pid);
+        if (page == null) {
+            page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            pages.put(pid, page);
+        }
+        return page;
+    }
+
+    /** @return true if tid has begun and not yet committed or aborted */
+    public synchronized boolean isActive(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
+    }
+
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
@@ -478,7 +1059,7 @@ public class LogFile {
     public synchronized void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            segments.close();
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -488,23 +1069,236 @@ public class LogFile {
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+        <p>
+        Recovery runs ARIES-style passes over the log, addressed by LSN
+        (the position of a record in the log as a whole):
+        <ul>
+        <li> Analysis reads forward to the end of the log to find out which
+        transactions committed, aborted, or never finished.  Checkpoints are
+        fuzzy: pages may still be dirty in memory when one is taken, so it
+        lists them with the first record each may be missing, and analysis
+        starts at the oldest of those or at the checkpoint, whichever comes
+        first.  The transactions the checkpoint lists as active are the
+        unfinished ones that began earlier.
+        <li> Redo rebuilds each page touched by a committed transaction
+        whose record it may be missing: one logged after the checkpoint, or
+        at or after the page's first LSN in the checkpoint's dirty page
+        table.  Anything older reached the page's file before the
+        checkpoint.  A page image supersedes everything logged for
+        the page before it, so redo starts from the newest committed image,
+        or from the page on disk if there is none, applies the committed
+        slot changes logged after it, and writes the page once.  Pages do
+        not depend on each other, so they are redone on several threads
+        (see setRedoThreads).
+        <li> Undo follows the unfinished transactions' chains of records
+        back from the last record of each, which analysis notes along the
+        way (or takes from the checkpoint), putting back before images
+        and before slot contents, and
+        then logs an ABORT record for each unfinished transaction so that
+        recovering again leaves them alone.
+        </ul>
     */
-    public void recover() throws IOException {
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                recoveryUndecided = false;
-                // some code goes here
+    public synchronized void recover() throws IOException {
+        recoveryUndecided = false;
+        // some code goes here
+        logBuffer.clear();
+        recordChecksum.reset();
+        if (segments.length() <= segments.start()) {
+            segments.clear();
+            bufferStart = segments.length();
+            currentOffset = bufferStart;
+            flushedOffset = Math.min(flushedOffset, currentOffset);
+            return;
+        }
+
+        // analysis
+        long cpLoc = segments.checkpoint();
+        HashMap<Long, Long> unfinished = new HashMap<Long, Long>();
+        // the newest record of each transaction, where undo starts
+        HashMap<Long, Long> lastRecords = new HashMap<Long, Long>();
+        HashSet<Long> committed = new HashSet<Long>();
+        // the updates to redo for each page
+        HashMap<PageId, ArrayList<Long>> updates = new HashMap<PageId, ArrayList<Long>>();
+        HashMap<Long, Long> updateTid = new HashMap<Long, Long>();
+        // slot changes are small enough to keep for redo instead of reading them twice
+        HashMap<Long, SlotRecord> slotRecords = new HashMap<Long, SlotRecord>();
+        HashMap<PageId, Long> checkpointDirty = new HashMap<PageId, Long>();
+        long end = segments.start();
+        if (cpLoc != NO_CHECKPOINT_ID) {
+            segments.seek(cpLoc + INT_SIZE + LONG_SIZE);
+            int numXactions = segments.readInt();
+            segments.seek(segments.getFilePointer() + numXactions * 3L * LONG_SIZE);
+            checkpointDirty = readDirtyPages(segments);
+            end = cpLoc;
+            for (long firstLogRecord : checkpointDirty.values())
+                end = Math.min(end, firstLogRecord);
+        }
+        segments.seek(end);
+        try {
+            while (true) {
+                long lsn = segments.getFilePointer();
+                int type = segments.readInt();
+                long recordTid = segments.readLong();
+                switch (type) {
+                case BEGIN_RECORD:
+                    unfinished.put(recordTid, lsn);
+                    lastRecords.put(recordTid, lsn);
+                    readRecordEnd(segments, lsn);
+                    break;
+                case COMMIT_RECORD:
+                    committed.add(recordTid);
+                    unfinished.remove(recordTid);
+                    readRecordEnd(segments, lsn);
+                    break;
+                case ABORT_RECORD:
+                    // rolled back on disk before the record was written
+                    unfinished.remove(recordTid);
+                    readRecordEnd(segments, lsn);
+                    break;
+                case UPDATE_RECORD:
+                case SLOTS_RECORD:
+                    PageId pid;
+                    segments.readLong();   // the previous record, for undo
+                    if (type == UPDATE_RECORD) {
+                        pid = readPageId(segments);
+                        skipPageData(segments);
+                    } else {
+                        SlotRecord record = readSlotRecord(segments);
+                        slotRecords.put(lsn, record);
+                        pid = record.pid;
+                    }
+                    readRecordEnd(segments, lsn);
+                    lastRecords.put(recordTid, lsn);
+                    if (lsn < cpLoc && !(checkpointDirty.containsKey(pid)
+                            && lsn >= checkpointDirty.get(pid)))
+                        break;   // already in the page's file
+                    ArrayList<Long> pageUpdates = updates.get(pid);
+                    if (pageUpdates == null) {
+                        pageUpdates = new ArrayList<Long>();
+                        updates.put(pid, pageUpdates);
+                    }
+                    pageUpdates.add(lsn);
+                    updateTid.put(lsn, recordTid);
+                    break;
+                case CHECKPOINT_RECORD:
+                    int numXactions = segments.readInt();
+                    while (numXactions-- > 0) {
+                        long xid = segments.readLong();
+                        unfinished.put(xid, segments.readLong());
+                        long last = segments.readLong();
+                        Long seen = lastRecords.get(xid);
+                        if (seen == null || seen < last)
+                            lastRecords.put(xid, last);
+                    }
+                    readDirtyPages(segments);
+                    readRecordEnd(segments, lsn);
+                    break;
+                default:
+                    throw new EOFException();
+                }
+                end = segments.getFilePointer();
+            }
+        } catch (EOFException e) {
+            // a record the crash cut short, or that fails its checksum, ends the log
+            segments.truncate(end);
+        }
+        bufferStart = end;
+        currentOffset = end;
+        flushedOffset = Math.min(flushedOffset, currentOffset);
+
+        // redo, page by page, with the pages split between threads
+        HashSet<PageId> touched = new HashSet<PageId>();
+        int redone = redo(updates, committed, updateTid, slotRecords, touched);
+        Debug.log("REDO: " + redone + " of " + updateTid.size() + " updates since the checkpoint");
+
+        // undo
+        if (!unfinished.isEmpty()) {
+            lastRecords.keySet().retainAll(unfinished.keySet());
+            touched.addAll(undo(lastRecords));
+            for (long loser : unfinished.keySet()) {
+                out.writeInt(ABORT_RECORD);
+                out.writeLong(loser);
+                endRecord();
             }
-         }
+        }
+        for (PageId pid : touched)
+            Database.getBufferPool().discardPage(pid);
+        force();
+        tidToFirstLogRecord.clear();
+        tidToLastLogRecord.clear();
+        dirtyPageTable.clear();
     }
 
     /** Print out a human readable represenation of the log */
-    public void print() throws IOException {
+    public synchronized void print() throws IOException {
         // some code goes here
+        if (!recoveryUndecided)
+            flushBuffer();
+        System.out.println("checkpoint at " + segments.checkpoint());
+        segments.seek(segments.start());
+        try {
+            while (true) {
+                long lsn = segments.getFilePointer();
+                int type = segments.readInt();
+                long recordTid = segments.readLong();
+                String what;
+                switch (type) {
+                case UPDATE_RECORD:
+                    segments.readLong();
+                    what = "UPDATE " + readPageId(segments) + " (before), " + readPageId(segments) + " (after)";
+                    readRecordEnd(segments, lsn);
+                    break;
+                case SLOTS_RECORD:
+                    segments.readLong();
+                    SlotRecord record = readSlotRecord(segments);
+                    StringBuilder slots = new StringBuilder("SLOTS " + record.pid + ":");
+                    for (int i = 0; i < record.count; i++)
+                        slots.append(record.before[i] == null ? " +" : record.after[i] == null ? " -" : " ~")
+                                .append(record.slots[i]);
+                    what = slots.toString();
+                    readRecordEnd(segments, lsn);
+                    break;
+                case CHECKPOINT_RECORD:
+                    int numXactions = segments.readInt();
+                    StringBuilder active = new StringBuilder("CHECKPOINT, active:");
+                    while (numXactions-- > 0)
+                        active.append(" ").append(segments.readLong()).append("@").append(segments.readLong())
+                                .append("-").append(segments.readLong());
+                    active.append(", dirty:");
+                    for (Map.Entry<PageId, Long> page : readDirtyPages(segments).entrySet())
+                        active.append(" ").append(page.getKey()).append("@").append(page.getValue());
+                    what = active.toString();
+                    readRecordEnd(segments, lsn);
+                    break;
+                default:
+                    what = type == BEGIN_RECORD ? "BEGIN" : type == COMMIT_RECORD ? "COMMIT"
+                            : type == ABORT_RECORD ? "ABORT" : "unknown type " + type;
+                    readRecordEnd(segments, lsn);
+                }
+                System.out.println(lsn + ": tid " + recordTid + " " + what);
+            }
+        } catch (EOFException e) {
+            // end of the log
+        }
     }
 
     public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+        flushBuffer();
+        segments.force(flushedOffset, currentOffset);
+        flushedOffset = currentOffset;
+        flushFailure = null;
+        notifyAll();
+    }
+
+    /**
+     * Force the log to disk unless the record at lsn is there already.
+     * Writing a page first takes forcing through the page's LSN.
+     *
+     * @see Page#getLSN
+     */
+    public synchronized void force(long lsn) throws IOException {
+        if (lsn >= flushedOffset)
+            force();
     }
 
 }
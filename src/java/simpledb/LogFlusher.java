@@ -0,0 +1,58 @@
+package simpledb;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Forces log files on behalf of committing transactions (group commit).
+ * <p>
+ * A committing thread appends its COMMIT record, asks for a flush and
+ * waits. The flusher waits out the log's group commit window so that more
+ * commits can join, forces the log once, and wakes every transaction whose
+ * record made it to disk. Commits that arrive while a force is running
+ * join the next one, so even with no window, commits under load share
+ * their fsyncs.
+ *
+ * @see LogFile#logCommit
+ * @see LogFile#setGroupCommitWindow
+ */
+class LogFlusher {
+
+    private static final LinkedBlockingQueue<LogFile> requests = new LinkedBlockingQueue<LogFile>();
+    private static Thread thread;
+
+    private LogFlusher() {
+    }
+
+    /** Asks for log to be forced, starting the flusher if need be. */
+    static void request(LogFile log) {
+        start();
+        requests.offer(log);
+    }
+
+    private static synchronized void start() {
+        if (thread != null)
+            return;
+        thread = new Thread("simpledb-log-flusher") {
+            public void run() {
+                while (true) {
+                    try {
+                        LogFile log = requests.take();
+                        long window = log.getGroupCommitWindow();
+                        if (window > 0)
+                            LockSupport.parkNanos(this, TimeUnit.MICROSECONDS.toNanos(window));
+                        // everyone who asked for this log so far is covered by one force
+                        while (requests.remove(log))
+                            ;
+                        log.flushCommits();
+                    } catch (InterruptedException e) {
+                        // keep serving; nobody else can force for the waiting commits
+                    }
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,318 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.CRC32C;
+
+/**
+ * The storage under a LogFile: a sequence of bytes addressed by LSN and
+ * kept in fixed-size segment files, so that the start of the log can be
+ * reclaimed by deleting whole segments and LSNs never change.
+ * <p>
+ * Segment n holds the bytes from n * segmentSize up to the next segment,
+ * in a file named after the log file with the segment number appended
+ * ("log.000012").  A record may span two segments.  The log file itself
+ * is a small control file with the LSN of the last checkpoint and the
+ * segment size the log was written with.  LSN 0 is never used, so that a
+ * page LSN of 0 can mean that the page has not been logged; a new log
+ * starts at FIRST_LSN.
+ * <p>
+ * Reads go through a buffer, positioned with seek() like a
+ * RandomAccessFile, and decode big-endian values like a DataInput.  Not
+ * thread safe; LogFile calls it under its monitor.  Other threads read the
+ * log through a reader() of their own.
+ */
+class LogSegments {
+
+    static final long FIRST_LSN = LogFile.LONG_SIZE;
+
+    /** Bytes per segment file for new logs, from the simpledb.logSegmentSize system property. */
+    static final long DEFAULT_SEGMENT_SIZE = Long.getLong("simpledb.logSegmentSize", 16 << 20);
+
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+    private static final int CONTROL_SIZE = 2 * LogFile.LONG_SIZE;
+
+    private final File control;
+    private final long segmentSize;
+    private final TreeMap<Long, FileChannel> segments;
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private long readBufferStart;
+    private long position;
+
+    /**
+     * Opens the log whose control file is control, with the segments
+     * found next to it.
+     *
+     * @param segmentSize the segment size to use if the log is new
+     */
+    LogSegments(File control, long segmentSize) throws IOException {
+        this.control = control;
+        this.segments = new TreeMap<Long, FileChannel>();
+        long size = segmentSize;
+        // anything else is not a control file, such as a log from before segments
+        if (control.length() == CONTROL_SIZE) {
+            RandomAccessFile raf = new RandomAccessFile(control, "r");
+            try {
+                raf.readLong();
+                size = raf.readLong();
+            } finally {
+                raf.close();
+            }
+        }
+        this.segmentSize = size;
+        File dir = control.getAbsoluteFile().getParentFile();
+        String prefix = control.getName() + ".";
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(prefix) && name.substring(prefix.length()).matches("\\d+"))
+                    open(Long.parseLong(name.substring(prefix.length())));
+            }
+        }
+        readBuffer.limit(0);
+    }
+
+    /** A reader over the same segments, with its own buffer and position. */
+    private LogSegments(LogSegments log) {
+        this.control = log.control;
+        this.segmentSize = log.segmentSize;
+        this.segments = log.segments;
+        readBuffer.limit(0);
+    }
+
+    /**
+     * @return a reader over the same segments for another thread.  Channels
+     *         can be read from by many threads at once, but nothing may
+     *         write to or truncate the log while the reader is in use.
+     */
+    LogSegments reader() {
+        return new LogSegments(this);
+    }
+
+    long segmentSize() {
+        return segmentSize;
+    }
+
+    private File segmentFile(long segment) {
+        return new File(control.getAbsoluteFile().getParentFile(),
+                control.getName() + String.format(".%06d", segment));
+    }
+
+    private FileChannel open(long segment) throws IOException {
+        FileChannel channel = segments.get(segment);
+        if (channel == null) {
+            channel = new RandomAccessFile(segmentFile(segment), "rw").getChannel();
+            segments.put(segment, channel);
+        }
+        return channel;
+    }
+
+    /** @return the LSN of the first byte still kept */
+    long start() {
+        return segments.isEmpty() ? FIRST_LSN : Math.max(FIRST_LSN, segments.firstKey() * segmentSize);
+    }
+
+    /** @return the LSN just past the last byte written */
+    long length() throws IOException {
+        if (segments.isEmpty())
+            return FIRST_LSN;
+        Map.Entry<Long, FileChannel> last = segments.lastEntry();
+        return Math.max(FIRST_LSN, last.getKey() * segmentSize + last.getValue().size());
+    }
+
+    /** @return the LSN of the last checkpoint, or LogFile.NO_CHECKPOINT_ID */
+    long checkpoint() throws IOException {
+        if (control.length() != CONTROL_SIZE)
+            return LogFile.NO_CHECKPOINT_ID;
+        RandomAccessFile raf = new RandomAccessFile(control, "r");
+        try {
+            return raf.readLong();
+        } finally {
+            raf.close();
+        }
+    }
+
+    /** Points the control file at the checkpoint record at lsn, durably. */
+    void setCheckpoint(long lsn) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(control, "rw");
+        try {
+            raf.writeLong(lsn);
+            raf.writeLong(segmentSize);
+            raf.setLength(CONTROL_SIZE);
+            raf.getChannel().force(true);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /** Writes the remaining bytes of src at lsn, across segments as need be. */
+    void write(ByteBuffer src, long lsn) throws IOException {
+        readBuffer.limit(0);
+        while (src.hasRemaining()) {
+            long segment = lsn / segmentSize;
+            long offset = lsn % segmentSize;
+            int n = (int) Math.min(src.remaining(), segmentSize - offset);
+            ByteBuffer part = src.duplicate();
+            part.limit(part.position() + n);
+            FileChannel channel = open(segment);
+            while (part.hasRemaining())
+                offset += channel.write(part, offset);
+            src.position(src.position() + n);
+            lsn += n;
+        }
+    }
+
+    /** Forces the bytes from LSN from up to to to disk. */
+    void force(long from, long to) throws IOException {
+        for (FileChannel channel : channels(from, to))
+            channel.force(true);
+    }
+
+    /**
+     * @return the channels of the segments that hold the bytes from LSN
+     *         from up to to, for a caller that forces them itself
+     */
+    List<FileChannel> channels(long from, long to) {
+        if (to <= from)
+            return Collections.emptyList();
+        return new ArrayList<FileChannel>(
+                segments.subMap(from / segmentSize, true, (to - 1) / segmentSize, true).values());
+    }
+
+    /** Cuts the log off at lsn, as after a record torn by a crash. */
+    void truncate(long lsn) throws IOException {
+        readBuffer.limit(0);
+        long last = lsn / segmentSize;
+        while (!segments.isEmpty() && segments.lastKey() > last)
+            delete(segments.lastKey());
+        FileChannel channel = segments.get(last);
+        if (channel != null)
+            channel.truncate(lsn % segmentSize);
+    }
+
+    /**
+     * Deletes the segments that hold nothing at or after lsn.  The segment
+     * lsn falls in is kept, so this never touches a record still needed.
+     *
+     * @return the number of segments deleted
+     */
+    int dropBefore(long lsn) throws IOException {
+        int dropped = 0;
+        while (!segments.isEmpty() && (segments.firstKey() + 1) * segmentSize <= lsn
+                && segments.firstKey() < segments.lastKey()) {
+            delete(segments.firstKey());
+            dropped++;
+        }
+        return dropped;
+    }
+
+    /**
+     * Throws the whole log away and starts an empty one.  The new log
+     * starts at the first segment boundary at or after the end of the old
+     * one rather than at FIRST_LSN, so LSNs never go back: pages on disk
+     * keep the LSNs of the records they reflect, and recovery compares them
+     * with the LSNs of the records in the new log.
+     */
+    void clear() throws IOException {
+        readBuffer.limit(0);
+        long next = segments.isEmpty() ? -1 : (length() + segmentSize - 1) / segmentSize;
+        while (!segments.isEmpty())
+            delete(segments.lastKey());
+        if (next >= 0)
+            open(next);
+        setCheckpoint(LogFile.NO_CHECKPOINT_ID);
+    }
+
+    private void delete(long segment) throws IOException {
+        FileChannel channel = segments.remove(segment);
+        channel.close();
+        segmentFile(segment).delete();
+    }
+
+    void close() throws IOException {
+        for (FileChannel channel : segments.values())
+            channel.close();
+        segments.clear();
+    }
+
+    // reading
+
+    void seek(long lsn) {
+        position = lsn;
+    }
+
+    long getFilePointer() {
+        return position;
+    }
+
+    /** Makes sure the byte at position is in the read buffer. */
+    private void fill() throws IOException {
+        if (position >= readBufferStart && position < readBufferStart + readBuffer.limit())
+            return;
+        long segment = position / segmentSize;
+        FileChannel channel = segments.get(segment);
+        readBuffer.clear();
+        readBufferStart = position;
+        if (channel != null) {
+            long offset = position % segmentSize;
+            readBuffer.limit((int) Math.min(READ_BUFFER_SIZE, segmentSize - offset));
+            while (readBuffer.hasRemaining() && channel.read(readBuffer, offset + readBuffer.position()) > 0)
+                ;
+        }
+        readBuffer.flip();
+        if (!readBuffer.hasRemaining())
+            throw new EOFException();
+    }
+
+    /**
+     * @return the CRC32C of the bytes from LSN from up to to; the read
+     *         position is left where it was
+     */
+    int checksum(long from, long to) throws IOException {
+        long at = position;
+        CRC32C crc = new CRC32C();
+        position = from;
+        while (position < to) {
+            fill();
+            int off = (int) (position - readBufferStart);
+            int n = (int) Math.min(to - position, readBuffer.limit() - off);
+            crc.update(readBuffer.array(), off, n);
+            position += n;
+        }
+        position = at;
+        return (int) crc.getValue();
+    }
+
+    void readFully(byte[] b) throws IOException {
+        int off = 0, len = b.length;
+        while (len > 0) {
+            fill();
+            int at = (int) (position - readBufferStart);
+            int n = Math.min(len, readBuffer.limit() - at);
+            System.arraycopy(readBuffer.array(), at, b, off, n);
+            position += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    byte readByte() throws IOException {
+        fill();
+        return readBuffer.get((int) (position++ - readBufferStart));
+    }
+
+    int readInt() throws IOException {
+        int v = 0;
+        for (int i = 0; i < LogFile.INT_SIZE; i++)
+            v = (v << 8) | (readByte() & 0xff);
+        return v;
+    }
+
+    long readLong() throws IOException {
+        return ((long) readInt() << 32) | (readInt() & 0xffffffffL);
+    }
+}
@@ -1,4 +1,5 @@
 package simpledb;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
@@ -289,6 +290,8 @@ public class LogicalPlan {
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        HashMap<String,boolean[]> columns = referencedColumns();
+        HashMap<String,SeqScan> scans = new HashMap<String,SeqScan>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -298,6 +301,8 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
+            ss.setColumns(columns.get(table.alias));
+            scans.put(table.alias, ss);
             
             subplanMap.put(table.alias,ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
@@ -335,6 +340,8 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
             subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            // the scan can skip pages that cannot pass the filter
+            scans.get(lf.tableAlias).addPredicate(p);
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
@@ -482,6 +489,66 @@ public class LogicalPlan {
         return new Project(outFields, outTypes, node);
     }
 
+    /** Work out which columns of each table the plan reads, so that the scans
+     *  of tables stored by columns decode only those (see {@link SeqScan#setColumns}).
+     *  Field names that are not columns of their table are left for
+     *  {@link #physicalPlan} to report.
+     *  @return for each table alias, which fields of its table the filters,
+     *   joins, select list, aggregate and ORDER BY refer to
+     */
+    private HashMap<String,boolean[]> referencedColumns() {
+        HashMap<String,boolean[]> columns = new HashMap<String,boolean[]>();
+        for (LogicalScanNode table : tables) {
+            try {
+                columns.put(table.alias, new boolean[Database.getCatalog().getTupleDesc(table.t).numFields()]);
+            } catch (NoSuchElementException e) {
+                // unknown table, reported when its scan is made
+            }
+        }
+        for (LogicalFilterNode lf : filters)
+            markColumn(columns, lf.tableAlias, lf.fieldPureName);
+        for (LogicalJoinNode lj : joins) {
+            markColumn(columns, lj.t1Alias, lj.f1PureName);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                markColumn(columns, lj.t2Alias, lj.f2PureName);
+        }
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*")) {
+                for (boolean[] used : columns.values())
+                    Arrays.fill(used, true);
+            } else {
+                markColumn(columns, si.fname);
+            }
+        }
+        if (hasAgg) {
+            markColumn(columns, aggField);
+            if (groupByField != null)
+                markColumn(columns, groupByField);
+        }
+        if (hasOrderBy)
+            markColumn(columns, oByField);
+        return columns;
+    }
+
+    /** Marks a field named alias.field as read in columns. */
+    private void markColumn(HashMap<String,boolean[]> columns, String qualifiedName) {
+        int dot = qualifiedName.indexOf('.');
+        if (dot >= 0)
+            markColumn(columns, qualifiedName.substring(0, dot), qualifiedName.substring(dot + 1));
+    }
+
+    /** Marks field fieldName of the table aliased as alias as read in columns. */
+    private void markColumn(HashMap<String,boolean[]> columns, String alias, String fieldName) {
+        boolean[] used = columns.get(alias);
+        if (used == null)
+            return;
+        try {
+            used[Database.getCatalog().getTupleDesc(getTableId(alias)).fieldNameToIndex(fieldName)] = true;
+        } catch (NoSuchElementException e) {
+            // not a field of the table
+        }
+    }
+
     public static void main(String argv[]) {
         // construct a 3-column table schema
         Type types[] = new Type[]{ Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
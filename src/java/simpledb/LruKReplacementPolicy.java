@@ -0,0 +1,200 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * LRU-K replacement (K = 2 by default). Pages seen fewer than K times have an
+ * infinite backward K-distance and are always evicted before pages that have
+ * been referenced K times, which keeps one-off reads (scans) from pushing out
+ * the working set.
+ * <p>
+ * Exact LRU-K needs a priority queue ordered by the K-th most recent
+ * reference. To keep every operation O(1) this version orders each of the two
+ * groups by last reference instead, the usual 2Q-style approximation. Dirty
+ * pages a search passes over are set aside until they are cleaned, so a
+ * search does not walk over them again and their recency is kept. The
+ * reference counts of recently evicted pages are retained for one pool's worth
+ * of evictions, so a page that comes back quickly keeps its history.
+ */
+public class LruKReplacementPolicy implements ReplacementPolicy {
+
+    public static final int DEFAULT_K = 2;
+
+    public static final ReplacementPolicy.Factory FACTORY = new ReplacementPolicy.Factory() {
+        public ReplacementPolicy create(int capacity) {
+            return new LruKReplacementPolicy(capacity, DEFAULT_K);
+        }
+    };
+
+    private final int k;
+    /** pages with fewer than k references, and their reference counts */
+    private final Group<Integer> history;
+    /** pages with at least k references */
+    private final Group<Boolean> frequent;
+    /** reference counts of evicted pages */
+    private final LinkedHashMap<PageId, Integer> retained;
+
+    /**
+     * The pages of one group, least recently used first. A page a search
+     * for a victim passes over, because it is dirty, is set aside instead
+     * of staying in line, so that later searches do not walk over it again,
+     * and comes back when it is used or reported clean. Every page set
+     * aside was at the least recently used end of the line when it was, so
+     * the pages set aside come before the line, in the order they were set
+     * aside in.
+     */
+    private static final class Group<V> {
+        private final LinkedHashMap<PageId, V> line;
+        /** pages set aside, in the order they were set aside in */
+        private final LinkedHashMap<PageId, Held<V>> held;
+        /** the pages set aside that have been reported clean since, by when they were set aside */
+        private final TreeMap<Long, PageId> cleaned = new TreeMap<>();
+        private long nextSeq;
+
+        Group(int capacity) {
+            line = new LinkedHashMap<>(capacity * 2, 0.75f, true);
+            held = new LinkedHashMap<>();
+        }
+
+        boolean contains(PageId pid) {
+            return line.containsKey(pid) || held.containsKey(pid);
+        }
+
+        /** @return the value of pid, which counts as a use of it, or null if pid is not in the group */
+        V touch(PageId pid) {
+            V value = line.get(pid);  // get() moves it to the most recent end
+            if (value == null) {
+                Held<V> h = unhold(pid);
+                if (h != null) {
+                    value = h.value;
+                    line.put(pid, value);
+                }
+            }
+            return value;
+        }
+
+        /** Adds pid as the most recently used page, or sets its value. */
+        void put(PageId pid, V value) {
+            unhold(pid);
+            line.put(pid, value);
+        }
+
+        V remove(PageId pid) {
+            Held<V> h = unhold(pid);
+            return h != null ? h.value : line.remove(pid);
+        }
+
+        private Held<V> unhold(PageId pid) {
+            Held<V> h = held.remove(pid);
+            if (h != null)
+                cleaned.remove(h.seq);
+            return h;
+        }
+
+        void cleaned(PageId pid) {
+            Held<V> h = held.get(pid);
+            if (h != null)
+                cleaned.put(h.seq, pid);
+        }
+
+        /** @return the least recently used page the filter accepts, or null */
+        PageId firstEvictable(VictimFilter filter) {
+            while (!cleaned.isEmpty()) {
+                PageId pid = cleaned.firstEntry().getValue();
+                if (filter.canEvict(pid))
+                    return pid;
+                cleaned.pollFirstEntry();   // dirtied again
+            }
+            Iterator<Map.Entry<PageId, V>> it = line.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<PageId, V> e = it.next();
+                if (filter.canEvict(e.getKey()))
+                    return e.getKey();
+                it.remove();
+                held.put(e.getKey(), new Held<V>(nextSeq++, e.getValue()));
+            }
+            // only pages set aside are left, and one may have been cleaned
+            // without being reported
+            for (PageId pid : held.keySet()) {
+                if (filter.canEvict(pid))
+                    return pid;
+            }
+            return null;
+        }
+    }
+
+    private static final class Held<V> {
+        final long seq;
+        final V value;
+
+        Held(long seq, V value) {
+            this.seq = seq;
+            this.value = value;
+        }
+    }
+
+    public LruKReplacementPolicy(final int capacity, int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("K must be at least 1");
+        this.k = k;
+        history = new Group<Integer>(capacity);
+        frequent = new Group<Boolean>(capacity);
+        retained = new LinkedHashMap<PageId, Integer>(capacity * 2) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageId, Integer> eldest) {
+                return size() > Math.max(capacity, 1);
+            }
+        };
+    }
+
+    public void pageAdded(PageId pid) {
+        if (history.contains(pid) || frequent.contains(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        Integer old = retained.remove(pid);
+        reference(pid, old == null ? 1 : old + 1);
+    }
+
+    public void pageAccessed(PageId pid) {
+        if (frequent.touch(pid) != null)
+            return;
+        Integer count = history.touch(pid);
+        if (count != null)
+            reference(pid, count + 1);
+    }
+
+    private void reference(PageId pid, int count) {
+        if (count >= k) {
+            history.remove(pid);
+            frequent.put(pid, Boolean.TRUE);
+        } else {
+            history.put(pid, count);
+        }
+    }
+
+    public void pageRemoved(PageId pid) {
+        Integer count = history.remove(pid);
+        if (count == null && frequent.remove(pid) != null)
+            count = k;
+        if (count != null)
+            retained.put(pid, count);
+    }
+
+    public void pageCleaned(PageId pid) {
+        history.cleaned(pid);
+        frequent.cleaned(pid);
+    }
+
+    public PageId chooseVictim(VictimFilter filter) {
+        PageId victim = history.firstEvictable(filter);
+        if (victim == null)
+            victim = frequent.firstEvictable(filter);
+        return victim;
+    }
+}
@@ -56,4 +56,16 @@ public interface Page {
      * copy current content to the before image.
      */
     public void setBeforeImage();
+
+    /**
+     * Get the LSN of the last log record holding this page's contents, or 0
+     * if none has been. The log must be forced through this LSN before the
+     * page is written. The LSN is written with the page, in its trailer
+     * (see PageChecksum), and read back with it, so recovery knows which
+     * log records a page on disk already reflects.
+     */
+    public long getLSN();
+
+    /** Record that the log record at lsn holds this page's contents. */
+    public void setLSN(long lsn);
 }
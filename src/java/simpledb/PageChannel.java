@@ -0,0 +1,124 @@
+package simpledb;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The open FileChannel behind a DbFile.
+ * <p>
+ * The channel is opened on first use and kept until {@link #close}, so a
+ * page miss costs one positional read instead of an open, a seek, a read
+ * and a close. Positional reads and writes do not move a shared file
+ * pointer, so any number of threads can use the channel at once.
+ * <p>
+ * A channel is closed underneath every thread using it when one of them is
+ * interrupted during I/O. The interrupted thread gets its
+ * ClosedByInterruptException; the others, and anyone using the file after
+ * {@link #close}, transparently reopen it.
+ */
+final class PageChannel implements Closeable {
+
+    private final File file;
+    private volatile FileChannel channel;
+
+    PageChannel(File file) {
+        this.file = file;
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel ch = channel;
+        if (ch != null)
+            return ch;
+        synchronized (this) {
+            if (channel == null) {
+                try {
+                    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE,
+                                           StandardOpenOption.CREATE);
+                } catch (AccessDeniedException e) {
+                    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                }
+            }
+            return channel;
+        }
+    }
+
+    /** Forgets a channel that was closed underneath us. */
+    private synchronized void reset(FileChannel ch) {
+        if (channel == ch)
+            channel = null;
+    }
+
+    /**
+     * Reads from position until buf is full or the file ends.
+     *
+     * @return the number of bytes read, or -1 if position is at or past the
+     *   end of the file
+     */
+    public int read(ByteBuffer buf, long position) throws IOException {
+        int done = 0;
+        while (buf.hasRemaining()) {
+            FileChannel ch = channel();
+            int n;
+            try {
+                n = ch.read(buf, position + done);
+            } catch (ClosedByInterruptException e) {
+                reset(ch);
+                throw e;
+            } catch (ClosedChannelException e) {
+                reset(ch);
+                continue;
+            }
+            if (n < 0)
+                return done == 0 ? -1 : done;
+            done += n;
+        }
+        return done;
+    }
+
+    /** Writes all of buf at position, extending the file if needed. */
+    public void write(ByteBuffer buf, long position) throws IOException {
+        int done = 0;
+        while (buf.hasRemaining()) {
+            FileChannel ch = channel();
+            try {
+                done += ch.write(buf, position + done);
+            } catch (ClosedByInterruptException e) {
+                reset(ch);
+                throw e;
+            } catch (ClosedChannelException e) {
+                reset(ch);
+            }
+        }
+    }
+
+    /** Maps the first size bytes of the file read-only. */
+    public MappedByteBuffer map(long size) throws IOException {
+        while (true) {
+            FileChannel ch = channel();
+            try {
+                return ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } catch (ClosedByInterruptException e) {
+                reset(ch);
+                throw e;
+            } catch (ClosedChannelException e) {
+                reset(ch);
+            }
+        }
+    }
+
+    /** Closes the channel; it is reopened if the file is used again. */
+    public synchronized void close() throws IOException {
+        FileChannel ch = channel;
+        channel = null;
+        if (ch != null)
+            ch.close();
+    }
+}
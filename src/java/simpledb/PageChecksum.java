@@ -0,0 +1,82 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+/**
+ * The trailer at the end of every page on disk: the page's LSN (see
+ * Page#getLSN), then the CRC32C of all the bytes before the checksum, so
+ * that a page torn by a crash in the middle of a write, or otherwise
+ * corrupted, is noticed when it is read instead of being parsed into wrong
+ * tuples.  Pages set both in getPageData() and check the checksum and take
+ * their LSN back in their constructors, which lets recovery skip the log
+ * records a page on disk already reflects.
+ * <p>
+ * A page of all zeroes has no checksum and passes: it is an empty page
+ * that files append to grow and that has not been written since.  Its LSN
+ * is 0, as is that of pages written by the file encoders.
+ */
+final class PageChecksum {
+
+    /** Bytes at the end of a page reserved for its trailer, the LSN and the checksum. */
+    static final int SIZE = LogFile.LONG_SIZE + LogFile.INT_SIZE;
+
+    /** Bytes at the end of a page holding the checksum. */
+    private static final int CHECKSUM_SIZE = LogFile.INT_SIZE;
+
+    private PageChecksum() {
+    }
+
+    /** @return the CRC32C of the bytes of page before its checksum */
+    private static int compute(ByteBuffer page) {
+        CRC32C crc = new CRC32C();
+        ByteBuffer body = page.duplicate();
+        body.limit(body.limit() - CHECKSUM_SIZE);
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    /** Stores the checksum of page in its trailer, leaving the LSN there as it is. */
+    static void set(byte[] page) {
+        ByteBuffer buf = ByteBuffer.wrap(page);
+        buf.putInt(page.length - CHECKSUM_SIZE, compute(buf));
+    }
+
+    /** Stores lsn and then the checksum of page in its trailer. */
+    static void set(byte[] page, long lsn) {
+        ByteBuffer.wrap(page).putLong(page.length - SIZE, lsn);
+        set(page);
+    }
+
+    /** @return the LSN in the trailer of page, 0 if it has never been logged */
+    static long lsn(byte[] page) {
+        return ByteBuffer.wrap(page).getLong(page.length - SIZE);
+    }
+
+    /**
+     * Checks the checksum of the page in the remaining bytes of data.
+     *
+     * @throws IOException if it does not match
+     */
+    static void verify(PageId pid, ByteBuffer data) throws IOException {
+        if (data.remaining() < SIZE)
+            throw new IOException("page " + pid + " is too short to hold a checksum");
+        int stored = data.getInt(data.limit() - CHECKSUM_SIZE);
+        if (stored == compute(data) || isZero(data))
+            return;
+        throw new IOException("checksum mismatch in page " + pid + ": torn or corrupted write");
+    }
+
+    static void verify(PageId pid, byte[] data) throws IOException {
+        verify(pid, ByteBuffer.wrap(data));
+    }
+
+    private static boolean isZero(ByteBuffer data) {
+        for (int i = data.position(); i < data.limit(); i++) {
+            if (data.get(i) != 0)
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,170 @@
+package simpledb;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes dirty pages back to their files.
+ * <p>
+ * A batch of pages is written in table and page-number order, and every
+ * run of pages that are adjacent on disk goes out in one write when the
+ * file supports it ({@link PageRunWriter}), so committing or checkpointing
+ * many pages costs a few sequential writes instead of one seek per page.
+ * <p>
+ * Each buffer pool also has a cleaner of its own: a background thread
+ * (write-behind) that checks the pool every INTERVAL_MS, and whenever an
+ * eviction finds nothing clean to drop. If fewer than CLEAN_TARGET of the
+ * pool's frames are free or clean, it writes out the dirty pages nobody is
+ * changing, so evictions find clean victims instead of failing. Which
+ * pages those are is up to {@link BufferPool#writeBack}. After a
+ * checkpoint, the next pass writes out every such page whatever the
+ * target, so the log's dirty page table shrinks without the checkpoint
+ * writing anything itself. The thread ends when the cleaner is stopped or
+ * its pool is no longer used. A pass that fails is retried on the next
+ * one; the error is reported once, not on every retry.
+ */
+class PageCleaner {
+
+    /** Fraction of the pool the cleaner tries to keep free or clean. */
+    static final double CLEAN_TARGET = 0.25;
+    static final long INTERVAL_MS = 100;
+
+    private static final Comparator<Page> DISK_ORDER = new Comparator<Page>() {
+        public int compare(Page a, Page b) {
+            PageId x = a.getId(), y = b.getId();
+            if (x.getTableId() != y.getTableId())
+                return x.getTableId() < y.getTableId() ? -1 : 1;
+            return Integer.compare(x.getPageNumber(), y.getPageNumber());
+        }
+    };
+
+    private final WeakReference<BufferPool> pool;
+    private final Thread thread;
+    private volatile boolean fullPass;
+    private volatile boolean stopped;
+    /** the failure reported last, until a pass succeeds */
+    private String lastError;
+
+    PageCleaner(BufferPool pool) {
+        this.pool = new WeakReference<>(pool);
+        thread = new Thread("simpledb-page-cleaner") {
+            public void run() {
+                cleanUntilStopped();
+            }
+        };
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Writes pages to their files in disk order, coalescing adjacent pages.
+     * The pages are not marked clean.
+     */
+    static void write(List<Page> pages) throws IOException {
+        ArrayList<Page> sorted = new ArrayList<>(pages);
+        Collections.sort(sorted, DISK_ORDER);
+        int start = 0;
+        while (start < sorted.size()) {
+            PageId first = sorted.get(start).getId();
+            int end = start + 1;
+            while (end < sorted.size()) {
+                PageId next = sorted.get(end).getId();
+                if (next.getTableId() != first.getTableId()
+                        || next.getPageNumber() != first.getPageNumber() + (end - start))
+                    break;
+                end++;
+            }
+            DbFile file = Database.getCatalog().getDatabaseFile(first.getTableId());
+            List<Page> run = sorted.subList(start, end);
+            if (run.size() > 1 && file instanceof PageRunWriter) {
+                ((PageRunWriter) file).writePages(run);
+            } else {
+                for (Page page : run)
+                    file.writePage(page);
+            }
+            start = end;
+        }
+    }
+
+    /** Starts the background thread. */
+    void start() {
+        thread.start();
+    }
+
+    /** Stops the background thread, waiting for a pass under way to finish. */
+    void stop() {
+        stopped = true;
+        LockSupport.unpark(thread);
+        if (thread == Thread.currentThread())
+            return;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void cleanUntilStopped() {
+        while (!stopped) {
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(INTERVAL_MS));
+            if (stopped || !cleanOnce())
+                return;
+        }
+    }
+
+    /**
+     * One background pass. The pool is only referenced during the pass, so
+     * a pool nobody uses any more can be collected, ending the thread.
+     *
+     * @return false if the pool is gone
+     */
+    private boolean cleanOnce() {
+        BufferPool bp = pool.get();
+        if (bp == null)
+            return false;
+        try {
+            clean(bp);
+            lastError = null;
+        } catch (Exception e) {
+            // the next pass will try again
+            String error = e.toString();
+            if (!error.equals(lastError))
+                System.err.println("page cleaner: " + error + "; retrying");
+            lastError = error;
+        }
+        return true;
+    }
+
+    /** Asks the background thread for a pass now. */
+    void wakeUp() {
+        LockSupport.unpark(thread);
+    }
+
+    /** Asks the background thread to write back all it can on its next pass. */
+    void requestFullPass() {
+        fullPass = true;
+        wakeUp();
+    }
+
+    /**
+     * Writes back pool's dirty pages if fewer than CLEAN_TARGET of its
+     * frames are free or clean, or if a full pass was requested.
+     *
+     * @return the number of pages written
+     */
+    int clean(BufferPool pool) throws IOException {
+        List<Page> dirty = pool.dirtyPages();
+        if (fullPass) {
+            fullPass = false;
+            return pool.writeBack(dirty);
+        }
+        if (pool.maxPages - dirty.size() >= pool.maxPages * CLEAN_TARGET)
+            return 0;
+        return pool.writeBack(dirty);
+    }
+}
@@ -0,0 +1,164 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Turns the page images in log records back into pages.  Each page class
+ * that can be logged has a codec, registered under a one-byte tag that
+ * LogFile writes in front of the page's id and data instead of the class
+ * name.  Page ids are tagged the same way, by the kind of id.
+ * <p>
+ * The codecs for the heap, slotted and B+ tree pages are registered here; a new
+ * kind of page must register its own before its pages are logged.
+ *
+ * @see LogFile#writePageData
+ */
+abstract class PageCodec {
+
+    static final byte HEAP_PAGE = 1;
+    static final byte BTREE_LEAF_PAGE = 2;
+    static final byte BTREE_INTERNAL_PAGE = 3;
+    static final byte BTREE_HEADER_PAGE = 4;
+    static final byte BTREE_ROOT_PTR_PAGE = 5;
+    static final byte SLOTTED_PAGE = 6;
+    static final byte PAX_PAGE = 7;
+
+    static final byte HEAP_PAGE_ID = 1;
+    static final byte BTREE_PAGE_ID = 2;
+
+    private static final PageCodec[] byTag = new PageCodec[256];
+    private static final Map<Class<?>, PageCodec> byClass = new HashMap<Class<?>, PageCodec>();
+
+    final byte tag;
+    final Class<? extends Page> pageClass;
+
+    PageCodec(byte tag, Class<? extends Page> pageClass) {
+        this.tag = tag;
+        this.pageClass = pageClass;
+    }
+
+    /** @return the page with id pid whose image is data */
+    abstract Page decode(PageId pid, byte[] data) throws IOException;
+
+    /**
+     * Makes codec the one for its tag and page class.
+     *
+     * @throws IllegalArgumentException if another codec has the tag already
+     */
+    static synchronized void register(PageCodec codec) {
+        PageCodec old = byTag[codec.tag & 0xff];
+        if (old != null && old.pageClass != codec.pageClass)
+            throw new IllegalArgumentException("page tag " + codec.tag + " is taken by " + old.pageClass.getName());
+        byTag[codec.tag & 0xff] = codec;
+        byClass.put(codec.pageClass, codec);
+    }
+
+    /** @return the codec for pages of p's class */
+    static synchronized PageCodec forPage(Page p) throws IOException {
+        PageCodec codec = byClass.get(p.getClass());
+        if (codec == null)
+            throw new IOException("no page codec for " + p.getClass().getName());
+        return codec;
+    }
+
+    /** @return the codec registered under tag; an unknown tag means a torn record */
+    static synchronized PageCodec forTag(byte tag) throws IOException {
+        PageCodec codec = byTag[tag & 0xff];
+        if (codec == null)
+            throw new EOFException("unknown page tag " + tag);
+        return codec;
+    }
+
+    /** Write a page id: its tag, then its serialized ints. */
+    static void writeId(DataOutput dos, PageId pid) throws IOException {
+        if (pid instanceof HeapPageId)
+            dos.writeByte(HEAP_PAGE_ID);
+        else if (pid instanceof BTreePageId)
+            dos.writeByte(BTREE_PAGE_ID);
+        else
+            throw new IOException("no page id tag for " + pid.getClass().getName());
+        for (int i : pid.serialize())
+            dos.writeInt(i);
+    }
+
+    /** @return the number of ints that follow tag in a page id written by writeId */
+    static int idInts(byte tag) throws IOException {
+        switch (tag) {
+        case HEAP_PAGE_ID:
+            return 2;
+        case BTREE_PAGE_ID:
+            return 3;
+        default:
+            throw new EOFException("unknown page id tag " + tag);
+        }
+    }
+
+    /** @return the page id written by writeId as tag and ints */
+    static PageId idOf(byte tag, int[] ints) throws IOException {
+        switch (tag) {
+        case HEAP_PAGE_ID:
+            return new HeapPageId(ints[0], ints[1]);
+        case BTREE_PAGE_ID:
+            return new BTreePageId(ints[0], ints[1], ints[2]);
+        default:
+            throw new EOFException("unknown page id tag " + tag);
+        }
+    }
+
+    /** Read a page id written by writeId. */
+    static PageId readId(DataInput in) throws IOException {
+        byte tag = in.readByte();
+        int[] ints = new int[idInts(tag)];
+        for (int i = 0; i < ints.length; i++)
+            ints[i] = in.readInt();
+        return idOf(tag, ints);
+    }
+
+    /** Skip over a page id written by writeId. */
+    static void skipId(DataInput in) throws IOException {
+        in.skipBytes(idInts(in.readByte()) * LogFile.INT_SIZE);
+    }
+
+    private static int keyField(PageId pid) {
+        return ((BTreeFile) Database.getCatalog().getDatabaseFile(pid.getTableId())).keyField();
+    }
+
+    static {
+        register(new PageCodec(HEAP_PAGE, HeapPage.class) {
+            Page decode(PageId pid, byte[] data) throws IOException {
+                return new HeapPage((HeapPageId) pid, data);
+            }
+        });
+        register(new PageCodec(SLOTTED_PAGE, SlottedPage.class) {
+            Page decode(PageId pid, byte[] data) throws IOException {
+                return new SlottedPage((HeapPageId) pid, data);
+            }
+        });
+        register(new PageCodec(PAX_PAGE, PaxPage.class) {
+            Page decode(PageId pid, byte[] data) throws IOException {
+                return new PaxPage((HeapPageId) pid, data);
+            }
+        });
+        register(new PageCodec(BTREE_LEAF_PAGE, BTreeLeafPage.class) {
+            Page decode(PageId pid, byte[] data) throws IOException {
+                return new BTreeLeafPage((BTreePageId) pid, data, keyField(pid));
+            }
+        });
+        register(new PageCodec(BTREE_INTERNAL_PAGE, BTreeInternalPage.class) {
+            Page decode(PageId pid, byte[] data) throws IOException {
+                return new BTreeInternalPage((BTreePageId) pid, data, keyField(pid));
+            }
+        });
+        register(new PageCodec(BTREE_HEADER_PAGE, BTreeHeaderPage.class) {
+            Page decode(PageId pid, byte[] data) throws IOException {
+                return new BTreeHeaderPage((BTreePageId) pid, data);
+            }
+        });
+        register(new PageCodec(BTREE_ROOT_PTR_PAGE, BTreeRootPtrPage.class) {
+            Page decode(PageId pid, byte[] data) throws IOException {
+                return new BTreeRootPtrPage((BTreePageId) pid, data);
+            }
+        });
+    }
+}
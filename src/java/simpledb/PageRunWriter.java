@@ -0,0 +1,17 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A DbFile that can write a run of pages that are adjacent on disk with a
+ * single write.
+ *
+ * @see PageCleaner
+ */
+interface PageRunWriter {
+    /**
+     * Writes pages whose page numbers are consecutive, in ascending order.
+     */
+    void writePages(List<Page> run) throws IOException;
+}
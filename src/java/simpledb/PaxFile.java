@@ -0,0 +1,204 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * PaxFile is a DbFile that stores tuples in no particular order, like
+ * HeapFile, but on PaxPages, which keep each column of their tuples
+ * together.  A scan that reads only a few columns of a wide table decodes
+ * only those, see {@link #iterator(TransactionId, boolean[])}; the pages
+ * it reads are the same as for a full scan.
+ * <p>
+ * Pages are identified by HeapPageIds and read and written through one
+ * FileChannel that stays open until the file is closed.  PaxFileEncoder
+ * converts a text file into a PaxFile.
+ *
+ * @see PaxPage
+ * @see PaxFileEncoder
+ */
+public class PaxFile implements DbFile, Closeable, PageRunWriter, ColumnScanner {
+
+    private final File file;
+    private final TupleDesc td;
+    private final PageChannel channel;
+
+    /**
+     * Constructs a PAX file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            PAX file.
+     */
+    public PaxFile(File f, TupleDesc td) {
+        this.file = f;
+        this.td = td;
+        this.channel = new PageChannel(f);
+    }
+
+    /**
+     * Returns the File backing this PaxFile on disk.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        int pageSize = BufferPool.getPageSize();
+        long offset = (long) pid.getPageNumber() * pageSize;
+        if (offset + pageSize > file.length())
+            throw new IllegalArgumentException("page " + pid + " is not in " + file);
+        try {
+            byte[] bytes = new byte[pageSize];
+            channel.read(ByteBuffer.wrap(bytes), offset);
+            return new PaxPage(new HeapPageId(pid.getTableId(), pid.getPageNumber()), bytes);
+        } catch (IOException e) {
+            // including a page whose checksum does not match
+            throw new RuntimeException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        int pgNo = page.getId().getPageNumber();
+        if (pgNo > numPages())
+            throw new IllegalArgumentException("page " + page.getId() + " is past the end of " + file);
+        channel.write(ByteBuffer.wrap(page.getPageData()), (long) pgNo * BufferPool.getPageSize());
+    }
+
+    // see PageRunWriter for javadocs
+    public void writePages(List<Page> run) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        ByteBuffer buf = ByteBuffer.allocate(run.size() * pageSize);
+        for (Page page : run)
+            buf.put(page.getPageData());
+        buf.flip();
+        channel.write(buf, (long) run.get(0).getId().getPageNumber() * pageSize);
+    }
+
+    /**
+     * Closes the channel to the backing file. The file can still be used;
+     * it is reopened on the next read or write.
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Returns the number of pages in this PaxFile.
+     */
+    public int numPages() {
+        return (int) (file.length() / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException, InterruptedException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("tupledesc does not match the file");
+
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        for (int i = 0; i < numPages(); i++) {
+            HeapPageId pid = new HeapPageId(getId(), i);
+            boolean held = Database.getBufferPool().holdsLock(tid, pid);
+            PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            if (page.getNumEmptySlots() > 0) {
+                page.insertTuple(t);
+                dirtied.add(page);
+                return dirtied;
+            }
+            // keep the lock on a page tid had already, which it may have filled
+            if (!held)
+                Database.getBufferPool().releasePage(tid, pid);
+        }
+
+        // every page is full: append an empty one
+        channel.write(ByteBuffer.wrap(PaxPage.createEmptyPageData()),
+                (long) numPages() * BufferPool.getPageSize());
+        HeapPageId pid = new HeapPageId(getId(), numPages() - 1);
+        PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        page.insertTuple(t);
+        dirtied.add(page);
+        return dirtied;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException, InterruptedException {
+        PageId pid = t.getRecordId().getPageId();
+        if (pid.getTableId() != getId() || pid.getPageNumber() >= numPages())
+            throw new DbException("tuple is not in this file");
+        PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        dirtied.add(page);
+        return dirtied;
+    }
+
+    /**
+     * Returns an iterator over all the tuples stored in this file, reading
+     * pages through a BufferRing like a HeapFile scan.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over all the tuples stored in this file that
+     * decodes only the given columns of each, see PaxPage.iterator.
+     *
+     * @param columns which columns the caller reads, or null for all
+     */
+    public DbFileIterator iterator(final TransactionId tid, final boolean[] columns) {
+        return new AbstractDbFileIterator() {
+            private int pageNo = -1;
+            private Iterator<Tuple> tuples;
+            private BufferRing ring;
+
+            public void open() {
+                Database.getBufferPool().releaseRing(ring);
+                ring = Database.getBufferPool().bulkReadRing(numPages());
+                pageNo = 0;
+                tuples = null;
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException, IOException, InterruptedException {
+                if (pageNo < 0)
+                    return null;
+                while (tuples == null || !tuples.hasNext()) {
+                    if (pageNo >= numPages())
+                        return null;
+                    HeapPageId pid = new HeapPageId(getId(), pageNo++);
+                    tuples = ((PaxPage) Database.getBufferPool().getPage(tid, pid,
+                            Permissions.READ_ONLY, ring)).iterator(columns);
+                }
+                return tuples.next();
+            }
+
+            public void rewind() {
+                close();
+                open();
+            }
+
+            public void close() {
+                super.close();
+                pageNo = -1;
+                tuples = null;
+                Database.getBufferPool().releaseRing(ring);
+                ring = null;
+            }
+        };
+    }
+}
@@ -0,0 +1,98 @@
+package simpledb;
+
+import java.io.*;
+import java.util.ArrayList;
+
+/**
+ * PaxFileEncoder reads a comma delimited text file or accepts an array of
+ * tuples and converts it to pages of binary data in the format of PaxPage.
+ * It encodes the input as heap pages with HeapFileEncoder, which hold the
+ * same tuples in the same slots, and rearranges the fields of each page by
+ * column.
+ *
+ * @see PaxPage
+ * @see PaxFile
+ */
+public class PaxFileEncoder {
+
+    /**
+     * Convert the specified tuple list (with only integer fields) into a
+     * binary PAX file.
+     *
+     * @param tuples the tuples - a list of tuples, each represented by a list of integers that are
+     *        the field values for that tuple.
+     * @param outFile The output file to write data to
+     * @param npagebytes The number of bytes per page in the output file
+     * @param numFields the number of fields in each input tuple
+     * @throws IOException if the temporary/output file can't be opened
+     */
+    public static void convert(ArrayList<ArrayList<Integer>> tuples, File outFile,
+            int npagebytes, int numFields) throws IOException {
+        File heapFile = File.createTempFile("tempTable", ".dat");
+        heapFile.deleteOnExit();
+        HeapFileEncoder.convert(tuples, heapFile, npagebytes, numFields);
+        transpose(heapFile, outFile, npagebytes, Utility.getTypes(numFields));
+        heapFile.delete();
+    }
+
+    /**
+     * Convert the specified input text file into a binary PAX file.  The
+     * format of the input file is as for HeapFileEncoder.convert.
+     *
+     * @param inFile The input file to read data from
+     * @param outFile The output file to write data to
+     * @param npagebytes The number of bytes per page in the output file
+     * @param numFields the number of fields in each input line/output tuple
+     * @param typeAr the types of the fields
+     * @param fieldSeparator the character between the fields of a line
+     * @throws IOException if the input/output file can't be opened or a
+     *   malformed input line is encountered
+     */
+    public static void convert(File inFile, File outFile, int npagebytes,
+            int numFields, Type[] typeAr, char fieldSeparator) throws IOException {
+        File heapFile = File.createTempFile("tempTable", ".dat");
+        heapFile.deleteOnExit();
+        HeapFileEncoder.convert(inFile, heapFile, npagebytes, numFields, typeAr, fieldSeparator);
+        transpose(heapFile, outFile, npagebytes, typeAr);
+        heapFile.delete();
+    }
+
+    /**
+     * Rewrites each page of heapFile, a HeapFile of tuples of the given
+     * types, as a PaxPage in outFile.
+     */
+    static void transpose(File heapFile, File outFile, int npagebytes, Type[] typeAr)
+            throws IOException {
+        TupleDesc td = new TupleDesc(typeAr);
+        int recordSize = td.getSize();
+        int numSlots = PaxPage.numSlots(recordSize, npagebytes);
+        int headerSize = PaxPage.headerSize(numSlots);
+        int[] columnOffsets = PaxPage.columnOffsets(td, numSlots);
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(heapFile)));
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(outFile));
+        try {
+            byte[] heapPage = new byte[npagebytes];
+            long pages = heapFile.length() / npagebytes;
+            for (long p = 0; p < pages; p++) {
+                in.readFully(heapPage);
+                byte[] paxPage = new byte[npagebytes];
+                // same header; each field moves from its record to its column
+                System.arraycopy(heapPage, 0, paxPage, 0, headerSize);
+                for (int i = 0; i < numSlots; i++) {
+                    int fieldOffset = headerSize + i * recordSize;
+                    for (int j = 0; j < typeAr.length; j++) {
+                        int len = typeAr[j].getLen();
+                        System.arraycopy(heapPage, fieldOffset, paxPage, columnOffsets[j] + i * len, len);
+                        fieldOffset += len;
+                    }
+                }
+                PageChecksum.set(paxPage);
+                out.write(paxPage);
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A page of a PaxFile.  It holds as many tuples as a HeapPage of the same
+ * TupleDesc and has the same header of used slots, but instead of storing
+ * each tuple's fields together it groups them by column (the PAX layout):
+ * after the header comes one minipage per column, holding that column's
+ * value for every slot in slot order.  Column j's minipage starts at
+ * <p>
+ *          header size + no. tuple slots * (sum of the sizes of columns 0 to j-1)
+ * <p>
+ * and the checksum is in the last bytes of the page, as on every page.
+ * <p>
+ * A scan that needs only some columns reads only their minipages, see
+ * {@link #iterator(boolean[])}.  Like a HeapPage, the page keeps the bytes
+ * it was read from and decodes tuples only when they are asked for.
+ *
+ * @see PaxFile
+ * @see PaxFileEncoder
+ */
+public class PaxPage implements SlotLoggedPage {
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final byte header[];
+    final Tuple tuples[];   // decoded or inserted tuples, by slot
+    final int numSlots;
+    final byte[] data;      // the page as read, never changed
+    /** where each column's minipage starts in the page */
+    final int[] columnOffsets;
+    /** where each field starts in a tuple's record, as logged */
+    final int[] fieldOffsets;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+    private final BitSet changedSlots = new BitSet(); // since oldData, protected by oldDataLock
+
+    private boolean isDirty;
+    private TransactionId tid;
+    private volatile long lsn;
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk.
+     *
+     * @param data the bytes of the page, which the page keeps; they must
+     *        not be changed afterwards
+     * @throws IOException if the checksum does not match the data
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        PageChecksum.verify(id, data);
+        this.lsn = PageChecksum.lsn(data);
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.numSlots = numSlots(td.getSize(), data.length);
+        this.data = data;
+        this.header = Arrays.copyOf(data, headerSize(numSlots));
+        this.tuples = new Tuple[numSlots];
+        this.columnOffsets = columnOffsets(td, numSlots);
+        this.fieldOffsets = new int[td.numFields()];
+        for (int j = 1; j < fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j - 1] + td.getFieldType(j - 1).getLen();
+        // the page as read is its before image
+        synchronized(oldDataLock)
+        {
+            oldData = data;
+        }
+    }
+
+    /** @return the number of tuples a page of pageSize bytes holds, as for a HeapPage */
+    static int numSlots(int tupleSize, int pageSize) {
+        return ((pageSize - PageChecksum.SIZE) * 8) / (tupleSize * 8 + 1);
+    }
+
+    /** @return the number of bytes of the header of used slots */
+    static int headerSize(int numSlots) {
+        return (numSlots + 7) / 8;
+    }
+
+    /** @return where the minipage of each column of td starts on a page of numSlots slots */
+    static int[] columnOffsets(TupleDesc td, int numSlots) {
+        int[] offsets = new int[td.numFields()];
+        int offset = headerSize(numSlots);
+        for (int j = 0; j < offsets.length; j++) {
+            offsets[j] = offset;
+            offset += numSlots * td.getFieldType(j).getLen();
+        }
+        return offsets;
+    }
+
+    /** @return where the value of column j of slot i is in the page */
+    private int valueOffset(int i, int j) {
+        return columnOffsets[j] + i * td.getFieldType(j).getLen();
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the tuple in slot i, which must be used, decoding all of its
+     *         fields the first time it is asked for
+     */
+    private Tuple tuple(int i) {
+        Tuple t = tuples[i];
+        if (t == null) {
+            t = new Tuple(td);
+            t.setRecordId(new RecordId(pid, i));
+            for (int j = 0; j < td.numFields(); j++)
+                t.setField(j, td.getFieldType(j).parse(data, valueOffset(i, j)));
+            tuples[i] = t;
+        }
+        return t;
+    }
+
+    /** Writes f at offset in page. */
+    private static void writeField(Field f, byte[] page, int offset) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(f.getType().getLen());
+        try {
+            f.serialize(new DataOutputStream(baos));
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        System.arraycopy(baos.toByteArray(), 0, page, offset, f.getType().getLen());
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     *
+     * @see #PaxPage
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        // start from the page as read, where undecoded values already are
+        byte[] page = data.clone();
+        System.arraycopy(header, 0, page, 0, header.length);
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                for (int j = 0; j < td.numFields(); j++) {
+                    int offset = valueOffset(i, j);
+                    Arrays.fill(page, offset, offset + td.getFieldType(j).getLen(), (byte) 0);
+                }
+            } else if (tuples[i] != null) {
+                for (int j = 0; j < td.numFields(); j++)
+                    writeField(tuples[i].getField(j), page, valueOffset(i, j));
+            }
+        }
+        PageChecksum.set(page, lsn);
+        return page;
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * PaxPage.
+     *
+     * @return The returned ByteArray.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /**
+     * Delete the specified tuple from the page.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()) || rid.getTupleNumber() < 0
+                || rid.getTupleNumber() >= numSlots || !isSlotUsed(rid.getTupleNumber()))
+            throw new DbException("tuple not on this page");
+        markSlotUsed(rid.getTupleNumber(), false);
+        tuples[rid.getTupleNumber()] = null;
+    }
+
+    /**
+     * Adds the specified tuple to the page;  the tuple should be updated to reflect
+     *  that it is now stored on this page.
+     * @throws DbException if the page is full (no empty slots) or tupledesc
+     *         is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("tupledesc does not match the page");
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                markSlotUsed(i, true);
+                t.setRecordId(new RecordId(pid, i));
+                tuples[i] = t;
+                return;
+            }
+        }
+        throw new DbException("page " + pid + " is full");
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.isDirty = dirty;
+        this.tid = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return isDirty ? tid : null;
+    }
+
+    public long getLSN() {
+        return lsn;
+    }
+
+    public void setLSN(long lsn) {
+        this.lsn = lsn;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public PaxPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData;
+            }
+            return new PaxPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized(oldDataLock)
+        {
+            oldData = getPageData();
+            changedSlots.clear();
+        }
+    }
+
+    public int[] changedSlots() {
+        synchronized(oldDataLock)
+        {
+            return changedSlots.stream().toArray();
+        }
+    }
+
+    /** @return the fields of slot i of page gathered into one record, in column order */
+    private byte[] record(byte[] page, int i) {
+        byte[] record = new byte[td.getSize()];
+        for (int j = 0; j < td.numFields(); j++) {
+            System.arraycopy(page, valueOffset(i, j), record, fieldOffsets[j],
+                    td.getFieldType(j).getLen());
+        }
+        return record;
+    }
+
+    public byte[] slotData(int i) {
+        if (!isSlotUsed(i))
+            return null;
+        if (tuples[i] == null)
+            return record(data, i);
+        byte[] record = new byte[td.getSize()];
+        for (int j = 0; j < td.numFields(); j++)
+            writeField(tuples[i].getField(j), record, fieldOffsets[j]);
+        return record;
+    }
+
+    public byte[] beforeSlotData(int i) {
+        byte[] oldDataRef;
+        synchronized(oldDataLock)
+        {
+            oldDataRef = oldData;
+        }
+        if ((oldDataRef[i/8] & (1 << (i%8))) == 0)
+            return null;
+        return record(oldDataRef, i);
+    }
+
+    public void applySlot(int i, byte[] record) {
+        markSlotUsed(i, record != null);
+        tuples[i] = record == null ? null
+                : new Tuple(td, record, 0, fieldOffsets, pid, i);
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return (header[i/8] & (1 << (i%8))) != 0;
+    }
+
+    /**
+     * Returns the number of empty slots on this page.
+     */
+    public int getNumEmptySlots() {
+        int count = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Abstraction to fill or clear a slot on this page.
+     */
+    private void markSlotUsed(int i, boolean value) {
+        synchronized(oldDataLock)
+        {
+            changedSlots.set(i);
+        }
+        if (value)
+            header[i/8] |= 1 << (i%8);
+        else
+            header[i/8] &= ~(1 << (i%8));
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return iterator(null);
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page that decodes only
+     * the given columns: the tuples it returns have the page's TupleDesc,
+     * but their other fields are null.  Tuples inserted since the page was
+     * read are returned whole.
+     *
+     * @param columns which columns to decode, or null for all of them
+     */
+    public Iterator<Tuple> iterator(final boolean[] columns) {
+        return new Iterator<Tuple>() {
+            private int next = advance(0);
+
+            private int advance(int from) {
+                while (from < numSlots && !isSlotUsed(from))
+                    from++;
+                return from;
+            }
+
+            public boolean hasNext() {
+                return next < numSlots;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                int i = next;
+                next = advance(i + 1);
+                if (columns == null || tuples[i] != null)
+                    return tuple(i);
+                Tuple t = new Tuple(td);
+                t.setRecordId(new RecordId(pid, i));
+                for (int j = 0; j < columns.length; j++) {
+                    if (columns[j])
+                        t.setField(j, td.getFieldType(j).parse(data, valueOffset(i, j)));
+                }
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,19 @@
+package simpledb;
+
+import java.util.List;
+
+/**
+ * A DbFile that can skip the parts of itself that cannot hold tuples
+ * satisfying some predicates, for a scan whose tuples are filtered by
+ * them anyway.
+ *
+ * @see SeqScan#addPredicate
+ */
+interface PredicateScanner {
+    /**
+     * Returns an iterator over the tuples stored in this file that may
+     * satisfy all of predicates, whose fields are numbered as in the
+     * file's TupleDesc. It may also return tuples that do not.
+     */
+    DbFileIterator iterator(TransactionId tid, List<Predicate> predicates);
+}
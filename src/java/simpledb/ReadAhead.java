@@ -0,0 +1,142 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Sequential read-ahead for heap file scans.
+ * <p>
+ * The BufferPool reports every page a transaction asks for. Once a
+ * transaction has asked for a few consecutive pages of a table, the next
+ * pages up to the window size are loaded into the pool on a small pool of
+ * I/O threads, so a cold scan finds its pages already cached instead of
+ * waiting for one read at a time. Prefetching takes no locks: the pages
+ * are only cached, and the scan still locks each page when it gets to it.
+ * <p>
+ * Only heap pages are prefetched; B+ tree page numbers say nothing about
+ * the order a scan visits them in. Scans that read through a
+ * {@link BufferRing} are not reported at all, so they stay in their ring.
+ */
+class ReadAhead {
+
+    /** Consecutive pages a transaction must read before prefetching starts. */
+    static final int SEQUENTIAL_THRESHOLD = 2;
+    static final int IO_THREADS = 2;
+
+    /** Loads one page into the buffer pool unless it is already there. */
+    interface Loader {
+        void prefetch(PageId pid);
+    }
+
+    /** A transaction's position in one table. Guarded by itself. */
+    private static final class Stream {
+        int lastPage = -2;
+        int runLength;
+        /** pages below this one have already been handed to the I/O threads */
+        int prefetchedTo;
+    }
+
+    private static ExecutorService ioThreads;
+
+    private final Loader loader;
+    private volatile int window;
+    private final ConcurrentHashMap<TransactionId, ConcurrentHashMap<Integer, Stream>> streams =
+            new ConcurrentHashMap<>();
+
+    ReadAhead(Loader loader, int window) {
+        this.loader = loader;
+        this.window = window;
+    }
+
+    /** Sets how many pages past the current one are prefetched; 0 turns read-ahead off. */
+    void setWindow(int window) {
+        this.window = window;
+        if (window <= 0)
+            streams.clear();
+    }
+
+    int getWindow() {
+        return window;
+    }
+
+    private static synchronized ExecutorService ioThreads() {
+        if (ioThreads == null) {
+            ioThreads = Executors.newFixedThreadPool(IO_THREADS, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-read-ahead");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return ioThreads;
+    }
+
+    /** Called for every page tid asks the buffer pool for. */
+    void pageRequested(TransactionId tid, PageId pid) {
+        int window = this.window;
+        if (window <= 0 || tid == null || !(pid instanceof HeapPageId))
+            return;
+        ConcurrentHashMap<Integer, Stream> tables = streams.get(tid);
+        if (tables == null) {
+            ConcurrentHashMap<Integer, Stream> created = new ConcurrentHashMap<>();
+            tables = streams.putIfAbsent(tid, created);
+            if (tables == null)
+                tables = created;
+        }
+        int tableId = pid.getTableId();
+        Stream stream = tables.get(tableId);
+        if (stream == null) {
+            Stream created = new Stream();
+            stream = tables.putIfAbsent(tableId, created);
+            if (stream == null)
+                stream = created;
+        }
+
+        int pgNo = pid.getPageNumber();
+        int from, to;
+        synchronized (stream) {
+            if (pgNo == stream.lastPage)
+                return;
+            if (pgNo == stream.lastPage + 1) {
+                stream.runLength++;
+            } else {
+                stream.runLength = 1;
+                stream.prefetchedTo = pgNo + 1;
+            }
+            stream.lastPage = pgNo;
+            if (stream.runLength < SEQUENTIAL_THRESHOLD)
+                return;
+            from = Math.max(stream.prefetchedTo, pgNo + 1);
+            to = pgNo + 1 + window;
+            DbFile file;
+            try {
+                file = Database.getCatalog().getDatabaseFile(tableId);
+            } catch (NoSuchElementException e) {
+                return;
+            }
+            if (!(file instanceof HeapFile))
+                return;
+            to = Math.min(to, ((HeapFile) file).numPages());
+            if (from >= to)
+                return;
+            stream.prefetchedTo = to;
+        }
+        for (int i = from; i < to; i++) {
+            final PageId next = new HeapPageId(tableId, i);
+            ioThreads().execute(new Runnable() {
+                public void run() {
+                    loader.prefetch(next);
+                }
+            });
+        }
+    }
+
+    /** Forgets tid's scans. */
+    void transactionComplete(TransactionId tid) {
+        streams.remove(tid);
+    }
+}
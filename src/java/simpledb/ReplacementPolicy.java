@@ -0,0 +1,54 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which resident page the BufferPool gives up when
+ * it needs a free frame. The BufferPool reports every page that becomes
+ * resident, every hit and every page that leaves the pool; the policy keeps
+ * whatever bookkeeping it needs to name a victim.
+ * <p>
+ * Implementations are not thread safe; the BufferPool only calls them while
+ * holding the latch that protects its frame table.
+ *
+ * @see BufferPool
+ */
+public interface ReplacementPolicy {
+
+    /** Creates a fresh policy for a pool (or pool partition) of a given size. */
+    public interface Factory {
+        /**
+         * @param capacity the number of frames the policy will manage; only a
+         *   sizing hint, the pool may briefly hold a few more pages
+         */
+        public ReplacementPolicy create(int capacity);
+    }
+
+    /** Tells the policy which pages may currently be evicted. */
+    public interface VictimFilter {
+        /** @return true if the page can be dropped from the pool right now */
+        public boolean canEvict(PageId pid);
+    }
+
+    /** The page was read into the pool. */
+    public void pageAdded(PageId pid);
+
+    /** The page was requested while already resident. */
+    public void pageAccessed(PageId pid);
+
+    /** The page left the pool (evicted or discarded). */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * The page was written out and is clean again, so a filter that skips
+     * dirty pages may accept it now.
+     */
+    public void pageCleaned(PageId pid);
+
+    /**
+     * Pick a page to evict. The victim is not removed from the policy; the
+     * BufferPool calls {@link #pageRemoved} once it has dropped the page.
+     *
+     * @param filter pages rejected by the filter (e.g. dirty pages) are skipped
+     * @return the page to evict, or null if no resident page passes the filter
+     */
+    public PageId chooseVictim(VictimFilter filter);
+}
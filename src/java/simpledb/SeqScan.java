@@ -33,6 +33,8 @@ public class SeqScan implements OpIterator {
     private int tableId;
     private String tableAlias;
     private DbFileIterator dbfItr;  //因为要调用定义的函数，不能设置为 Iterator<Tuple>
+    private boolean[] columns;      //the columns the query reads, or null for all
+    private final List<Predicate> predicates = new ArrayList<Predicate>();  //filters above this scan
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
         // some code goes here
         this.scanTid=tid;
@@ -78,13 +80,42 @@ public class SeqScan implements OpIterator {
         this.tableAlias=tableAlias;
     }
 
+    /**
+     * Tells this scan which columns of the table the rest of the query
+     * reads.  A table stored by columns then decodes only those, and the
+     * other fields of the tuples this scan returns are null; other tables
+     * return whole tuples anyway.
+     *
+     * @param columns which columns are read, by field index, or null for
+     *        all of them
+     */
+    public void setColumns(boolean[] columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * Tells this scan that its tuples are filtered by p, whose field is
+     * numbered as in the table.  A table that can tell which of its pages
+     * cannot hold tuples satisfying p then skips them; the tuples this scan
+     * returns still have to be filtered.
+     */
+    public void addPredicate(Predicate p) {
+        predicates.add(p);
+    }
+
     public SeqScan(TransactionId tid, int tableId) {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
     public void open() throws DbException, TransactionAbortedException, IOException, InterruptedException {
         // some code goes here
-        dbfItr=Database.getCatalog().getDatabaseFile(tableId).iterator(scanTid);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (columns != null && file instanceof ColumnScanner)
+            dbfItr = ((ColumnScanner) file).iterator(scanTid, columns);
+        else if (!predicates.isEmpty() && file instanceof PredicateScanner)
+            dbfItr = ((PredicateScanner) file).iterator(scanTid, predicates);
+        else
+            dbfItr = file.iterator(scanTid);
         dbfItr.open();
     }
 
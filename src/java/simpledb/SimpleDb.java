@@ -4,8 +4,8 @@ import java.io.*;
 public class SimpleDb {
     public static void main (String args[])
             throws DbException, TransactionAbortedException, IOException, InterruptedException {
-        // convert a file
-        if(args[0].equals("convert")) {
+        // convert a file, to a heap file or with convertpax to a PAX file
+        if(args[0].equals("convert") || args[0].equals("convertpax")) {
         try {
             if (args.length<3 || args.length>5){
                 System.err.println("Unexpected number of arguments to convert ");
@@ -43,7 +43,11 @@ public class SimpleDb {
                     fieldSeparator=args[4].charAt(0);
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
+            if (args[0].equals("convertpax"))
+                PaxFileEncoder.convert(sourceTxtFile,targetDatFile,
+                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+            else
+                HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
                         BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
 
         } catch (IOException e) {
@@ -0,0 +1,32 @@
+package simpledb;
+
+/**
+ * A page whose changes can be logged slot by slot instead of as whole page
+ * images. The page keeps track of the slots changed since its before image
+ * was taken; LogFile logs each one as an insert, delete or update of the
+ * tuple bytes in that slot, and hands the bytes back to the page to redo or
+ * undo the change.
+ *
+ * @see LogFile#logChange
+ */
+interface SlotLoggedPage extends Page {
+
+    /**
+     * @return the slots changed since the before image was taken, or null if
+     *         the page changed in a way that slots cannot describe, so that
+     *         its whole image has to be logged
+     */
+    int[] changedSlots();
+
+    /** @return the bytes of the tuple in slot i, or null if it is empty */
+    byte[] slotData(int i);
+
+    /** @return the bytes of the tuple in slot i of the before image, or null if it was empty */
+    byte[] beforeSlotData(int i);
+
+    /**
+     * Put the tuple in data into slot i, or empty the slot if data is null.
+     * Used by recovery to redo and undo logged changes.
+     */
+    void applySlot(int i, byte[] data);
+}
@@ -0,0 +1,192 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * SlottedFile is a DbFile that stores tuples in no particular order, like
+ * HeapFile, but on SlottedPages, whose records are as long as their
+ * contents instead of the fixed size of the TupleDesc.  A table of short
+ * strings takes a fraction of the pages it would as a HeapFile.
+ * <p>
+ * Pages are identified by HeapPageIds and read and written through one
+ * FileChannel that stays open until the file is closed.
+ *
+ * @see SlottedPage
+ */
+public class SlottedFile implements DbFile, Closeable, PageRunWriter {
+
+    private final File file;
+    private final TupleDesc td;
+    private final PageChannel channel;
+
+    /**
+     * Constructs a slotted file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            slotted file.
+     */
+    public SlottedFile(File f, TupleDesc td) {
+        this.file = f;
+        this.td = td;
+        this.channel = new PageChannel(f);
+    }
+
+    /**
+     * Returns the File backing this SlottedFile on disk.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        int pageSize = BufferPool.getPageSize();
+        long offset = (long) pid.getPageNumber() * pageSize;
+        if (offset + pageSize > file.length())
+            throw new IllegalArgumentException("page " + pid + " is not in " + file);
+        try {
+            byte[] bytes = new byte[pageSize];
+            channel.read(ByteBuffer.wrap(bytes), offset);
+            return new SlottedPage(new HeapPageId(pid.getTableId(), pid.getPageNumber()), bytes);
+        } catch (IOException e) {
+            // including a page whose checksum does not match
+            throw new RuntimeException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        int pgNo = page.getId().getPageNumber();
+        if (pgNo > numPages())
+            throw new IllegalArgumentException("page " + page.getId() + " is past the end of " + file);
+        channel.write(ByteBuffer.wrap(page.getPageData()), (long) pgNo * BufferPool.getPageSize());
+    }
+
+    // see PageRunWriter for javadocs
+    public void writePages(List<Page> run) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        ByteBuffer buf = ByteBuffer.allocate(run.size() * pageSize);
+        for (Page page : run)
+            buf.put(page.getPageData());
+        buf.flip();
+        channel.write(buf, (long) run.get(0).getId().getPageNumber() * pageSize);
+    }
+
+    /**
+     * Closes the channel to the backing file. The file can still be used;
+     * it is reopened on the next read or write.
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Returns the number of pages in this SlottedFile.
+     */
+    public int numPages() {
+        return (int) (file.length() / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException, InterruptedException {
+        int pageSize = BufferPool.getPageSize();
+        if (SlottedPage.recordSize(t) + SlottedPage.HEADER_SIZE + SlottedPage.SLOT_SIZE
+                > pageSize - PageChecksum.SIZE)
+            throw new DbException("tuple is too large for a page");
+
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        for (int i = 0; i < numPages(); i++) {
+            HeapPageId pid = new HeapPageId(getId(), i);
+            boolean held = Database.getBufferPool().holdsLock(tid, pid);
+            SlottedPage page = (SlottedPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            if (page.hasRoomFor(t)) {
+                page.insertTuple(t);
+                dirtied.add(page);
+                return dirtied;
+            }
+            // keep the lock on a page tid had already, which it may have filled
+            if (!held)
+                Database.getBufferPool().releasePage(tid, pid);
+        }
+
+        // every page is full: append an empty one
+        channel.write(ByteBuffer.wrap(SlottedPage.createEmptyPageData()), (long) numPages() * pageSize);
+        HeapPageId pid = new HeapPageId(getId(), numPages() - 1);
+        SlottedPage page = (SlottedPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        page.insertTuple(t);
+        dirtied.add(page);
+        return dirtied;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException, InterruptedException {
+        PageId pid = t.getRecordId().getPageId();
+        if (pid.getTableId() != getId() || pid.getPageNumber() >= numPages())
+            throw new DbException("tuple is not in this file");
+        SlottedPage page = (SlottedPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        dirtied.add(page);
+        return dirtied;
+    }
+
+    /**
+     * Returns an iterator over all the tuples stored in this file, reading
+     * pages through a BufferRing like a HeapFile scan.
+     */
+    public DbFileIterator iterator(final TransactionId tid) {
+        return new AbstractDbFileIterator() {
+            private int pageNo = -1;
+            private Iterator<Tuple> tuples;
+            private BufferRing ring;
+
+            public void open() {
+                Database.getBufferPool().releaseRing(ring);
+                ring = Database.getBufferPool().bulkReadRing(numPages());
+                pageNo = 0;
+                tuples = null;
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException, IOException, InterruptedException {
+                if (pageNo < 0)
+                    return null;
+                while (tuples == null || !tuples.hasNext()) {
+                    if (pageNo >= numPages())
+                        return null;
+                    HeapPageId pid = new HeapPageId(getId(), pageNo++);
+                    tuples = ((SlottedPage) Database.getBufferPool().getPage(tid, pid,
+                            Permissions.READ_ONLY, ring)).iterator();
+                }
+                return tuples.next();
+            }
+
+            public void rewind() {
+                close();
+                open();
+            }
+
+            public void close() {
+                super.close();
+                pageNo = -1;
+                tuples = null;
+                Database.getBufferPool().releaseRing(ring);
+                ring = null;
+            }
+        };
+    }
+}
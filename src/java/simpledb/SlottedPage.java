@@ -0,0 +1,486 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * A page of a SlottedFile: variable-length records found through a slot
+ * directory, so that strings take the bytes they need instead of being
+ * padded to Type.STRING_LEN as they are on a HeapPage.
+ * <p>
+ * The page starts with the number of slots and the offset where the record
+ * area begins, followed by the slot directory: for each slot, the offset and
+ * length of its record, or an offset of 0 if the slot is empty.  Records are
+ * placed from the end of the page (just before the checksum, see
+ * PageChecksum) towards the directory, and the free space is the gap
+ * between them.  All of these are unsigned shorts, which limits pages to 64KB.
+ * <p>
+ * A record holds the tuple's fields in order as Field.serialize writes them,
+ * except that a string is not padded: it is its length followed by its
+ * bytes.  Deleting a record leaves a hole in the record area; holes are
+ * reclaimed by {@link #compact}, which an insert calls when the gap alone is
+ * too small.  Compaction moves records within the page but never changes
+ * their slots, so RecordIds stay valid.
+ * <p>
+ * A page of all zeroes is an empty page.
+ *
+ * @see SlottedFile
+ */
+public class SlottedPage implements SlotLoggedPage {
+
+    /** Bytes before the slot directory: the slot count and the start of the record area. */
+    static final int HEADER_SIZE = 4;
+    /** Bytes of a slot directory entry: the offset and the length of its record. */
+    static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    /** the page as stored on disk, changed in place */
+    private final byte[] data;
+    private final ByteBuffer buf;
+    /** decoded tuples by slot, filled in as they are first needed */
+    private Tuple[] tuples;
+    /** bytes in the record area that belong to no record */
+    private int holes;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+    private final BitSet changedSlots = new BitSet(); // since oldData, protected by oldDataLock
+
+    private boolean isDirty;
+    private TransactionId tid;
+    private volatile long lsn;
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk.
+     *
+     * @throws IOException if the checksum does not match the data, or the
+     *         slot directory does not fit the page
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        PageChecksum.verify(id, data);
+        this.lsn = PageChecksum.lsn(data);
+        if (data.length - PageChecksum.SIZE > 0xffff)
+            throw new IOException("slotted pages hold at most 64KB");
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.data = data.clone();
+        this.buf = ByteBuffer.wrap(this.data);
+        if (getShort(2) == 0)
+            putShort(2, recordAreaEnd());
+        if (directoryEnd() > freeStart())
+            throw new IOException("slot directory of page " + id + " runs into its records");
+        this.tuples = new Tuple[getNumSlots()];
+        this.holes = recordAreaEnd() - freeStart();
+        for (int i = 0; i < getNumSlots(); i++)
+            holes -= length(i);
+        setBeforeImage();
+    }
+
+    /** @return the number of entries in the slot directory, used or not */
+    public int getNumSlots() {
+        return getShort(0);
+    }
+
+    private int getShort(int pos) {
+        return buf.getShort(pos) & 0xffff;
+    }
+
+    private void putShort(int pos, int value) {
+        buf.putShort(pos, (short) value);
+    }
+
+    private int offset(int slot) {
+        return getShort(HEADER_SIZE + slot * SLOT_SIZE);
+    }
+
+    private int length(int slot) {
+        return getShort(HEADER_SIZE + slot * SLOT_SIZE + 2);
+    }
+
+    private void setSlot(int slot, int offset, int length) {
+        putShort(HEADER_SIZE + slot * SLOT_SIZE, offset);
+        putShort(HEADER_SIZE + slot * SLOT_SIZE + 2, length);
+    }
+
+    private int directoryEnd() {
+        return HEADER_SIZE + getNumSlots() * SLOT_SIZE;
+    }
+
+    private int freeStart() {
+        return getShort(2);
+    }
+
+    private int recordAreaEnd() {
+        return data.length - PageChecksum.SIZE;
+    }
+
+    /** @return the number of bytes free for records and slot entries, counting holes */
+    public int getFreeSpace() {
+        return freeStart() - directoryEnd() + holes;
+    }
+
+    /** @return the number of records on this page */
+    public int getNumTuples() {
+        int count = 0;
+        for (int i = 0; i < getNumSlots(); i++) {
+            if (isSlotUsed(i))
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i < getNumSlots() && offset(i) != 0;
+    }
+
+    /** @return the slot an insert would use: the first empty one, or a new one */
+    private int freeSlot() {
+        for (int i = 0; i < getNumSlots(); i++) {
+            if (offset(i) == 0)
+                return i;
+        }
+        return getNumSlots();
+    }
+
+    /** @return the bytes a record takes on a page and in its slot entry, if it needs a new one */
+    private int spaceFor(int slot, int length) {
+        return length + Math.max(0, slot + 1 - getNumSlots()) * SLOT_SIZE;
+    }
+
+    /** @return true if t fits on this page, possibly after compacting it */
+    public boolean hasRoomFor(Tuple t) {
+        return spaceFor(freeSlot(), recordSize(t)) <= getFreeSpace();
+    }
+
+    /**
+     * Moves every record to the end of the record area, in place, so that
+     * the holes left by deleted records join the free space, and drops the
+     * empty slots at the end of the directory.  Records keep their slots.
+     */
+    public void compact() {
+        int n = getNumSlots();
+        while (n > 0 && offset(n - 1) == 0)
+            n--;
+        // records in order of their offsets, as offset << 16 | slot
+        long[] order = new long[n];
+        int live = 0;
+        for (int i = 0; i < n; i++) {
+            if (offset(i) != 0)
+                order[live++] = ((long) offset(i) << 16) | i;
+        }
+        Arrays.sort(order, 0, live);
+        // slide the records up from the one nearest the end, so that none
+        // is overwritten before it has moved
+        int end = recordAreaEnd();
+        for (int k = live - 1; k >= 0; k--) {
+            int slot = (int) (order[k] & 0xffff);
+            int len = length(slot);
+            end -= len;
+            System.arraycopy(data, offset(slot), data, end, len);
+            setSlot(slot, end, len);
+        }
+        putShort(0, n);
+        putShort(2, end);
+        Arrays.fill(data, directoryEnd(), end, (byte) 0);
+        holes = 0;
+        if (tuples.length > n)
+            tuples = Arrays.copyOf(tuples, n);
+    }
+
+    /**
+     * Put record into slot, which must be empty, compacting the page first
+     * if the free space between the directory and the records is too small.
+     *
+     * @return false if the record does not fit even after compacting
+     */
+    private boolean put(int slot, byte[] record) {
+        int need = spaceFor(slot, record.length);
+        if (need > getFreeSpace())
+            return false;
+        if (need > freeStart() - directoryEnd())
+            compact();
+        if (slot >= getNumSlots()) {
+            for (int i = getNumSlots(); i <= slot; i++)
+                setSlot(i, 0, 0);
+            putShort(0, slot + 1);
+            tuples = Arrays.copyOf(tuples, slot + 1);
+        }
+        int offset = freeStart() - record.length;
+        System.arraycopy(record, 0, data, offset, record.length);
+        putShort(2, offset);
+        setSlot(slot, offset, record.length);
+        return true;
+    }
+
+    /** Empty slot, leaving its record as a hole. */
+    private void remove(int slot) {
+        if (offset(slot) == freeStart()) {
+            // the record next to the free space: give its bytes straight back
+            putShort(2, freeStart() + length(slot));
+        } else {
+            holes += length(slot);
+        }
+        setSlot(slot, 0, 0);
+        tuples[slot] = null;
+    }
+
+    private void markChanged(int slot) {
+        synchronized(oldDataLock)
+        {
+            changedSlots.set(slot);
+        }
+    }
+
+    /**
+     * Adds the specified tuple to the page;  the tuple should be updated to reflect
+     *  that it is now stored on this page.
+     * @throws DbException if the page has no room for the tuple or tupledesc
+     *         is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("tupledesc does not match the page");
+        int slot = freeSlot();
+        if (!put(slot, encode(t))) {
+            throw new DbException("page " + pid + " has no room for a record of "
+                    + recordSize(t) + " bytes");
+        }
+        t.setRecordId(new RecordId(pid, slot));
+        tuples[slot] = t;
+        markChanged(slot);
+    }
+
+    /**
+     * Delete the specified tuple from the page.  Its bytes become a hole
+     * that the next compaction reclaims.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()) || !isSlotUsed(rid.getTupleNumber()))
+            throw new DbException("tuple not on this page");
+        remove(rid.getTupleNumber());
+        markChanged(rid.getTupleNumber());
+    }
+
+    /** @return the number of bytes t takes as a record */
+    static int recordSize(Tuple t) {
+        int size = 0;
+        for (int j = 0; j < t.getTupleDesc().numFields(); j++) {
+            Field f = t.getField(j);
+            size += f.getType() == Type.STRING_TYPE
+                    ? 4 + Math.min(((StringField) f).getValue().length(), Type.STRING_LEN)
+                    : f.getType().getLen();
+        }
+        return size;
+    }
+
+    /** @return the record for t */
+    static byte[] encode(Tuple t) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(recordSize(t));
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0; j < t.getTupleDesc().numFields(); j++) {
+                Field f = t.getField(j);
+                if (f.getType() == Type.STRING_TYPE) {
+                    // a StringField as long as its maximum size has no padding
+                    String s = ((StringField) f).getValue();
+                    f = new StringField(s, Math.min(s.length(), Type.STRING_LEN));
+                }
+                f.serialize(dos);
+            }
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    /** @return the tuple in the record of length bytes at offset in record */
+    private Tuple decode(byte[] record, int offset, int length, int slot) {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(record, offset, length));
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slot));
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                if (td.getFieldType(j) == Type.STRING_TYPE) {
+                    byte[] bs = new byte[dis.readInt()];
+                    dis.readFully(bs);
+                    t.setField(j, new StringField(new String(bs), Type.STRING_LEN));
+                } else {
+                    t.setField(j, td.getFieldType(j).parse(dis));
+                }
+            }
+        } catch (IOException | java.text.ParseException e) {
+            throw new NoSuchElementException("bad record in slot " + slot + " of page " + pid);
+        }
+        return t;
+    }
+
+    /** @return the tuple in slot i, which must be used */
+    private Tuple tuple(int i) {
+        if (tuples[i] == null)
+            tuples[i] = decode(data, offset(i), length(i), i);
+        return tuples[i];
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     *
+     * @see #SlottedPage
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        byte[] page = data.clone();
+        PageChecksum.set(page, lsn);
+        return page;
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedPage.
+     *
+     * @return The returned ByteArray.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData;
+            }
+            return new SlottedPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized(oldDataLock)
+        {
+            oldData = getPageData();
+            changedSlots.clear();
+        }
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.isDirty = dirty;
+        this.tid = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return isDirty ? tid : null;
+    }
+
+    public long getLSN() {
+        return lsn;
+    }
+
+    public void setLSN(long lsn) {
+        this.lsn = lsn;
+    }
+
+    public int[] changedSlots() {
+        synchronized(oldDataLock)
+        {
+            return changedSlots.stream().toArray();
+        }
+    }
+
+    public byte[] slotData(int i) {
+        if (!isSlotUsed(i))
+            return null;
+        return Arrays.copyOfRange(data, offset(i), offset(i) + length(i));
+    }
+
+    public byte[] beforeSlotData(int i) {
+        byte[] oldDataRef;
+        synchronized(oldDataLock)
+        {
+            oldDataRef = oldData;
+        }
+        ByteBuffer old = ByteBuffer.wrap(oldDataRef);
+        if (i >= (old.getShort(0) & 0xffff))
+            return null;
+        int offset = old.getShort(HEADER_SIZE + i * SLOT_SIZE) & 0xffff;
+        if (offset == 0)
+            return null;
+        int length = old.getShort(HEADER_SIZE + i * SLOT_SIZE + 2) & 0xffff;
+        return Arrays.copyOfRange(oldDataRef, offset, offset + length);
+    }
+
+    /**
+     * @throws IllegalStateException if the record does not fit, which
+     *         cannot happen while changes are applied in log order
+     */
+    public void applySlot(int i, byte[] record) {
+        if (isSlotUsed(i))
+            remove(i);
+        if (record != null && !put(i, record))
+            throw new IllegalStateException("no room for slot " + i + " on page " + pid);
+        markChanged(i);
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int next = advance(0);
+
+            private int advance(int from) {
+                while (from < getNumSlots() && !isSlotUsed(from))
+                    from++;
+                return from;
+            }
+
+            public boolean hasNext() {
+                return next < getNumSlots();
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = tuple(next);
+                next = advance(next + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
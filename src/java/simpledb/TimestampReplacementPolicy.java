@@ -0,0 +1,57 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The original BufferPool policy: every page is stamped with a counter when it
+ * is read in, and eviction scans all resident pages for the oldest one that
+ * the filter accepts. Victim selection is O(pool size); kept as a baseline for
+ * comparison with {@link ClockReplacementPolicy} and
+ * {@link LruKReplacementPolicy}.
+ */
+public class TimestampReplacementPolicy implements ReplacementPolicy {
+
+    public static final ReplacementPolicy.Factory FACTORY = new ReplacementPolicy.Factory() {
+        public ReplacementPolicy create(int capacity) {
+            return new TimestampReplacementPolicy(capacity);
+        }
+    };
+
+    private final HashMap<PageId, Long> idToTime;
+    private long retrieveTime;
+
+    public TimestampReplacementPolicy(int capacity) {
+        idToTime = new HashMap<>(capacity * 2);
+        retrieveTime = 0;
+    }
+
+    public void pageAdded(PageId pid) {
+        if (!idToTime.containsKey(pid))
+            idToTime.put(pid, retrieveTime++);
+    }
+
+    public void pageAccessed(PageId pid) {
+        // stamps are only taken when a page is read in
+    }
+
+    public void pageRemoved(PageId pid) {
+        idToTime.remove(pid);
+    }
+
+    public void pageCleaned(PageId pid) {
+        // dirty pages are not set aside, so there is nothing to bring back
+    }
+
+    public PageId chooseVictim(VictimFilter filter) {
+        PageId victim = null;
+        long minTime = Long.MAX_VALUE;
+        for (Map.Entry<PageId, Long> e : idToTime.entrySet()) {
+            if (e.getValue() < minTime && filter.canEvict(e.getKey())) {
+                victim = e.getKey();
+                minTime = e.getValue();
+            }
+        }
+        return victim;
+    }
+}
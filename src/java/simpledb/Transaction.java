@@ -47,8 +47,9 @@ public class Transaction {
             if (abort) {
                 Database.getLogFile().logAbort(tid); //does rollback too
             } else {
-                //write all the dirty pages for this transaction out
-                Database.getBufferPool().flushPages(tid);
+                //log the dirty pages for this transaction; forcing the
+                //commit record is enough, the pages are written later
+                Database.getBufferPool().logDirtyPages(tid);
                 Database.getLogFile().logCommit(tid);
             }
 
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.*;
 
@@ -7,6 +9,11 @@ import java.util.*;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * A tuple read from a page can be a view of the page's bytes instead (see
+ * {@link #Tuple(TupleDesc, byte[], int, int[], PageId, int)}): each field is
+ * decoded the first time getField asks for it, and the RecordId is made the
+ * first time getRecordId does, so a scan pays only for what it looks at.
  */
 public class Tuple implements Serializable {
 
@@ -31,6 +38,47 @@ public class Tuple implements Serializable {
         fields=new Field[td.numFields()];
     }
 
+    // the record this tuple is a view of, or null once all of it is decoded
+    private transient byte[] source;
+    private transient int offset;
+    private transient int[] fieldOffsets;
+    // where the record is, until getRecordId makes the RecordId
+    private transient PageId sourcePid;
+    private transient int sourceSlot;
+
+    /**
+     * Create a tuple that is a view of a record in a page image.
+     *
+     * @param td
+     *            the schema of the record
+     * @param data
+     *            the page image; it must not change while the tuple exists
+     * @param offset
+     *            where the record starts in data
+     * @param fieldOffsets
+     *            where each field starts, relative to the record
+     * @param pid
+     *            the page the record is on
+     * @param slot
+     *            the slot the record is in
+     */
+    Tuple(TupleDesc td, byte[] data, int offset, int[] fieldOffsets, PageId pid, int slot) {
+        this(td);
+        this.source = data;
+        this.offset = offset;
+        this.fieldOffsets = fieldOffsets;
+        this.sourcePid = pid;
+        this.sourceSlot = slot;
+    }
+
+    /**
+     * @return true if this tuple is still a view of the record at offset in
+     *         data, so that those bytes are its serialized form
+     */
+    boolean isViewOf(byte[] data, int offset) {
+        return source == data && this.offset == offset;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -47,7 +95,8 @@ public class Tuple implements Serializable {
 
     public RecordId getRecordId() {
         // some code goes here
-
+        if(recordId==null&&sourcePid!=null)
+            recordId=new RecordId(sourcePid,sourceSlot);
         return recordId;
     }//
 
@@ -59,6 +108,7 @@ public class Tuple implements Serializable {
      */
     public void setRecordId(RecordId rid) {
         recordId=rid;
+        sourcePid=null;
     }
 
     /**
@@ -77,6 +127,11 @@ public class Tuple implements Serializable {
 
         }
         //Field[] tmpField=(Field[]) fields.toArray();
+        if(source!=null)
+        {
+            // no longer the record it was read from
+            decodeAll();
+        }
         fields[i]=f;
         //fields.set(i,f);
     }
@@ -91,10 +146,26 @@ public class Tuple implements Serializable {
         // some code goes here
         if(i<0||i>=tupleDesc.numFields())
             throw new IllegalArgumentException("Field索引非法");
-        if(fields[i]==null)
-            return null;
-        else
-            return fields[i];
+        Field f=fields[i];
+        if(f==null&&source!=null)
+        {
+            f=tupleDesc.getFieldType(i).parse(source,offset+fieldOffsets[i]);
+            fields[i]=f;
+        }
+        return f;
+    }
+
+    private void decodeAll() {
+        for(int i=0;i<fields.length;i++)
+            getField(i);
+        source=null;
+        fieldOffsets=null;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        decodeAll();
+        getRecordId();
+        out.defaultWriteObject();
     }
 
     /**
@@ -111,9 +182,9 @@ public class Tuple implements Serializable {
         StringBuilder tmpstr=new StringBuilder();
         for(int j=0;j<tupleDesc.numFields()-1;++j)
         {
-            tmpstr.append(fields[j].toString()+'\t');
+            tmpstr.append(getField(j).toString()+'\t');
         }
-        tmpstr.append(fields[tupleDesc.numFields()-1].toString()+'\n');
+        tmpstr.append(getField(tupleDesc.numFields()-1).toString()+'\n');
         return tmpstr.toString();
     }
 
@@ -140,7 +211,7 @@ public class Tuple implements Serializable {
             if (!hasNext()) {
                 throw new NoSuchElementException();//？
             }
-            return fields[nump++];
+            return getField(nump++);
         }
     }
     /**
@@ -24,6 +24,11 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(byte[] data, int offset) {
+            return new IntField(readInt(data, offset));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,6 +47,12 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(byte[] data, int offset) {
+            int strLen = Math.min(readInt(data, offset), STRING_LEN);
+            return new StringField(new String(data, offset + 4, strLen), STRING_LEN);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +71,16 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object whose contents
+   *   are the getLen() bytes at offset in data, as written by Field.serialize.
+   *   Unlike parse(DataInputStream), nothing is copied out of data first.
+   */
+    public abstract Field parse(byte[] data, int offset);
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
 }
@@ -0,0 +1,212 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * The smallest and largest value of each INT column on each page of a
+ * HeapFile, which lets a scan skip the pages where a predicate on such a
+ * column cannot hold without reading them.
+ * <p>
+ * A page's range is worked out from its bytes the first time the page is
+ * read from disk, widened before a tuple is inserted into it, and widened
+ * again to cover whatever is on a page when it is written out. It is never
+ * narrowed, so a range always covers every value the page has held since
+ * then, on disk or in the buffer pool, including values an aborted
+ * transaction put back: deleting tuples leaves the range looser than it
+ * could be but still correct. A page whose range is not known yet is never
+ * skipped.
+ * <p>
+ * The ranges can be saved to a small sidecar file when the table is closed
+ * (see {@link HeapFile#keepZoneMap}). The file records the length and
+ * modification time the table's data file had then, and is ignored if the
+ * data file has changed since, e.g. by recovery after a crash.
+ */
+class ZoneMap {
+
+    private final TupleDesc td;
+    /** min of field j at 2 * j and max at 2 * j + 1, by page; null if not known */
+    private final ArrayList<int[]> ranges = new ArrayList<int[]>();
+
+    ZoneMap(TupleDesc td) {
+        this.td = td;
+    }
+
+    /** @return an empty range, which every value widens */
+    private int[] emptyRange() {
+        int[] range = new int[2 * td.numFields()];
+        for (int j = 0; j < td.numFields(); j++) {
+            range[2 * j] = Integer.MAX_VALUE;
+            range[2 * j + 1] = Integer.MIN_VALUE;
+        }
+        return range;
+    }
+
+    private int[] range(int pgNo) {
+        return pgNo < ranges.size() ? ranges.get(pgNo) : null;
+    }
+
+    private void setRange(int pgNo, int[] range) {
+        while (ranges.size() <= pgNo)
+            ranges.add(null);
+        ranges.set(pgNo, range);
+    }
+
+    private static void widen(int[] range, int j, int value) {
+        if (value < range[2 * j])
+            range[2 * j] = value;
+        if (value > range[2 * j + 1])
+            range[2 * j + 1] = value;
+    }
+
+    /**
+     * Widens the range of page pgNo, if it is known, to cover t, which is
+     * about to be inserted into it.
+     */
+    synchronized void include(int pgNo, Tuple t) {
+        int[] range = range(pgNo);
+        if (range == null)
+            return;
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE)
+                widen(range, j, ((IntField) t.getField(j)).getValue());
+        }
+    }
+
+    /**
+     * Widens the range of page pgNo to cover the tuples of page, the bytes
+     * of a HeapPage as they are on disk; if the range is not known, it
+     * becomes the range of those tuples.
+     *
+     * @param onlyIfUnknown whether to leave a range that is known alone,
+     *        as when page is what was read from disk and so is covered
+     */
+    synchronized void include(int pgNo, ByteBuffer page, boolean onlyIfUnknown) {
+        int[] range = range(pgNo);
+        if (range != null && onlyIfUnknown)
+            return;
+        if (range == null) {
+            range = emptyRange();
+            setRange(pgNo, range);
+        }
+        int recordSize = td.getSize();
+        int numSlots = ((page.capacity() - PageChecksum.SIZE) * 8) / (recordSize * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+        for (int i = 0; i < numSlots; i++) {
+            if ((page.get(i / 8) & (1 << (i % 8))) == 0)
+                continue;
+            int offset = headerSize + i * recordSize;
+            for (int j = 0; j < td.numFields(); j++) {
+                if (td.getFieldType(j) == Type.INT_TYPE)
+                    widen(range, j, page.getInt(offset));
+                offset += td.getFieldType(j).getLen();
+            }
+        }
+    }
+
+    /**
+     * @return whether page pgNo may hold a tuple that satisfies every one
+     *         of predicates; predicates on fields other than INTs, or with
+     *         LIKE, rule nothing out
+     */
+    synchronized boolean mayMatch(int pgNo, List<Predicate> predicates) {
+        int[] range = range(pgNo);
+        if (range == null)
+            return true;
+        for (Predicate p : predicates) {
+            int j = p.getField();
+            if (td.getFieldType(j) != Type.INT_TYPE || !(p.getOperand() instanceof IntField))
+                continue;
+            int min = range[2 * j], max = range[2 * j + 1];
+            if (min > max)
+                return false;   // no tuples
+            int v = ((IntField) p.getOperand()).getValue();
+            switch (p.getOp()) {
+            case EQUALS:
+                if (v < min || v > max)
+                    return false;
+                break;
+            case NOT_EQUALS:
+                if (min == v && max == v)
+                    return false;
+                break;
+            case GREATER_THAN:
+                if (max <= v)
+                    return false;
+                break;
+            case GREATER_THAN_OR_EQ:
+                if (max < v)
+                    return false;
+                break;
+            case LESS_THAN:
+                if (min >= v)
+                    return false;
+                break;
+            case LESS_THAN_OR_EQ:
+                if (min > v)
+                    return false;
+                break;
+            default:
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the ranges saved in sidecar, if it was saved for dataFile as
+     * it is now; otherwise no range is known.
+     */
+    synchronized void load(File sidecar, File dataFile) throws IOException {
+        ranges.clear();
+        if (!sidecar.exists())
+            return;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)));
+        try {
+            if (in.readLong() != dataFile.length() || in.readLong() != dataFile.lastModified()
+                    || in.readInt() != td.numFields())
+                return;
+            int pages = in.readInt();
+            for (int p = 0; p < pages; p++) {
+                if (!in.readBoolean()) {
+                    ranges.add(null);
+                    continue;
+                }
+                int[] range = new int[2 * td.numFields()];
+                for (int k = 0; k < range.length; k++)
+                    range[k] = in.readInt();
+                ranges.add(range);
+            }
+        } catch (EOFException e) {
+            // truncated; use none of it
+            ranges.clear();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Saves the ranges to sidecar, recording dataFile's length and
+     * modification time; the data file must not change until the table is
+     * used again.
+     */
+    synchronized void save(File sidecar, File dataFile) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sidecar)));
+        try {
+            out.writeLong(dataFile.length());
+            out.writeLong(dataFile.lastModified());
+            out.writeInt(td.numFields());
+            out.writeInt(ranges.size());
+            for (int[] range : ranges) {
+                out.writeBoolean(range != null);
+                if (range != null) {
+                    for (int v : range)
+                        out.writeInt(v);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -166,12 +166,42 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeInternalPage.reverseIterator() on a page whose
+	 * entries no longer sit in consecutive slots
+	 */
+	@Test public void reverseIteratorWithEmptySlots() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+		Iterator<BTreeEntry> it = page.iterator();
+		int i = 0;
+		while (it.hasNext()) {
+			BTreeEntry e = it.next();
+			if (i++ % 2 == 1)
+				page.deleteKeyAndRightChild(e);
+		}
+
+		LinkedList<BTreeEntry> forward = new LinkedList<BTreeEntry>();
+		it = page.iterator();
+		while (it.hasNext())
+			forward.addFirst(it.next());
+
+		it = page.reverseIterator();
+		for (BTreeEntry expected : forward) {
+			assertTrue(it.hasNext());
+			BTreeEntry e = it.next();
+			assertEquals(expected.getKey(), e.getKey());
+			assertEquals(expected.getLeftChild(), e.getLeftChild());
+			assertEquals(expected.getRightChild(), e.getRightChild());
+		}
+		assertFalse(it.hasNext());
+	}
+
 	/**
 	 * Unit test for BTreeInternalPage.getNumEmptySlots()
 	 */
 	@Test public void getNumEmptySlots() throws Exception {
 		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
-		assertEquals(483, page.getNumEmptySlots());
+		assertEquals(481, page.getNumEmptySlots());
 	}
 
 	/**
@@ -184,7 +214,7 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		for (int i = 0; i < 21; ++i)
 			assertTrue(page.isSlotUsed(i));
 
-		for (int i = 21; i < 504; ++i)
+		for (int i = 21; i < 502; ++i)
 			assertFalse(page.isSlotUsed(i));
 	}
 
@@ -238,7 +268,7 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		int free = page.getNumEmptySlots();
 
 		// NOTE(ghuo): this nested loop existence check is slow, but it
-		// shouldn't make a difference for n = 503 slots.
+		// shouldn't make a difference for n = 501 slots.
 
 		for (int i = 0; i < free; ++i) {
 			BTreeEntry addition = BTreeUtility.getBTreeEntry(i+21, 70000+i, pid.getTableId());
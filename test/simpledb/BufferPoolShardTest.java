@@ -0,0 +1,132 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolShardTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 32, null, null);
+    }
+
+    @Test public void shardCount() {
+        assertEquals(1, new BufferPool(BufferPool.DEFAULT_PAGES).getNumShards());
+        assertEquals(4, new BufferPool(100, ClockReplacementPolicy.FACTORY, 5).getNumShards());
+        assertEquals(1, new BufferPool(100, ClockReplacementPolicy.FACTORY, 0).getNumShards());
+    }
+
+    /**
+     * Readers hitting every shard at once must each get the page they asked
+     * for, while the pool keeps evicting to stay within its budget.
+     */
+    @Test public void concurrentReaders() throws Exception {
+        final BufferPool bp = new BufferPool(8, ClockReplacementPolicy.FACTORY, 4);
+        final int numPages = hf.numPages();
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] readers = new Thread[4];
+        for (int t = 0; t < readers.length; t++) {
+            final int offset = t;
+            readers[t] = new Thread() {
+                public void run() {
+                    TransactionId tid = new TransactionId();
+                    try {
+                        for (int i = 0; i < numPages * 4; i++) {
+                            HeapPageId pid = new HeapPageId(hf.getId(), (i + offset * 7) % numPages);
+                            Page p = bp.getPage(tid, pid, Permissions.READ_ONLY);
+                            if (!pid.equals(p.getId()))
+                                throw new AssertionError("got " + p.getId() + " for " + pid);
+                        }
+                        bp.transactionComplete(tid);
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            readers[t].start();
+        }
+        for (Thread t : readers)
+            t.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+    }
+
+    /**
+     * When every page in the shard a new page maps to is dirty, the frame
+     * comes from another shard instead.
+     */
+    @Test public void evictsFromOtherShards() throws Exception {
+        BufferPool bp = new BufferPool(4, ClockReplacementPolicy.FACTORY, 2);
+        TransactionId writer = new TransactionId();
+        TransactionId reader = new TransactionId();
+        // pages 0..3 fill the pool; dirty the ones that share a shard with page 4
+        List<Page> pages = new ArrayList<Page>();
+        for (int i = 0; i < 4; i++)
+            pages.add(bp.getPage(writer, new HeapPageId(hf.getId(), i), Permissions.READ_WRITE));
+        for (Page p : pages)
+            p.markDirty(true, writer);
+        pages.get(1).markDirty(false, null);
+        pages.get(3).markDirty(false, null);
+        Page p = bp.getPage(reader, new HeapPageId(hf.getId(), 4), Permissions.READ_ONLY);
+        assertEquals(new HeapPageId(hf.getId(), 4), p.getId());
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * Once a search has found every page of a shard dirty, evictions skip
+     * the shard until a page there is cleaned, and then find that page.
+     */
+    @Test public void allDirtyShardsNotSearchedAgain() throws Exception {
+        final int[] searches = new int[1];
+        ReplacementPolicy.Factory counting = new ReplacementPolicy.Factory() {
+            public ReplacementPolicy create(int capacity) {
+                return new ClockReplacementPolicy(capacity) {
+                    public PageId chooseVictim(VictimFilter filter) {
+                        searches[0]++;
+                        return super.chooseVictim(filter);
+                    }
+                };
+            }
+        };
+        BufferPool bp = new BufferPool(4, counting, 2);
+        TransactionId writer = new TransactionId();
+        TransactionId reader = new TransactionId();
+        for (int i = 0; i < 4; i++)
+            bp.getPage(writer, new HeapPageId(hf.getId(), i), Permissions.READ_WRITE).markDirty(true, writer);
+
+        // the writer's locks keep the pages from being written back; after
+        // the first search of each shard the retry searches neither
+        try {
+            bp.getPage(reader, new HeapPageId(hf.getId(), 4), Permissions.READ_ONLY);
+            throw new AssertionError("evicted a dirty page");
+        } catch (DbException e) {
+            // expected
+        }
+        assertEquals(bp.getNumShards(), searches[0]);
+
+        bp.releasePage(reader, new HeapPageId(hf.getId(), 4));
+        bp.flushAllPages();
+        Page p = bp.getPage(reader, new HeapPageId(hf.getId(), 4), Permissions.READ_ONLY);
+        assertEquals(new HeapPageId(hf.getId(), 4), p.getId());
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolShardTest.class);
+    }
+}
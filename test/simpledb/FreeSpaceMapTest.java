@@ -0,0 +1,185 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+
+    private static final int PAGES = 10;
+
+    private File data;
+    private HeapFile file;
+    private int slots;
+
+    /** A table of two INT columns whose pages are all full but the last, which has one tuple. */
+    @Before public void setUp() throws Exception {
+        slots = ((BufferPool.getPageSize() - PageChecksum.SIZE) * 8) / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < slots * (PAGES - 1) + 1; i++)
+            rows.add(new ArrayList<Integer>(Arrays.asList(i, i)));
+        data = File.createTempFile("fsm", ".dat");
+        data.deleteOnExit();
+        HeapFileEncoder.convert(rows, data, BufferPool.getPageSize(), 2);
+        open();
+    }
+
+    private void open() {
+        file = new HeapFile(data, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+    }
+
+    private Tuple insert(TransactionId tid, int n) throws Exception {
+        Tuple t = Utility.getHeapTuple(new int[] { n, n });
+        Database.getBufferPool().insertTuple(tid, file.getId(), t);
+        return t;
+    }
+
+    private static int pageOf(Tuple t) {
+        return t.getRecordId().getPageId().getPageNumber();
+    }
+
+    private boolean locked(TransactionId tid, int pgNo) {
+        return Database.getBufferPool().holdsLock(tid, new HeapPageId(file.getId(), pgNo));
+    }
+
+    /**
+     * An insert goes to the last page, which has room, without reading or
+     * locking the full pages before it; only once it fills are they tried,
+     * one at a time and once each.
+     */
+    @Test public void insertWithoutWalking() throws Exception {
+        TransactionId tid = new TransactionId();
+        assertEquals(PAGES - 1, pageOf(insert(tid, -1)));
+        for (int p = 0; p < PAGES - 1; p++)
+            assertFalse(locked(tid, p));
+        Database.getBufferPool().transactionComplete(tid, true);
+
+        // once every page is known to be full, inserts append
+        tid = new TransactionId();
+        for (int i = 0; i < slots; i++)
+            insert(tid, i);
+        assertEquals(PAGES + 1, file.numPages());
+        for (int p = 0; p < PAGES - 1; p++)
+            assertFalse(locked(tid, p));
+        Database.getBufferPool().transactionComplete(tid, true);
+    }
+
+    /** Space freed by a delete is used again instead of growing the file. */
+    @Test public void reuseDeleted() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        Tuple first = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, first);
+        Database.getBufferPool().transactionComplete(tid, true);
+
+        tid = new TransactionId();
+        assertEquals(0, pageOf(insert(tid, -1)));
+        assertEquals(PAGES, file.numPages());
+        Database.getBufferPool().transactionComplete(tid, true);
+    }
+
+    /**
+     * Without a saved map, space freed before the restart is found once the
+     * last page fills, instead of the file growing.
+     */
+    @Test public void reuseUnseen() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        Tuple first = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, first);
+        Database.getBufferPool().transactionComplete(tid, true);
+        Database.getBufferPool().flushAllPages();
+        Database.reset();
+        open();
+
+        tid = new TransactionId();
+        for (int i = 0; i < slots - 1; i++)
+            assertEquals(PAGES - 1, pageOf(insert(tid, i)));
+        assertEquals(0, pageOf(insert(tid, -1)));
+        assertEquals(PAGES, file.numPages());
+        for (int p = 1; p < PAGES - 1; p++)
+            assertFalse(locked(tid, p));
+        Database.getBufferPool().transactionComplete(tid, true);
+    }
+
+    /** Concurrent inserters are given different pages, so neither waits for the other. */
+    @Test(timeout = 20000) public void concurrentInserters() throws Exception {
+        TransactionId tid1 = new TransactionId();
+        TransactionId tid2 = new TransactionId();
+        int page1 = pageOf(insert(tid1, 1));
+        int page2 = pageOf(insert(tid2, 2));
+        assertTrue(page1 != page2);
+        // each keeps to its own page
+        assertEquals(page1, pageOf(insert(tid1, 3)));
+        assertEquals(page2, pageOf(insert(tid2, 4)));
+        Database.getBufferPool().transactionComplete(tid1, true);
+        Database.getBufferPool().transactionComplete(tid2, true);
+    }
+
+    /** An aborted insert that fills pages leaves nothing behind. */
+    @Test public void abort() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3 * slots; i++)
+            insert(tid, i);
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(slots * (PAGES - 1) + 1, count);
+    }
+
+    /** The map is saved with the table, so the next run inserts into the page with room straight away. */
+    @Test public void keepAcrossRuns() throws Exception {
+        File sidecar = new File(data.getPath() + ".fsm");
+        sidecar.deleteOnExit();
+        file.keepFreeSpaceMap(sidecar);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        Tuple t = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid, true);
+        Database.getBufferPool().flushAllPages();
+        file.close();
+        Database.reset();
+
+        open();
+        file.keepFreeSpaceMap(sidecar);
+        // without the map the insert would go to the last page, which has room too
+        tid = new TransactionId();
+        assertEquals(0, pageOf(insert(tid, -1)));
+        assertEquals(PAGES, file.numPages());
+        Database.getBufferPool().transactionComplete(tid, true);
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
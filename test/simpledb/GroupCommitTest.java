@@ -0,0 +1,83 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class GroupCommitTest extends SimpleDbTestBase {
+
+    private static final int THREADS = 16;
+    private static final int COMMITS = 20;
+    private static final int COMMIT_RECORD_SIZE = 2 * LogFile.INT_SIZE + 2 * LogFile.LONG_SIZE;
+
+    /** @return true if everything appended to log is on disk */
+    private static boolean allForced(LogFile log) {
+        synchronized (log) {
+            return log.flushedOffset == log.currentOffset;
+        }
+    }
+
+    /**
+     * Commits from many threads at once all come back, each after its
+     * COMMIT record has been forced.
+     */
+    @Test public void concurrentCommits() throws Exception {
+        final LogFile log = Database.getLogFile();
+        log.setGroupCommitWindow(1000);
+        final AtomicInteger unforced = new AtomicInteger();
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < COMMITS; j++) {
+                            Transaction t = new Transaction();
+                            t.start();
+                            long before;
+                            synchronized (log) {
+                                before = log.currentOffset;
+                            }
+                            t.commit();
+                            // the COMMIT record starts at or after before
+                            synchronized (log) {
+                                if (log.flushedOffset < before + COMMIT_RECORD_SIZE)
+                                    unforced.incrementAndGet();
+                            }
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        unforced.incrementAndGet();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertEquals(0, unforced.get());
+        assertEquals(2 * THREADS * COMMITS, log.getTotalRecords());
+        assertTrue(allForced(log));
+    }
+
+    /** With group commit off, a commit forces the log itself. */
+    @Test public void groupCommitOff() throws Exception {
+        LogFile log = Database.getLogFile();
+        log.setGroupCommitWindow(-1);
+        Transaction t = new Transaction();
+        t.start();
+        t.commit();
+        assertTrue(allForced(log));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
@@ -72,11 +72,46 @@ public class HeapFileReadTest extends SimpleDbTestBase {
 
         // NOTE(ghuo): we try not to dig too deeply into the Page API here; we
         // rely on HeapPageTest for that. perform some basic checks.
-        assertEquals(484, page.getNumEmptySlots());
+        assertEquals(482, page.getNumEmptySlots());
         assertTrue(page.isSlotUsed(1));
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Closing the file (as Catalog.clear does) leaves it usable.
+     */
+    @Test
+    public void readPageAfterClose() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        byte[] before = hf.readPage(pid).getPageData();
+        hf.close();
+        assertArrayEquals(before, hf.readPage(pid).getPageData());
+        hf.close();
+        hf.close();
+    }
+
+    /**
+     * Mapped reads see the same pages, later writes, and pages added after
+     * the file was mapped.
+     */
+    @Test
+    public void memoryMappedReadPage() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        byte[] expected = hf.readPage(pid).getPageData();
+        hf.setMemoryMapped(true);
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        assertArrayEquals(expected, page.getPageData());
+
+        page.deleteTuple(page.iterator().next());
+        hf.writePage(page);
+        assertEquals(483, ((HeapPage) hf.readPage(pid)).getNumEmptySlots());
+
+        HeapPageId added = new HeapPageId(hf.getId(), 1);
+        hf.writePage(new HeapPage(added, HeapPage.createEmptyPageData()));
+        assertEquals(2, hf.numPages());
+        assertEquals(502, ((HeapPage) hf.readPage(added)).getNumEmptySlots());
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
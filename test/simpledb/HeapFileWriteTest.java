@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.File;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -26,14 +28,14 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
      * Unit test for HeapFile.addTuple()
      */
     @Test public void addTuple() throws Exception {
-        // we should be able to add 504 tuples on an empty page.
-        for (int i = 0; i < 504; ++i) {
+        // we should be able to add 502 tuples on an empty page.
+        for (int i = 0; i < 502; ++i) {
             empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
             assertEquals(1, empty.numPages());
         }
 
         // the next 512 additions should live on a new page
-        for (int i = 0; i < 504; ++i) {
+        for (int i = 0; i < 502; ++i) {
             empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
             assertEquals(2, empty.numPages());
         }
@@ -43,6 +45,24 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Inserting into a table whose file does not exist yet creates the file.
+     */
+    @Test public void addTupleCreatesFile() throws Exception {
+        File f = File.createTempFile("missing", ".dat");
+        f.delete();
+        f.deleteOnExit();
+        HeapFile hf = Utility.openHeapFile(2, f);
+        assertEquals(0, hf.numPages());
+
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(1, 2));
+        Database.getBufferPool().flushAllPages();
+        assertTrue(f.exists());
+        assertEquals(1, hf.numPages());
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        assertEquals(501, page.getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
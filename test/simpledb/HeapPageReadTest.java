@@ -104,7 +104,7 @@ public class HeapPageReadTest extends SimpleDbTestBase {
      */
     @Test public void getNumEmptySlots() throws Exception {
         HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
-        assertEquals(484, page.getNumEmptySlots());
+        assertEquals(482, page.getNumEmptySlots());
     }
 
     /**
@@ -116,10 +116,48 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         for (int i = 0; i < 20; ++i)
             assertTrue(page.isSlotUsed(i));
 
-        for (int i = 20; i < 504; ++i)
+        for (int i = 20; i < 502; ++i)
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for the page checksum: a page torn or corrupted on disk is
+     * refused, while an all-zero page that was never written is empty.
+     */
+    @Test public void checksum() throws Exception {
+        byte[] data = new HeapPage(pid, EXAMPLE_DATA).getPageData();
+        data[data.length / 2] ^= 1;
+        try {
+            new HeapPage(pid, data);
+            throw new Exception("read a corrupted page; expected IOException");
+        } catch (IOException e) {
+            // explicitly ignored
+        }
+
+        HeapPage empty = new HeapPage(pid, HeapPage.createEmptyPageData());
+        assertEquals(502, empty.getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for lazily decoded tuples: a page that was only read gives
+     * back its bytes unchanged, and a tuple changed after it was read is
+     * written out with its new value.
+     */
+    @Test public void lazyTuples() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Iterator<Tuple> it = page.iterator();
+        Tuple first = it.next();
+        assertEquals(new RecordId(pid, 0), first.getRecordId());
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+
+        first.setField(1, new IntField(-1));
+        assertEquals(EXAMPLE_VALUES[0][0], ((IntField) first.getField(0)).getValue());
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        Tuple changed = copy.iterator().next();
+        assertEquals(EXAMPLE_VALUES[0][0], ((IntField) changed.getField(0)).getValue());
+        assertEquals(-1, ((IntField) changed.getField(1)).getValue());
+    }
+
     /**
      * JUnit suite target
      */
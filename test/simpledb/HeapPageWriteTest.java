@@ -4,6 +4,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -126,6 +127,40 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for the slot changes HeapPage hands to the log
+     */
+    @Test public void slotChanges() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        byte[] before = page.getPageData();
+        assertEquals(0, page.changedSlots().length);
+
+        Tuple first = page.iterator().next();
+        int deleted = first.getRecordId().getTupleNumber();
+        page.deleteTuple(first);
+        Tuple addition = Utility.getHeapTuple(7, 2);
+        page.insertTuple(addition);
+        int inserted = addition.getRecordId().getTupleNumber();
+        int[] changed = page.changedSlots();
+        assertTrue(Arrays.binarySearch(changed, deleted) >= 0);
+        assertTrue(Arrays.binarySearch(changed, inserted) >= 0);
+        assertTrue(page.beforeSlotData(deleted) != null);
+        assertEquals(Type.INT_TYPE.getLen() * 2, page.slotData(inserted).length);
+
+        // undo slot by slot gets back the before image, redo the page again
+        byte[] after = page.getPageData();
+        HeapPage undone = new HeapPage(pid, after);
+        for (int slot : changed)
+            undone.applySlot(slot, page.beforeSlotData(slot));
+        assertTrue(Arrays.equals(before, undone.getPageData()));
+        for (int slot : changed)
+            undone.applySlot(slot, page.slotData(slot));
+        assertTrue(Arrays.equals(after, undone.getPageData()));
+
+        page.setBeforeImage();
+        assertEquals(0, page.changedSlots().length);
+    }
+
     /**
      * JUnit suite target
      */
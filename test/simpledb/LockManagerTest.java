@@ -0,0 +1,259 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    private static final long LONG_WAIT = 10000;
+
+    private LockManager lm;
+    private PageId pid;
+
+    /** Requests a lock on a thread of its own. */
+    private class Waiter extends Thread {
+        final TransactionId tid;
+        final PageId pid;
+        final boolean exclusive;
+        volatile boolean acquired;
+        volatile Exception error;
+
+        Waiter(TransactionId tid, PageId pid, boolean exclusive) {
+            this.tid = tid;
+            this.pid = pid;
+            this.exclusive = exclusive;
+            setDaemon(true);
+            start();
+        }
+
+        public void run() {
+            try {
+                lm.acquireLock(tid, pid, exclusive);
+                acquired = true;
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+
+        /** Waits until the thread is parked on the lock. */
+        void awaitParked() throws InterruptedException {
+            while (getState() != Thread.State.WAITING && isAlive())
+                Thread.sleep(1);
+        }
+    }
+
+    @Before public void setUp() {
+        lm = new LockManager();
+        pid = new HeapPageId(1, 0);
+    }
+
+    /**
+     * A reader arriving after a queued writer waits behind it instead of
+     * joining the current readers.
+     */
+    @Test public void fifoOrder() throws Exception {
+        TransactionId t1 = new TransactionId();
+        lm.acquireLock(t1, pid, false);
+        Waiter writer = new Waiter(new TransactionId(), pid, true);
+        writer.awaitParked();
+        Waiter reader = new Waiter(new TransactionId(), pid, false);
+        reader.awaitParked();
+        assertFalse(writer.acquired || reader.acquired);
+
+        lm.releaseLock(t1, pid);
+        writer.join(LONG_WAIT);
+        assertTrue(writer.acquired);
+        assertFalse(reader.acquired);
+
+        lm.releaseLock(writer.tid, pid);
+        reader.join(LONG_WAIT);
+        assertTrue(reader.acquired);
+    }
+
+    /**
+     * An upgrade is granted before writers that queued earlier.
+     */
+    @Test public void upgradeGoesFirst() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.acquireLock(t1, pid, false);
+        lm.acquireLock(t2, pid, false);
+        Waiter writer = new Waiter(new TransactionId(), pid, true);
+        writer.awaitParked();
+        Waiter upgrade = new Waiter(t1, pid, true);
+        upgrade.awaitParked();
+
+        lm.releaseLock(t2, pid);
+        upgrade.join(LONG_WAIT);
+        assertTrue(upgrade.acquired);
+        assertFalse(writer.acquired);
+
+        lm.releaseLock(t1, pid);
+        writer.join(LONG_WAIT);
+        assertTrue(writer.acquired);
+    }
+
+    /**
+     * Two transactions waiting for each other's page: the younger one is
+     * aborted right away and the older one gets its lock once the younger
+     * one's locks are released.
+     */
+    @Test public void deadlockAbortsYoungest() throws Exception {
+        PageId other = new HeapPageId(1, 1);
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        lm.acquireLock(older, pid, true);
+        lm.acquireLock(younger, other, true);
+        Waiter olderWaits = new Waiter(older, other, true);
+        olderWaits.awaitParked();
+        Waiter youngerWaits = new Waiter(younger, pid, false);
+        youngerWaits.join(LONG_WAIT);
+        assertFalse(youngerWaits.acquired);
+        assertEquals(TransactionAbortedException.class, youngerWaits.error.getClass());
+        assertFalse(olderWaits.acquired);
+
+        lm.releaseLock(younger, other);
+        olderWaits.join(LONG_WAIT);
+        assertTrue(olderWaits.acquired);
+        assertFalse(lm.holdsLock(younger, pid));
+    }
+
+    /**
+     * A request that closes two cycles at once breaks both, not just the
+     * first one the search comes across: releasing the first victim's lock
+     * leaves the queue head where it was, so nothing else would look again.
+     */
+    @Test public void everyCycleBroken() throws Exception {
+        PageId a = new HeapPageId(1, 1);
+        PageId b = new HeapPageId(1, 2);
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId t3 = new TransactionId();
+        lm.acquireLock(t1, a, true);
+        lm.acquireLock(t1, b, true);
+        lm.acquireLock(t2, pid, false);
+        lm.acquireLock(t3, pid, false);
+        Waiter w2 = new Waiter(t2, a, true);
+        w2.awaitParked();
+        Waiter w3 = new Waiter(t3, b, true);
+        w3.awaitParked();
+        Waiter w1 = new Waiter(t1, pid, true);
+
+        w2.join(LONG_WAIT);
+        w3.join(LONG_WAIT);
+        assertEquals(TransactionAbortedException.class, w2.error.getClass());
+        assertEquals(TransactionAbortedException.class, w3.error.getClass());
+        assertFalse(w1.acquired);
+
+        lm.releaseAllLocks(t2);
+        lm.releaseAllLocks(t3);
+        w1.join(LONG_WAIT);
+        assertTrue(w1.acquired);
+    }
+
+    /**
+     * Transactions that share a page and all upgrade at once lose all but
+     * one of themselves to deadlock aborts, and the last one gets its lock.
+     */
+    @Test public void concurrentUpgrades() throws Exception {
+        for (int round = 0; round < 200; round++) {
+            Waiter[] upgrades = new Waiter[3];
+            TransactionId[] tids = new TransactionId[upgrades.length];
+            for (int i = 0; i < tids.length; i++) {
+                tids[i] = new TransactionId();
+                lm.acquireLock(tids[i], pid, false);
+            }
+            for (int i = 0; i < upgrades.length; i++)
+                upgrades[i] = new Waiter(tids[i], pid, true);
+
+            // an aborted transaction releases its locks, as Transaction does
+            int done = 0;
+            int acquired = 0;
+            long deadline = System.currentTimeMillis() + LONG_WAIT;
+            boolean[] seen = new boolean[upgrades.length];
+            while (done < upgrades.length && System.currentTimeMillis() < deadline) {
+                for (int i = 0; i < upgrades.length; i++) {
+                    if (seen[i] || upgrades[i].isAlive())
+                        continue;
+                    seen[i] = true;
+                    done++;
+                    if (upgrades[i].acquired)
+                        acquired++;
+                    lm.releaseAllLocks(tids[i]);
+                }
+                Thread.sleep(1);
+            }
+            assertEquals("round " + round, upgrades.length, done);
+            assertTrue("round " + round, acquired >= 1);
+        }
+    }
+
+    /**
+     * An interrupted waiter stays parked instead of spinning, gets its lock
+     * once it is free, and still sees its interrupt afterwards.
+     */
+    @Test public void interruptedWaiterKeepsWaiting() throws Exception {
+        TransactionId t1 = new TransactionId();
+        lm.acquireLock(t1, pid, true);
+        final TransactionId t2 = new TransactionId();
+        final boolean[] interrupted = new boolean[1];
+        Waiter waiter = new Waiter(t2, pid, true) {
+            public void run() {
+                super.run();
+                interrupted[0] = isInterrupted();
+            }
+        };
+        waiter.awaitParked();
+        waiter.interrupt();
+        Thread.sleep(50);
+        waiter.awaitParked();
+        assertEquals(Thread.State.WAITING, waiter.getState());
+        assertFalse(waiter.acquired);
+
+        lm.releaseLock(t1, pid);
+        waiter.join(LONG_WAIT);
+        assertTrue(waiter.acquired);
+        assertTrue(interrupted[0]);
+    }
+
+    /**
+     * exclusiveLocks lists only the pages a transaction can write, and
+     * releaseAllLocks frees them without touching other transactions' locks.
+     */
+    @Test public void locksIndexedByTransaction() throws Exception {
+        PageId shared = new HeapPageId(1, 1);
+        PageId upgraded = new HeapPageId(1, 2);
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.acquireLock(t1, pid, true);
+        lm.acquireLock(t1, shared, false);
+        lm.acquireLock(t2, shared, false);
+        lm.acquireLock(t1, upgraded, false);
+        lm.acquireLock(t1, upgraded, true);
+        assertEquals(2, lm.exclusiveLocks(t1).size());
+        assertTrue(lm.exclusiveLocks(t1).contains(pid));
+        assertTrue(lm.exclusiveLocks(t1).contains(upgraded));
+        assertTrue(lm.exclusiveLocks(t2).isEmpty());
+
+        lm.releaseAllLocks(t1);
+        assertTrue(lm.exclusiveLocks(t1).isEmpty());
+        assertFalse(lm.holdsLock(t1, shared));
+        assertTrue(lm.holdsLock(t2, shared));
+        lm.acquireLock(t2, pid, true);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
@@ -0,0 +1,177 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LogSegmentsTest extends SimpleDbTestBase {
+
+    private static final long SEGMENT_SIZE = 64;
+
+    private File dir;
+    private File control;
+
+    @Before public void makeDir() throws IOException {
+        dir = File.createTempFile("segments", "");
+        dir.delete();
+        dir.mkdir();
+        control = new File(dir, "log");
+    }
+
+    @After public void removeDir() {
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+    }
+
+    private int segmentFiles() {
+        return dir.listFiles().length - 1;   // all but the control file
+    }
+
+    private static ByteBuffer longs(long from, int count) {
+        ByteBuffer buf = ByteBuffer.allocate(count * LogFile.LONG_SIZE);
+        for (int i = 0; i < count; i++)
+            buf.putLong(from + i);
+        buf.flip();
+        return buf;
+    }
+
+    /** Bytes written across segment boundaries read back in order, also after reopening. */
+    @Test public void writeAcrossSegments() throws Exception {
+        LogSegments segments = new LogSegments(control, SEGMENT_SIZE);
+        segments.clear();
+        assertEquals(LogSegments.FIRST_LSN, segments.length());
+        // 8 + 50 * 8 bytes: segments 0 to 6
+        segments.write(longs(0, 50), LogSegments.FIRST_LSN);
+        assertEquals(LogSegments.FIRST_LSN + 50 * LogFile.LONG_SIZE, segments.length());
+        assertEquals(7, segmentFiles());
+        segments.setCheckpoint(100);
+        segments.close();
+
+        segments = new LogSegments(control, 1000);
+        assertEquals(SEGMENT_SIZE, segments.segmentSize());
+        assertEquals(100, segments.checkpoint());
+        segments.seek(LogSegments.FIRST_LSN);
+        for (int i = 0; i < 50; i++)
+            assertEquals(i, segments.readLong());
+        try {
+            segments.readByte();
+            throw new Exception("read past the end of the log; expected EOFException");
+        } catch (EOFException e) {
+            // explicitly ignored
+        }
+        segments.close();
+    }
+
+    /** The channels to force for a range of LSNs are those of the segments the range touches. */
+    @Test public void channelsForRange() throws Exception {
+        LogSegments segments = new LogSegments(control, SEGMENT_SIZE);
+        segments.clear();
+        segments.write(longs(0, 50), LogSegments.FIRST_LSN);
+        assertEquals(0, segments.channels(100, 100).size());
+        assertEquals(1, segments.channels(64, 128).size());
+        assertEquals(2, segments.channels(63, 128).size());
+        assertEquals(7, segments.channels(0, segments.length()).size());
+        segments.force(0, segments.length());
+        segments.close();
+    }
+
+    /** Dropping segments keeps every byte at or after the LSN asked for, at the same LSN. */
+    @Test public void dropBefore() throws Exception {
+        LogSegments segments = new LogSegments(control, SEGMENT_SIZE);
+        segments.clear();
+        segments.write(longs(0, 50), LogSegments.FIRST_LSN);
+
+        long lsn = LogSegments.FIRST_LSN + 20 * LogFile.LONG_SIZE;
+        assertEquals(2, segments.dropBefore(lsn));
+        assertEquals(5, segmentFiles());
+        assertEquals(2 * SEGMENT_SIZE, segments.start());
+        segments.seek(lsn);
+        assertEquals(20, segments.readLong());
+
+        // the newest segment always stays, so appends have somewhere to go
+        segments.dropBefore(Long.MAX_VALUE);
+        assertEquals(1, segmentFiles());
+        segments.close();
+    }
+
+    /** Truncating cuts off the end of the log and later segments. */
+    @Test public void truncate() throws Exception {
+        LogSegments segments = new LogSegments(control, SEGMENT_SIZE);
+        segments.clear();
+        segments.write(longs(0, 50), LogSegments.FIRST_LSN);
+        long end = LogSegments.FIRST_LSN + 10 * LogFile.LONG_SIZE;
+        segments.truncate(end);
+        assertEquals(end, segments.length());
+        assertEquals(2, segmentFiles());
+        segments.write(longs(100, 1), end);
+        segments.seek(end - LogFile.LONG_SIZE);
+        assertEquals(9, segments.readLong());
+        assertEquals(100, segments.readLong());
+        segments.close();
+    }
+
+    /** A log thrown away starts again past its old end, so LSNs on pages stay behind new records. */
+    @Test public void clearKeepsLsnsGrowing() throws Exception {
+        LogSegments segments = new LogSegments(control, SEGMENT_SIZE);
+        segments.clear();
+        segments.write(longs(0, 10), LogSegments.FIRST_LSN);
+        long end = segments.length();
+        segments.clear();
+        assertEquals(1, segmentFiles());
+        assertTrue(segments.length() >= end);
+        assertEquals(0, segments.length() % SEGMENT_SIZE);
+        assertEquals(segments.length(), segments.start());
+        segments.close();
+    }
+
+    /** A checkpoint deletes the segments recovery no longer needs, without moving any record. */
+    @Test public void checkpointDropsSegments() throws Exception {
+        LogFile log = new LogFile(control, 256);
+        for (int i = 0; i < 100; i++) {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            log.logCommit(tid);
+        }
+        long kept = log.getCurrentLSN();
+        TransactionId active = new TransactionId();
+        log.logXactionBegin(active);
+        for (int i = 0; i < 100; i++) {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            log.logCommit(tid);
+        }
+        int before = segmentFiles();
+        long end = log.getCurrentLSN();
+
+        log.logCheckpoint();
+        // everything from the active transaction's BEGIN record on is kept
+        assertTrue(segmentFiles() < before);
+        assertTrue(log.getCurrentLSN() - log.getSize() <= kept);
+        assertTrue(log.getCurrentLSN() - log.getSize() > LogSegments.FIRST_LSN);
+        assertTrue(log.getCheckpointLSN() >= end);
+
+        // then only the segments the new checkpoint record is in
+        log.logCommit(active);
+        log.logCheckpoint();
+        assertTrue(segmentFiles() <= 2);
+        log.shutdown();
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogSegmentsTest.class);
+    }
+}
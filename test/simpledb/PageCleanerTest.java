@@ -0,0 +1,174 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageCleanerTest extends SimpleDbTestBase {
+
+    /** Counts single-page and multi-page writes. */
+    private static class CountingHeapFile extends HeapFile {
+        int pageWrites;
+        int runWrites;
+
+        CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public void writePage(Page page) throws java.io.IOException {
+            pageWrites++;
+            super.writePage(page);
+        }
+
+        @Override
+        public void writePages(List<Page> run) throws java.io.IOException {
+            runWrites++;
+            super.writePages(run);
+        }
+    }
+
+    private CountingHeapFile hf;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 8, 1000, null, null);
+        hf = new CountingHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+    }
+
+    private HeapPage changedPage(int pgNo) throws Exception {
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), pgNo));
+        page.deleteTuple(page.iterator().next());
+        return page;
+    }
+
+    /**
+     * Pages are written in page-number order, with adjacent pages in one
+     * write.
+     */
+    @Test public void coalescesAdjacentPages() throws Exception {
+        List<Page> pages = new ArrayList<Page>();
+        for (int pgNo : new int[] { 5, 1, 0, 2 })
+            pages.add(changedPage(pgNo));
+        PageCleaner.write(pages);
+        assertEquals(1, hf.runWrites);
+        assertEquals(1, hf.pageWrites);
+        for (Page page : pages)
+            assertArrayEquals(page.getPageData(), hf.readPage(page.getId()).getPageData());
+    }
+
+    /**
+     * Only pages nobody holds the write lock on are written back.
+     */
+    @Test public void writeBackSkipsLockedPages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(8);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+        page.deleteTuple(page.iterator().next());
+        page.markDirty(true, tid);
+        assertEquals(0, bp.writeBack(Arrays.<Page>asList(page)));
+        assertEquals(tid, page.isDirty());
+
+        bp.releasePage(tid, pid);
+        assertEquals(1, bp.writeBack(Arrays.<Page>asList(page)));
+        assertNull(page.isDirty());
+        assertArrayEquals(page.getPageData(), hf.readPage(pid).getPageData());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A pool full of dirty pages writes back the unlocked ones rather than
+     * failing to evict.
+     */
+    @Test public void evictionWritesBack() throws Exception {
+        BufferPool bp = Database.resetBufferPool(2);
+        for (int i = 0; i < 2; i++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), i);
+            bp.getPage(tid, pid, Permissions.READ_WRITE).markDirty(true, tid);
+            bp.releasePage(tid, pid);
+        }
+        bp.getPage(tid, new HeapPageId(hf.getId(), 2), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+    }
+
+    /** Dirties the first count pages of hf in bp and releases their locks. */
+    private List<Page> dirtyPages(BufferPool bp, int count) throws Exception {
+        List<Page> pages = new ArrayList<Page>();
+        for (int i = 0; i < count; i++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), i);
+            Page page = bp.getPage(tid, pid, Permissions.READ_WRITE);
+            page.markDirty(true, tid);
+            bp.releasePage(tid, pid);
+            pages.add(page);
+        }
+        return pages;
+    }
+
+    private static boolean awaitClean(List<Page> pages, long millis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        while (System.currentTimeMillis() < deadline) {
+            boolean clean = true;
+            for (Page page : pages)
+                clean &= page.isDirty() == null;
+            if (clean)
+                return true;
+            Thread.sleep(1);
+        }
+        return false;
+    }
+
+    /**
+     * A pool's cleaner writes back that pool's pages, whether or not it is
+     * the database's pool.
+     */
+    @Test public void cleanerPerPool() throws Exception {
+        BufferPool bp = new BufferPool(8);
+        List<Page> pages = dirtyPages(bp, 7);
+        assertTrue(awaitClean(pages, 10000));
+        bp.transactionComplete(tid);
+        bp.stopPageCleaner();
+    }
+
+    /**
+     * Replacing the database's pool stops the old pool's cleaner.
+     */
+    @Test public void resetStopsCleaner() throws Exception {
+        BufferPool bp = Database.resetBufferPool(8);
+        List<Page> pages = new ArrayList<Page>();
+        for (int i = 0; i < 7; i++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), i);
+            Page page = bp.getPage(tid, pid, Permissions.READ_WRITE);
+            page.markDirty(true, tid);
+            pages.add(page);
+        }
+        // still write-locked, so the reset cannot write them back
+        Database.resetBufferPool(8);
+        for (Page page : pages)
+            bp.releasePage(tid, page.getId());
+        assertFalse(awaitClean(pages, 5 * PageCleaner.INTERVAL_MS));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
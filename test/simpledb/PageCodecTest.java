@@ -0,0 +1,74 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PageCodecTest extends SimpleDbTestBase {
+
+    /** Decodes the image of p with the codec registered under its tag and checks it is the same page. */
+    private static void roundTrip(Page p) throws Exception {
+        byte tag = PageCodec.forPage(p).tag;
+        Page q = PageCodec.forTag(tag).decode(p.getId(), p.getPageData());
+        assertEquals(p.getClass(), q.getClass());
+        assertEquals(p.getId(), q.getId());
+        assertArrayEquals(p.getPageData(), q.getPageData());
+    }
+
+    /** Every kind of page the log holds comes back from its image. */
+    @Test public void pages() throws Exception {
+        File file = File.createTempFile("codec", ".dat");
+        file.deleteOnExit();
+        HeapFile hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        roundTrip(hf.readPage(new HeapPageId(hf.getId(), 0)));
+
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 10, null, null, 0);
+        int table = bf.getId();
+        roundTrip(new BTreeLeafPage(new BTreePageId(table, 1, BTreePageId.LEAF),
+                BTreeLeafPage.createEmptyPageData(), 0));
+        roundTrip(new BTreeInternalPage(new BTreePageId(table, 2, BTreePageId.INTERNAL),
+                BTreeInternalPage.createEmptyPageData(), 0));
+        roundTrip(new BTreeHeaderPage(new BTreePageId(table, 3, BTreePageId.HEADER),
+                BTreeHeaderPage.createEmptyPageData()));
+        roundTrip(new BTreeRootPtrPage(BTreeRootPtrPage.getId(table),
+                BTreeRootPtrPage.createEmptyPageData()));
+    }
+
+    /** Page ids of both kinds read back equal, and an unknown tag reads as a torn record. */
+    @Test public void ids() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        PageCodec.writeId(dos, new HeapPageId(7, 42));
+        PageCodec.writeId(dos, new BTreePageId(7, 42, BTreePageId.LEAF));
+        PageCodec.writeId(dos, new BTreePageId(7, 43, BTreePageId.INTERNAL));
+        dos.writeByte(99);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        assertEquals(new HeapPageId(7, 42), PageCodec.readId(in));
+        assertEquals(new BTreePageId(7, 42, BTreePageId.LEAF), PageCodec.readId(in));
+        PageCodec.skipId(in);
+        try {
+            PageCodec.readId(in);
+            throw new Exception("read an id with an unknown tag; expected EOFException");
+        } catch (EOFException e) {
+            // explicitly ignored
+        }
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCodecTest.class);
+    }
+}
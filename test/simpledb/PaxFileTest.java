@@ -0,0 +1,163 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PaxFileTest extends SimpleDbTestBase {
+
+    private static final int COLUMNS = 4;
+    private static final int ROWS = 1500;
+
+    private ArrayList<ArrayList<Integer>> rows;
+    private PaxFile file;
+
+    /** Encodes ROWS rows of COLUMNS ints, where column j of row i is i * 10 + j. */
+    @Before public void setUp() throws Exception {
+        rows = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            for (int j = 0; j < COLUMNS; j++)
+                row.add(i * 10 + j);
+            rows.add(row);
+        }
+        File f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        PaxFileEncoder.convert(rows, f, BufferPool.getPageSize(), COLUMNS);
+        file = new PaxFile(f, Utility.getTupleDesc(COLUMNS, "pax"));
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+    }
+
+    private ArrayList<Tuple> scan(DbFileIterator it) throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext())
+            tuples.add(it.next());
+        it.close();
+        return tuples;
+    }
+
+    private static int value(Tuple t, int j) {
+        return ((IntField) t.getField(j)).getValue();
+    }
+
+    /** An encoded file holds the same tuples as a heap file of the same rows, on as many pages. */
+    @Test public void convert() throws Exception {
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> tuples = scan(file.iterator(tid));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(ROWS, tuples.size());
+        for (int i = 0; i < ROWS; i++) {
+            for (int j = 0; j < COLUMNS; j++)
+                assertEquals(i * 10 + j, value(tuples.get(i), j));
+        }
+
+        File heap = File.createTempFile("heap", ".dat");
+        heap.deleteOnExit();
+        HeapFileEncoder.convert(rows, heap, BufferPool.getPageSize(), COLUMNS);
+        assertEquals(heap.length(), file.getFile().length());
+    }
+
+    /** A scan of some columns decodes only those and leaves the other fields null. */
+    @Test public void columnScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        boolean[] columns = new boolean[COLUMNS];
+        columns[2] = true;
+        ArrayList<Tuple> tuples = scan(file.iterator(tid, columns));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(ROWS, tuples.size());
+        for (int i = 0; i < ROWS; i++) {
+            Tuple t = tuples.get(i);
+            assertEquals(i * 10 + 2, value(t, 2));
+            assertNull(t.getField(0));
+            assertNull(t.getField(3));
+            assertTrue(t.getRecordId() != null);
+        }
+    }
+
+    /** Inserts and deletes are written back by column and survive a flush. */
+    @Test public void insertAndDelete() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (Tuple t : scan(file.iterator(tid))) {
+            if (value(t, 0) % 20 == 0)
+                Database.getBufferPool().deleteTuple(tid, t);
+        }
+        for (int i = ROWS; i < ROWS + 100; i++) {
+            Tuple t = new Tuple(file.getTupleDesc());
+            for (int j = 0; j < COLUMNS; j++)
+                t.setField(j, new IntField(i * 10 + j));
+            Database.getBufferPool().insertTuple(tid, file.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid, true);
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        tid = new TransactionId();
+        ArrayList<Tuple> tuples = scan(file.iterator(tid));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(ROWS - ROWS / 2 + 100, tuples.size());
+        boolean[] seen = new boolean[ROWS + 100];
+        for (Tuple t : tuples) {
+            int i = value(t, 0) / 10;
+            assertTrue(i >= ROWS || i % 2 == 1);
+            for (int j = 1; j < COLUMNS; j++)
+                assertEquals(i * 10 + j, value(t, j));
+            seen[i] = true;
+        }
+        for (int i = ROWS; i < ROWS + 100; i++)
+            assertTrue(seen[i]);
+    }
+
+    /** A planned query scans only the columns it refers to and still gives the right answer. */
+    @Test public void plannedScan() throws Exception {
+        String name = Database.getCatalog().getTableName(file.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(file.getId(), 1));
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(file.getId(), "p");
+        lp.addFilter("p.pax1", Predicate.Op.LESS_THAN, "1001");
+        lp.addProjectField("p.pax3", null);
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+
+        ArrayList<Integer> out = new ArrayList<Integer>();
+        plan.open();
+        while (plan.hasNext())
+            out.add(value(plan.next(), 0));
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(100, out.size());
+        for (int i = 0; i < 100; i++)
+            assertEquals(i * 10 + 3, (int) out.get(i));
+
+        tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, file.getId(), "p");
+        boolean[] columns = new boolean[COLUMNS];
+        columns[1] = true;
+        ss.setColumns(columns);
+        ss.open();
+        Tuple first = ss.next();
+        assertEquals(1, value(first, 1));
+        assertNull(first.getField(3));
+        ss.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxFileTest.class);
+    }
+}
@@ -0,0 +1,86 @@
+package simpledb;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    private static final long LONG_WAIT = 10000;
+
+    private HeapFile hf;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+        tid = new TransactionId();
+    }
+
+    private HeapPageId page(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    private static boolean awaitCached(BufferPool bp, PageId pid) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + LONG_WAIT;
+        while (!bp.isCached(pid) && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+        return bp.isCached(pid);
+    }
+
+    /**
+     * Two consecutive pages start read-ahead of the next window pages, and
+     * no further.
+     */
+    @Test public void sequentialScanReadsAhead() throws Exception {
+        BufferPool bp = new BufferPool(64);
+        bp.setReadAheadWindow(4);
+        bp.getPage(tid, page(0), Permissions.READ_ONLY);
+        bp.getPage(tid, page(1), Permissions.READ_ONLY);
+        for (int i = 2; i <= 5; i++)
+            assertTrue("page " + i, awaitCached(bp, page(i)));
+        assertFalse(bp.isCached(page(6)));
+
+        // each further page extends the window by one
+        bp.getPage(tid, page(2), Permissions.READ_ONLY);
+        assertTrue(awaitCached(bp, page(6)));
+        // prefetched pages take no locks
+        assertFalse(bp.holdsLock(tid, page(6)));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Random access and a window of 0 read nothing ahead.
+     */
+    @Test public void noReadAhead() throws Exception {
+        BufferPool bp = new BufferPool(64);
+        bp.setReadAheadWindow(4);
+        bp.getPage(tid, page(0), Permissions.READ_ONLY);
+        bp.getPage(tid, page(5), Permissions.READ_ONLY);
+        bp.getPage(tid, page(2), Permissions.READ_ONLY);
+
+        BufferPool off = new BufferPool(64);
+        off.setReadAheadWindow(0);
+        off.getPage(tid, page(0), Permissions.READ_ONLY);
+        off.getPage(tid, page(1), Permissions.READ_ONLY);
+        Thread.sleep(100);
+        assertFalse(bp.isCached(page(1)));
+        assertFalse(bp.isCached(page(3)));
+        assertFalse(off.isCached(page(2)));
+        bp.transactionComplete(tid);
+        off.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
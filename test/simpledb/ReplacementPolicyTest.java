@@ -0,0 +1,147 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    /** Accepts every page except the ones marked dirty. */
+    private static class SkipDirty implements ReplacementPolicy.VictimFilter {
+        final Set<PageId> dirty = new HashSet<PageId>();
+
+        public boolean canEvict(PageId pid) {
+            return !dirty.contains(pid);
+        }
+    }
+
+    private static PageId page(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    private static void addPages(ReplacementPolicy policy, int n) {
+        for (int i = 0; i < n; i++)
+            policy.pageAdded(page(i));
+    }
+
+    /**
+     * Every policy must skip pages the filter rejects and report null when
+     * nothing can be evicted.
+     */
+    @Test public void skipsRejectedPages() {
+        ReplacementPolicy.Factory[] factories = new ReplacementPolicy.Factory[] {
+                TimestampReplacementPolicy.FACTORY,
+                ClockReplacementPolicy.FACTORY,
+                LruKReplacementPolicy.FACTORY };
+        for (ReplacementPolicy.Factory factory : factories) {
+            ReplacementPolicy policy = factory.create(4);
+            addPages(policy, 4);
+            SkipDirty filter = new SkipDirty();
+            filter.dirty.add(page(0));
+            filter.dirty.add(page(1));
+            filter.dirty.add(page(3));
+            assertEquals(page(2), policy.chooseVictim(filter));
+
+            filter.dirty.add(page(2));
+            assertNull(policy.chooseVictim(filter));
+
+            policy.pageRemoved(page(2));
+            filter.dirty.clear();
+            PageId victim = policy.chooseVictim(filter);
+            assertTrue(victim != null && !victim.equals(page(2)));
+        }
+    }
+
+    /**
+     * CLOCK gives referenced pages a second chance.
+     */
+    @Test public void clockSecondChance() {
+        ReplacementPolicy policy = new ClockReplacementPolicy(3);
+        addPages(policy, 3);
+        SkipDirty filter = new SkipDirty();
+        // the first sweep clears all reference bits and takes page 0
+        assertEquals(page(0), policy.chooseVictim(filter));
+        policy.pageRemoved(page(0));
+        policy.pageAccessed(page(1));
+        assertEquals(page(2), policy.chooseVictim(filter));
+    }
+
+    /**
+     * LRU-K evicts pages with fewer than K references before hot pages, even
+     * if the hot pages were touched longer ago.
+     */
+    @Test public void lruKPrefersColdPages() {
+        ReplacementPolicy policy = new LruKReplacementPolicy(4, 2);
+        addPages(policy, 2);
+        policy.pageAccessed(page(0));
+        policy.pageAccessed(page(1));
+        policy.pageAdded(page(2));
+        SkipDirty filter = new SkipDirty();
+        assertEquals(page(2), policy.chooseVictim(filter));
+        policy.pageRemoved(page(2));
+        assertEquals(page(0), policy.chooseVictim(filter));
+
+        // a page that comes back keeps its reference count
+        policy.pageAdded(page(2));
+        policy.pageAdded(page(3));
+        assertEquals(page(3), policy.chooseVictim(filter));
+    }
+
+    /**
+     * LRU-K passes over dirty pages without changing their order: once
+     * cleaned, they are evicted before the pages used after them.
+     */
+    @Test public void lruKKeepsOrderOfDirtyPages() {
+        ReplacementPolicy policy = new LruKReplacementPolicy(4, 2);
+        addPages(policy, 4);
+        SkipDirty filter = new SkipDirty();
+        filter.dirty.add(page(0));
+        filter.dirty.add(page(1));
+        assertEquals(page(2), policy.chooseVictim(filter));
+        policy.pageRemoved(page(2));
+        policy.pageAdded(page(4));
+
+        filter.dirty.remove(page(1));
+        policy.pageCleaned(page(1));
+        assertEquals(page(1), policy.chooseVictim(filter));
+        policy.pageRemoved(page(1));
+
+        // a page used while set aside is the most recent again
+        policy.pageAccessed(page(0));
+        filter.dirty.remove(page(0));
+        policy.pageCleaned(page(0));
+        assertEquals(page(3), policy.chooseVictim(filter));
+    }
+
+    /**
+     * The pool must keep working once it is full, whatever the policy.
+     */
+    @Test public void bufferPoolEvicts() throws Exception {
+        HeapFile hf = simpledb.systemtest.SystemTestUtil.createRandomHeapFile(2, 504 * 6, null, null);
+        BufferPool bp = new BufferPool(3, LruKReplacementPolicy.FACTORY);
+        TransactionId tid = new TransactionId();
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < hf.numPages(); i++) {
+                HeapPageId pid = new HeapPageId(hf.getId(), i);
+                assertEquals(pid, bp.getPage(tid, pid, Permissions.READ_ONLY).getId());
+            }
+        }
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
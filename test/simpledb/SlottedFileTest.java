@@ -0,0 +1,116 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedFileTest extends SimpleDbTestBase {
+
+    private SlottedFile file;
+    private TupleDesc td;
+
+    @Before public void setUp() throws Exception {
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        file = new SlottedFile(f, td);
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+    }
+
+    private Tuple tuple(int n) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(n));
+        t.setField(1, new StringField("name" + n, Type.STRING_LEN));
+        return t;
+    }
+
+    private ArrayList<Tuple> scan(TransactionId tid) throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            tuples.add(it.next());
+        it.close();
+        return tuples;
+    }
+
+    private void insert(TransactionId tid, int from, int to) throws Exception {
+        for (int i = from; i < to; i++)
+            Database.getBufferPool().insertTuple(tid, file.getId(), tuple(i));
+    }
+
+    /** Inserted tuples come back from a scan, on far fewer pages than a HeapFile needs. */
+    @Test public void insertAndScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        insert(tid, 0, 2000);
+        Database.getBufferPool().transactionComplete(tid, true);
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        tid = new TransactionId();
+        ArrayList<Tuple> tuples = scan(tid);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(2000, tuples.size());
+        boolean[] seen = new boolean[2000];
+        for (Tuple t : tuples) {
+            int n = ((IntField) t.getField(0)).getValue();
+            assertTrue(TestUtil.compareTuples(tuple(n), t));
+            seen[n] = true;
+        }
+        for (boolean s : seen)
+            assertTrue(s);
+
+        int heapPages = (int) Math.ceil(2000.0
+                / ((BufferPool.getPageSize() - PageChecksum.SIZE) * 8 / (td.getSize() * 8 + 1)));
+        assertTrue(file.numPages() * 5 < heapPages);
+    }
+
+    /** An aborted insert leaves nothing behind. */
+    @Test public void abort() throws Exception {
+        TransactionId tid = new TransactionId();
+        insert(tid, 0, 10);
+        Database.getBufferPool().transactionComplete(tid, true);
+
+        tid = new TransactionId();
+        insert(tid, 10, 500);
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(10, scan(tid).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Space freed by deletes is used again instead of growing the file. */
+    @Test public void reuseSpace() throws Exception {
+        TransactionId tid = new TransactionId();
+        insert(tid, 0, 1000);
+        Database.getBufferPool().transactionComplete(tid, true);
+        int pages = file.numPages();
+
+        tid = new TransactionId();
+        for (Tuple t : scan(tid))
+            Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid, true);
+
+        tid = new TransactionId();
+        assertEquals(0, scan(tid).size());
+        insert(tid, 5000, 6000);
+        Database.getBufferPool().transactionComplete(tid, true);
+        assertEquals(pages, file.numPages());
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedFileTest.class);
+    }
+}
@@ -0,0 +1,163 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+    private TupleDesc td;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws IOException {
+        this.pid = new HeapPageId(-1, -1);
+        this.td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple tuple(int n, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(n));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    private static ArrayList<Tuple> contents(SlottedPage page) {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            tuples.add(it.next());
+        return tuples;
+    }
+
+    /** Tuples keep their values and slots through getPageData and back. */
+    @Test public void roundTrip() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        assertEquals(0, page.getNumTuples());
+        for (int i = 0; i < 10; i++)
+            page.insertTuple(tuple(i, "name" + i));
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        ArrayList<Tuple> tuples = contents(copy);
+        assertEquals(10, tuples.size());
+        for (int i = 0; i < 10; i++) {
+            assertTrue(TestUtil.compareTuples(tuple(i, "name" + i), tuples.get(i)));
+            assertEquals(new RecordId(pid, i), tuples.get(i).getRecordId());
+        }
+    }
+
+    /** Short strings are not padded, so a page holds far more of them than a HeapPage. */
+    @Test public void variableLength() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, "abcdefgh")))
+            page.insertTuple(tuple(n++, "abcdefgh"));
+        // 4 + 4 + 8 bytes of record and 4 of slot entry per tuple
+        assertEquals((BufferPool.getPageSize() - PageChecksum.SIZE - SlottedPage.HEADER_SIZE) / 20, n);
+        assertTrue(n > 6 * (BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1)));
+        try {
+            page.insertTuple(tuple(n, "abcdefgh"));
+            throw new Exception("page should be full; expected DbException");
+        } catch (DbException e) {
+            // explicitly ignored
+        }
+    }
+
+    /** Holes left by deletes are reused through compaction, and records keep their slots. */
+    @Test public void compact() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        while (page.hasRoomFor(tuple(0, "0123456789"))) {
+            Tuple t = tuple(inserted.size(), "0123456789");
+            page.insertTuple(t);
+            inserted.add(t);
+        }
+        int free = page.getFreeSpace();
+        for (int i = 0; i < inserted.size(); i += 2)
+            page.deleteTuple(inserted.get(i));
+        assertTrue(page.getFreeSpace() > free);
+
+        // a longer record needs the holes to be joined
+        Tuple big = tuple(-1, "a string too long for any one hole");
+        page.insertTuple(big);
+        assertEquals(new RecordId(pid, 0), big.getRecordId());
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        for (Tuple t : contents(copy)) {
+            int slot = t.getRecordId().getTupleNumber();
+            if (slot == 0)
+                assertTrue(TestUtil.compareTuples(big, t));
+            else
+                assertTrue(TestUtil.compareTuples(inserted.get(slot), t));
+        }
+
+        // compacting an empty page drops its whole slot directory
+        for (Tuple t : contents(copy))
+            copy.deleteTuple(t);
+        copy.compact();
+        assertEquals(0, copy.getNumSlots());
+        assertEquals(BufferPool.getPageSize() - PageChecksum.SIZE - SlottedPage.HEADER_SIZE,
+                copy.getFreeSpace());
+    }
+
+    /** Slot changes read from a page and applied to its before image give the page back. */
+    @Test public void applySlots() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        Tuple a = tuple(1, "a"), b = tuple(2, "bb");
+        page.insertTuple(a);
+        page.insertTuple(b);
+        page.setBeforeImage();
+
+        page.deleteTuple(a);
+        page.insertTuple(tuple(3, "ccc"));
+        page.insertTuple(tuple(4, "dddd"));
+        assertArrayEquals(new int[] { 0, 2 }, page.changedSlots());
+        assertNull(page.beforeSlotData(2));
+
+        SlottedPage redone = page.getBeforeImage();
+        for (int slot : page.changedSlots())
+            redone.applySlot(slot, page.slotData(slot));
+        assertEquals(contents(page).size(), contents(redone).size());
+        for (int slot = 0; slot < 3; slot++)
+            assertArrayEquals(page.slotData(slot), redone.slotData(slot));
+
+        for (int slot : page.changedSlots())
+            redone.applySlot(slot, page.beforeSlotData(slot));
+        assertFalse(redone.isSlotUsed(2));
+        assertTrue(TestUtil.compareTuples(a, contents(redone).get(0)));
+        assertTrue(TestUtil.compareTuples(b, contents(redone).get(1)));
+    }
+
+    /** A corrupted page is refused. */
+    @Test(expected=IOException.class)
+    public void checksum() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        page.insertTuple(tuple(1, "x"));
+        byte[] data = page.getPageData();
+        data[data.length - PageChecksum.SIZE - 1] ^= 1;
+        new SlottedPage(pid, data);
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
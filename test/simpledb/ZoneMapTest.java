@@ -0,0 +1,132 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+
+    private File data;
+    private HeapFile file;
+
+    /** A table of two INT columns loaded in order: row i is (i, i % 7). */
+    @Before public void setUp() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++)
+            rows.add(new ArrayList<Integer>(Arrays.asList(i, i % 7)));
+        data = File.createTempFile("zones", ".dat");
+        data.deleteOnExit();
+        HeapFileEncoder.convert(rows, data, BufferPool.getPageSize(), 2);
+        file = new HeapFile(data, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+    }
+
+    /** Scans with predicates, and returns the tuples that satisfy them and, in pages, the pages read. */
+    private ArrayList<Tuple> scan(List<Predicate> predicates, HashSet<Integer> pages) throws Exception {
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        DbFileIterator it = file.iterator(tid, predicates);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            pages.add(t.getRecordId().getPageId().getPageNumber());
+            boolean match = true;
+            for (Predicate p : predicates)
+                match &= p.filter(t);
+            if (match)
+                tuples.add(t);
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return tuples;
+    }
+
+    private static List<Predicate> range(int from, int to) {
+        return Arrays.asList(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(from)),
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(to)));
+    }
+
+    /** Once the pages have been read, a range scan reads only the pages that hold the range. */
+    @Test public void skipPages() throws Exception {
+        HashSet<Integer> pages = new HashSet<Integer>();
+        assertEquals(ROWS, scan(new ArrayList<Predicate>(), pages).size());
+        assertEquals(file.numPages(), pages.size());
+
+        pages.clear();
+        assertEquals(100, scan(range(2000, 2100), pages).size());
+        assertTrue(pages.size() <= 2);
+
+        // a predicate on a column whose range is the same on every page rules nothing out
+        pages.clear();
+        List<Predicate> other = Arrays.asList(new Predicate(1, Predicate.Op.EQUALS, new IntField(3)));
+        assertEquals(ROWS / 7, scan(other, pages).size());
+        assertEquals(file.numPages(), pages.size());
+    }
+
+    /** A tuple inserted outside a page's range widens it, and a scan for the tuple finds it. */
+    @Test public void insertWidens() throws Exception {
+        HashSet<Integer> pages = new HashSet<Integer>();
+        scan(new ArrayList<Predicate>(), pages);
+
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(file.getTupleDesc());
+        t.setField(0, new IntField(-5));
+        t.setField(1, new IntField(0));
+        Database.getBufferPool().insertTuple(tid, file.getId(), t);
+        Database.getBufferPool().transactionComplete(tid, true);
+
+        pages.clear();
+        assertEquals(1, scan(range(-10, 0), pages).size());
+        assertEquals(1, pages.size());
+    }
+
+    /** The ranges are saved with the table and used without reading the pages again, unless the data changed. */
+    @Test public void keepAcrossRuns() throws Exception {
+        File sidecar = new File(data.getPath() + ".zone");
+        sidecar.deleteOnExit();
+        file.keepZoneMap(sidecar);
+        HashSet<Integer> pages = new HashSet<Integer>();
+        scan(new ArrayList<Predicate>(), pages);
+        file.close();
+        Database.reset();
+        assertTrue(sidecar.exists());
+
+        file = new HeapFile(data, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+        file.keepZoneMap(sidecar);
+        pages.clear();
+        assertEquals(10, scan(range(4990, 5000), pages).size());
+        assertEquals(1, pages.size());
+
+        // the data file changed behind the saved ranges' back
+        file.close();
+        Database.reset();
+        assertTrue(data.setLastModified(data.lastModified() + 10000));
+        file = new HeapFile(data, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+        file.keepZoneMap(sidecar);
+        pages.clear();
+        assertEquals(10, scan(range(4990, 5000), pages).size());
+        assertEquals(file.numPages(), pages.size());
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
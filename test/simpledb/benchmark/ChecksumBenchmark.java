@@ -0,0 +1,75 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.zip.CRC32C;
+
+import simpledb.BufferPool;
+import simpledb.Database;
+import simpledb.HeapFile;
+import simpledb.HeapPage;
+import simpledb.HeapPageId;
+import simpledb.Utility;
+
+/**
+ * Measures what page checksums cost: the CRC32C of one page on its own,
+ * next to serializing a full heap page (which sets the checksum) and
+ * parsing it back (which checks it).
+ * <p>
+ * Usage: ant runbench -Dbench=ChecksumBenchmark [-Dargs="pages"]
+ */
+public class ChecksumBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+
+        File file = File.createTempFile("checksum-bench", ".dat");
+        file.deleteOnExit();
+        Database.reset();
+        HeapFile hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        while (page.getNumEmptySlots() > 0)
+            page.insertTuple(Utility.getHeapTuple(page.getNumEmptySlots(), 2));
+        byte[] data = page.getPageData();
+
+        System.out.printf("%-22s %10s %12s %10s%n", "operation", "pages", "us/page", "MB/s");
+        // the first round warms up the JIT and is not reported
+        for (int round = 0; round < 2; round++) {
+            int count = pages / (round == 0 ? 10 : 1);
+            boolean report = round == 1;
+
+            CRC32C crc = new CRC32C();
+            long sink = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                crc.reset();
+                crc.update(data, 0, data.length);
+                sink += crc.getValue();
+            }
+            if (report)
+                print("crc32c", count, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++)
+                sink += page.getPageData().length;
+            if (report)
+                print("getPageData (set)", count, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++)
+                sink += new HeapPage(pid, data).getNumEmptySlots();
+            if (report)
+                print("new HeapPage (verify)", count, System.nanoTime() - start);
+
+            if (sink == 42)
+                System.out.println();
+        }
+        file.delete();
+    }
+
+    private static void print(String name, int count, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.printf("%-22s %10d %12.2f %10.1f%n", name, count, seconds * 1e6 / count,
+                (double) count * BufferPool.getPageSize() / (1024.0 * 1024.0) / seconds);
+    }
+}
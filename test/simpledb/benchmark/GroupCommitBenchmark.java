@@ -0,0 +1,77 @@
+package simpledb.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.Database;
+import simpledb.LogFile;
+import simpledb.Transaction;
+
+/**
+ * Measures commit throughput with many threads committing at once, with
+ * group commit off (each commit forces the log itself) and with a few
+ * group commit windows. The transactions are empty, so the log force is
+ * all there is to a commit.
+ * <p>
+ * Usage: ant runbench -Dbench=GroupCommitBenchmark [-Dargs="threads seconds"]
+ */
+public class GroupCommitBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 3;
+
+        System.out.printf("%d committing threads, %.1f s per run%n", threads, seconds);
+        System.out.printf("%-16s %12s %14s%n", "window", "commits/s", "ms/commit");
+
+        // the first run warms up the JIT and is not reported
+        run(threads, seconds / 2, -1, false);
+        long[] windows = { -1, 0, 100, 1000 };
+        for (long window : windows)
+            run(threads, seconds, window, true);
+    }
+
+    private static void run(int threads, double seconds, long window, boolean report)
+            throws Exception {
+        Database.reset();
+        final LogFile log = Database.getLogFile();
+        log.setGroupCommitWindow(window);
+        // the log file is truncated on its first record, not when it is opened
+        Transaction first = new Transaction();
+        first.start();
+        first.commit();
+
+        final AtomicLong commits = new AtomicLong();
+        final long deadline = System.nanoTime() + (long) (seconds * 1e9);
+        final CountDownLatch done = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            new Thread() {
+                public void run() {
+                    try {
+                        while (System.nanoTime() < deadline) {
+                            Transaction t = new Transaction();
+                            t.start();
+                            t.commit();
+                            commits.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        if (report) {
+            // each thread has one commit in flight at a time
+            System.out.printf("%-16s %12.0f %14.2f%n",
+                    window < 0 ? "off" : window + " us",
+                    commits.get() / elapsed,
+                    threads * elapsed * 1000 / commits.get());
+        }
+    }
+}
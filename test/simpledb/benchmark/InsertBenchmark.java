@@ -0,0 +1,66 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import simpledb.BufferPool;
+import simpledb.Database;
+import simpledb.HeapFile;
+import simpledb.HeapFileEncoder;
+import simpledb.TransactionId;
+import simpledb.Utility;
+
+/**
+ * Times inserts through the buffer pool into heap files of increasing
+ * size whose pages are all full, committing every hundred inserts, to
+ * show that finding a page with room does not depend on the size of the
+ * table.
+ * <p>
+ * Usage: ant runbench -Dbench=InsertBenchmark [-Dargs="inserts"]
+ */
+public class InsertBenchmark {
+
+    private static final int[] PAGES = { 100, 1000, 10000 };
+
+    public static void main(String[] args) throws Exception {
+        int inserts = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int slots = ((BufferPool.getPageSize() - 4) * 8) / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+
+        System.out.printf("%d inserts%n", inserts);
+        System.out.printf("%-10s %12s %12s%n", "pages", "us/insert", "pages after");
+        // the first round warms up the JIT and is not reported
+        for (int round = 0; round < 2; round++) {
+            for (int pages : PAGES) {
+                Database.reset();
+                ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+                for (int i = 0; i < pages * slots; i++) {
+                    ArrayList<Integer> tuple = new ArrayList<Integer>();
+                    tuple.add(i);
+                    tuple.add(i);
+                    tuples.add(tuple);
+                }
+                File data = File.createTempFile("insert-bench", ".dat");
+                data.deleteOnExit();
+                HeapFileEncoder.convert(tuples, data, BufferPool.getPageSize(), 2);
+                tuples = null;
+                HeapFile file = new HeapFile(data, Utility.getTupleDesc(2));
+                Database.getCatalog().addTable(file, "inserts");
+
+                long start = System.nanoTime();
+                TransactionId tid = new TransactionId();
+                for (int i = 0; i < inserts; i++) {
+                    Database.getBufferPool().insertTuple(tid, file.getId(), Utility.getHeapTuple(i, 2));
+                    if (i % 100 == 99) {
+                        Database.getBufferPool().transactionComplete(tid, true);
+                        tid = new TransactionId();
+                    }
+                }
+                Database.getBufferPool().transactionComplete(tid, true);
+                long nanos = System.nanoTime() - start;
+                if (round == 1)
+                    System.out.printf("%-10d %12.1f %12d%n", pages, nanos / 1e3 / inserts, file.numPages());
+                data.delete();
+            }
+        }
+    }
+}
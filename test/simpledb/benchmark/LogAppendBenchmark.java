@@ -0,0 +1,77 @@
+package simpledb.benchmark;
+
+import java.io.File;
+
+import simpledb.Database;
+import simpledb.HeapFile;
+import simpledb.HeapPage;
+import simpledb.HeapPageId;
+import simpledb.LogFile;
+import simpledb.Transaction;
+import simpledb.TransactionId;
+import simpledb.Utility;
+
+/**
+ * Measures the cost of appending records to the log: UPDATE records with
+ * page images, and BEGIN/COMMIT pairs of empty transactions with group
+ * commit off, so each commit also forces the log.
+ * <p>
+ * Usage: ant runbench -Dbench=LogAppendBenchmark [-Dargs="updates commits"]
+ */
+public class LogAppendBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int updates = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int commits = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+
+        System.out.printf("%-22s %10s %12s %10s%n", "record", "count", "us/record", "MB/s");
+        // the first round warms up the JIT and is not reported
+        for (int round = 0; round < 2; round++) {
+            updates(updates / (round == 0 ? 10 : 1), round == 1);
+            commits(commits / (round == 0 ? 10 : 1), round == 1);
+        }
+    }
+
+    private static void updates(int count, boolean report) throws Exception {
+        File file = File.createTempFile("log-bench", ".dat");
+        file.deleteOnExit();
+        Database.reset();
+        HeapFile hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        LogFile log = Database.getLogFile();
+        Transaction t = new Transaction();
+        t.start();
+        TransactionId tid = t.getId();
+
+        long startOffset = log.getCurrentLSN();
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++)
+            log.logWrite(tid, page, page);
+        log.force();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long bytes = log.getCurrentLSN() - startOffset;
+        if (report)
+            print("update (2 page images)", count, seconds, bytes);
+        file.delete();
+    }
+
+    private static void commits(int count, boolean report) throws Exception {
+        Database.reset();
+        LogFile log = Database.getLogFile();
+        log.setGroupCommitWindow(-1);
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            t.commit();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (report)
+            print("begin + forced commit", count, seconds, log.getSize());
+    }
+
+    private static void print(String name, int count, double seconds, long bytes) {
+        System.out.printf("%-22s %10d %12.2f %10.1f%n", name, count,
+                seconds * 1e6 / count, bytes / (1024.0 * 1024.0) / seconds);
+    }
+}
@@ -0,0 +1,104 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import simpledb.BufferPool;
+import simpledb.Database;
+import simpledb.DbFile;
+import simpledb.HeapFile;
+import simpledb.HeapFileEncoder;
+import simpledb.IntField;
+import simpledb.PaxFile;
+import simpledb.PaxFileEncoder;
+import simpledb.SeqScan;
+import simpledb.TransactionId;
+import simpledb.Tuple;
+import simpledb.TupleDesc;
+import simpledb.Utility;
+
+/**
+ * Stores the same wide table of INT columns as a HeapFile and as a
+ * PaxFile and times scans through a warm buffer pool that read two of its
+ * columns, the way a query filtering on one column and summing another
+ * does, and that read all of them.
+ * <p>
+ * Usage: ant runbench -Dbench=PaxScanBenchmark [-Dargs="rows columns passes"]
+ */
+public class PaxScanBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int columns = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int passes = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            for (int j = 0; j < columns; j++)
+                tuple.add(i * 31 + j);
+            tuples.add(tuple);
+        }
+        TupleDesc td = Utility.getTupleDesc(columns, "c");
+        Database.reset();
+        File heapData = File.createTempFile("heap-bench", ".dat");
+        heapData.deleteOnExit();
+        HeapFileEncoder.convert(tuples, heapData, BufferPool.getPageSize(), columns);
+        HeapFile heap = new HeapFile(heapData, td);
+        Database.getCatalog().addTable(heap, "heap");
+        File paxData = File.createTempFile("pax-bench", ".dat");
+        paxData.deleteOnExit();
+        PaxFileEncoder.convert(tuples, paxData, BufferPool.getPageSize(), columns);
+        PaxFile pax = new PaxFile(paxData, td);
+        Database.getCatalog().addTable(pax, "pax");
+        tuples = null;
+        Database.resetBufferPool(heap.numPages() + pax.numPages() + 10);
+
+        boolean[] two = new boolean[columns];
+        two[0] = true;
+        two[columns - 1] = true;
+        System.out.printf("%d rows, %d columns, %d pages, %d passes%n", rows, columns, heap.numPages(), passes);
+        System.out.printf("%-8s %-10s %10s %12s%n", "file", "columns", "scan ms", "ns/tuple");
+        // the first round warms up the JIT and is not reported
+        for (int round = 0; round < 2; round++) {
+            int n = round == 0 ? 1 : passes;
+            scan("heap", heap, "2", two, n, rows, round == 1);
+            scan("pax", pax, "2", two, n, rows, round == 1);
+            scan("heap", heap, "all", null, n, rows, round == 1);
+            scan("pax", pax, "all", null, n, rows, round == 1);
+        }
+        heapData.delete();
+        paxData.delete();
+    }
+
+    private static void scan(String name, DbFile file, String label, boolean[] columns,
+            int passes, int rows, boolean report) throws Exception {
+        int numFields = file.getTupleDesc().numFields();
+        long sink = 0;
+        long start = System.nanoTime();
+        for (int pass = 0; pass < passes; pass++) {
+            TransactionId tid = new TransactionId();
+            SeqScan ss = new SeqScan(tid, file.getId(), name);
+            ss.setColumns(columns);
+            ss.open();
+            while (ss.hasNext()) {
+                Tuple t = ss.next();
+                if (columns != null) {
+                    if (((IntField) t.getField(0)).getValue() % 2 == 0)
+                        sink += ((IntField) t.getField(numFields - 1)).getValue();
+                } else {
+                    for (int j = 0; j < numFields; j++)
+                        sink += ((IntField) t.getField(j)).getValue();
+                }
+            }
+            ss.close();
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        long nanos = System.nanoTime() - start;
+        if (sink == 42)
+            System.out.println();
+        if (report)
+            System.out.printf("%-8s %-10s %10.1f %12.1f%n", name, label, nanos / 1e6 / passes,
+                    (double) nanos / ((long) rows * passes));
+    }
+}
@@ -0,0 +1,131 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import simpledb.BufferPool;
+import simpledb.Database;
+import simpledb.HeapFile;
+import simpledb.HeapPage;
+import simpledb.HeapPageId;
+import simpledb.IntField;
+import simpledb.LogFile;
+import simpledb.Transaction;
+import simpledb.Tuple;
+import simpledb.Utility;
+
+/**
+ * Measures how fast LogFile.recover() gets through the log after a crash.
+ * Each run commits a stream of small insert transactions, leaves one more
+ * transaction unfinished with its pages stolen to disk, then simulates a
+ * crash and times recovery. It reports how long a checkpoint took on
+ * average, the log size at the crash, the part of it after the last
+ * checkpoint, and the recovery throughput in MB of log per second. Runs with
+ * checkpoints show recovery time following the checkpoint interval instead
+ * of the log length. The last runs log whole page images of a file of
+ * IMAGE_PAGES pages instead of the inserts, as after structural changes,
+ * for a tenth of the transactions; their throughput is mostly the rate at
+ * which images are decoded and written back, first with redo on one
+ * thread and then on redoThreads.
+ * <p>
+ * Usage: ant runbench -Dbench=RecoveryBenchmark [-Dargs="transactions rows redoThreads"]
+ */
+public class RecoveryBenchmark {
+
+    private static final double MB = 1024.0 * 1024.0;
+    private static final int IMAGE_PAGES = 500;
+
+    public static void main(String[] args) throws Exception {
+        int transactions = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int rows = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Math.max(4, LogFile.DEFAULT_REDO_THREADS);
+
+        System.out.printf("%d transactions of %d inserts%n", transactions, rows);
+        System.out.printf("%-14s %8s %10s %12s %12s %10s%n",
+                "checkpoints", "cp ms", "log MB", "after cp MB", "recover ms", "MB/s");
+
+        // the first run warms up the JIT and is not reported
+        run(transactions, rows, 0, false, 1, false);
+        run(transactions, rows, 0, false, 1, true);
+        run(transactions, rows, transactions / 10, false, 1, true);
+        run(transactions, rows, transactions / 100, false, 1, true);
+        run(transactions / 10, rows, 0, true, 1, true);
+        run(transactions / 10, rows, 0, true, threads, true);
+    }
+
+    private static void run(int transactions, int rows, int checkpointEvery, boolean images,
+            int redoThreads, boolean report) throws Exception {
+        File file = File.createTempFile("recovery-bench", ".dat");
+        file.deleteOnExit();
+        Database.reset();
+        HeapFile hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        if (images) {
+            // zeroed pages are empty heap pages
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength((long) IMAGE_PAGES * BufferPool.getPageSize());
+            raf.close();
+        }
+
+        int value = 0;
+        int checkpoints = 0;
+        long checkpointNanos = 0;
+        for (int i = 1; i <= transactions; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            for (int j = 0; j < rows; j++) {
+                if (images)
+                    logImage(hf, t, value++);
+                else
+                    insert(hf, t, value++);
+            }
+            t.commit();
+            if (checkpointEvery > 0 && i % checkpointEvery == 0 && i < transactions) {
+                long cpStart = System.nanoTime();
+                Database.getLogFile().logCheckpoint();
+                checkpointNanos += System.nanoTime() - cpStart;
+                checkpoints++;
+            }
+        }
+
+        // an unfinished transaction whose pages reached the disk
+        Transaction loser = new Transaction();
+        loser.start();
+        for (int j = 0; j < rows; j++)
+            insert(hf, loser, -1);
+        Database.getBufferPool().flushAllPages();
+
+        LogFile log = Database.getLogFile();
+        long logBytes = log.getSize();
+        long checkpoint = log.getCheckpointLSN();
+        long redoBytes = checkpoint < 0 ? logBytes : log.getCurrentLSN() - checkpoint;
+
+        // crash, reopen the table and recover
+        Database.reset();
+        Utility.openHeapFile(2, file);
+        Database.getLogFile().setRedoThreads(redoThreads);
+        long start = System.nanoTime();
+        Database.getLogFile().recover();
+        double ms = (System.nanoTime() - start) / 1e6;
+
+        if (report) {
+            System.out.printf("%-14s %8.2f %10.2f %12.2f %12.1f %10.1f%n",
+                    images ? "images, " + redoThreads + " thr" : checkpointEvery == 0 ? "none" : "every " + checkpointEvery,
+                    checkpoints == 0 ? 0 : checkpointNanos / 1e6 / checkpoints,
+                    logBytes / MB, redoBytes / MB, ms, logBytes / MB / (ms / 1000));
+        }
+        file.delete();
+    }
+
+    private static void insert(HeapFile hf, Transaction t, int value) throws Exception {
+        Tuple tuple = new Tuple(Utility.getTupleDesc(2));
+        tuple.setField(0, new IntField(value));
+        tuple.setField(1, new IntField(value));
+        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), tuple);
+    }
+
+    /** Logs an UPDATE record with before and after images of one of the file's pages. */
+    private static void logImage(HeapFile hf, Transaction t, int value) throws Exception {
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), value % hf.numPages()));
+        Database.getLogFile().logWrite(t.getId(), page, page);
+    }
+}
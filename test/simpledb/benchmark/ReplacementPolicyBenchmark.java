@@ -0,0 +1,96 @@
+package simpledb.benchmark;
+
+import java.util.HashSet;
+import java.util.Random;
+
+import simpledb.ClockReplacementPolicy;
+import simpledb.HeapPageId;
+import simpledb.LruKReplacementPolicy;
+import simpledb.PageId;
+import simpledb.ReplacementPolicy;
+import simpledb.TimestampReplacementPolicy;
+
+/**
+ * Replays the same page reference trace against each replacement policy and
+ * reports hit ratio and the average cost of picking a victim. The trace mixes
+ * a skewed point-lookup workload (80% of references to 20% of the pages) with
+ * an occasional sequential scan, and one page in fifty is treated as dirty
+ * (never evictable).
+ * <p>
+ * Usage: ant runbench -Dbench=ReplacementPolicyBenchmark [-Dargs="frames pages refs"]
+ */
+public class ReplacementPolicyBenchmark {
+
+    public static void main(String[] args) {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int pages = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        int refs = args.length > 2 ? Integer.parseInt(args[2]) : 500000;
+
+        PageId[] trace = makeTrace(pages, refs, new Random(42));
+        System.out.printf("%d frames, %d pages, %d references%n", frames, pages, refs);
+        System.out.printf("%-12s %10s %12s %14s%n", "policy", "hit ratio", "evictions", "ns/eviction");
+
+        // run every policy twice and report the second pass, after JIT warmup
+        for (int pass = 0; pass < 2; pass++) {
+            run("timestamp", TimestampReplacementPolicy.FACTORY, frames, trace, pass == 1);
+            run("clock", ClockReplacementPolicy.FACTORY, frames, trace, pass == 1);
+            run("lru-2", LruKReplacementPolicy.FACTORY, frames, trace, pass == 1);
+        }
+    }
+
+    private static PageId[] makeTrace(int pages, int refs, Random rand) {
+        PageId[] trace = new PageId[refs];
+        int hot = Math.max(1, pages / 5);
+        int i = 0;
+        while (i < refs) {
+            if (rand.nextInt(1000) == 0) {
+                // a scan over a run of cold pages
+                int start = hot + rand.nextInt(pages - hot);
+                for (int j = 0; j < 2000 && i < refs; j++)
+                    trace[i++] = new HeapPageId(1, hot + (start - hot + j) % (pages - hot));
+            } else if (rand.nextInt(10) < 8) {
+                trace[i++] = new HeapPageId(1, rand.nextInt(hot));
+            } else {
+                trace[i++] = new HeapPageId(1, hot + rand.nextInt(pages - hot));
+            }
+        }
+        return trace;
+    }
+
+    private static void run(String name, ReplacementPolicy.Factory factory, int frames,
+                            PageId[] trace, boolean report) {
+        ReplacementPolicy policy = factory.create(frames);
+        HashSet<PageId> resident = new HashSet<PageId>(frames * 2);
+        ReplacementPolicy.VictimFilter filter = new ReplacementPolicy.VictimFilter() {
+            public boolean canEvict(PageId pid) {
+                return pid.getPageNumber() % 50 != 0;
+            }
+        };
+
+        long hits = 0, evictions = 0, evictNanos = 0;
+        for (PageId pid : trace) {
+            if (resident.contains(pid)) {
+                hits++;
+                policy.pageAccessed(pid);
+                continue;
+            }
+            if (resident.size() >= frames) {
+                long start = System.nanoTime();
+                PageId victim = policy.chooseVictim(filter);
+                evictNanos += System.nanoTime() - start;
+                evictions++;
+                if (victim == null)
+                    throw new IllegalStateException(name + ": no victim");
+                policy.pageRemoved(victim);
+                resident.remove(victim);
+            }
+            resident.add(pid);
+            policy.pageAdded(pid);
+        }
+
+        if (report) {
+            System.out.printf("%-12s %10.4f %12d %14.1f%n", name, hits / (double) trace.length,
+                    evictions, evictions == 0 ? 0.0 : evictNanos / (double) evictions);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.Random;
+
+import simpledb.BufferPool;
+import simpledb.Database;
+import simpledb.DbFile;
+import simpledb.DbFileIterator;
+import simpledb.HeapFile;
+import simpledb.HeapPage;
+import simpledb.HeapPageId;
+import simpledb.IntField;
+import simpledb.SlottedFile;
+import simpledb.SlottedPage;
+import simpledb.StringField;
+import simpledb.TransactionId;
+import simpledb.Tuple;
+import simpledb.TupleDesc;
+import simpledb.Type;
+
+/**
+ * Stores the same table of an INT and a short STRING (4 to 12 characters)
+ * as a HeapFile, which pads every string to Type.STRING_LEN, and as a
+ * SlottedFile, and reports the pages each takes and how long a full scan
+ * through a cold buffer pool takes.
+ * <p>
+ * Usage: ant runbench -Dbench=SlottedFileBenchmark [-Dargs="rows"]
+ */
+public class SlottedFileBenchmark {
+
+    private static final TupleDesc TD = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+        Database.reset();
+        File heapData = File.createTempFile("heap-bench", ".dat");
+        heapData.deleteOnExit();
+        HeapFile heap = new HeapFile(heapData, TD);
+        Database.getCatalog().addTable(heap, "heap");
+        File slottedData = File.createTempFile("slotted-bench", ".dat");
+        slottedData.deleteOnExit();
+        SlottedFile slotted = new SlottedFile(slottedData, TD);
+        Database.getCatalog().addTable(slotted, "slotted");
+        load(heap, rows, false);
+        load(slotted, rows, true);
+
+        System.out.printf("%d rows%n", rows);
+        System.out.printf("%-10s %8s %10s %10s %12s%n", "file", "pages", "MB", "scan ms", "ns/tuple");
+        // the first round warms up the JIT and is not reported
+        for (int round = 0; round < 2; round++) {
+            scan("heap", heap, heap.numPages(), rows, round == 1);
+            scan("slotted", slotted, slotted.numPages(), rows, round == 1);
+        }
+        heapData.delete();
+        slottedData.delete();
+    }
+
+    /** Fills pages directly and writes each one as it fills, bypassing the buffer pool. */
+    private static void load(DbFile file, int rows, boolean isSlotted) throws Exception {
+        Random rand = new Random(42);
+        int pgNo = 0;
+        HeapPageId pid = new HeapPageId(file.getId(), pgNo);
+        HeapPage heapPage = isSlotted ? null : new HeapPage(pid, HeapPage.createEmptyPageData());
+        SlottedPage slottedPage = isSlotted ? new SlottedPage(pid, SlottedPage.createEmptyPageData()) : null;
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(i));
+            StringBuilder name = new StringBuilder();
+            for (int len = 4 + rand.nextInt(9); len > 0; len--)
+                name.append((char) ('a' + rand.nextInt(26)));
+            t.setField(1, new StringField(name.toString(), Type.STRING_LEN));
+
+            boolean full = isSlotted ? !slottedPage.hasRoomFor(t) : heapPage.getNumEmptySlots() == 0;
+            if (full) {
+                file.writePage(isSlotted ? slottedPage : heapPage);
+                pid = new HeapPageId(file.getId(), ++pgNo);
+                if (isSlotted)
+                    slottedPage = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+                else
+                    heapPage = new HeapPage(pid, HeapPage.createEmptyPageData());
+            }
+            if (isSlotted)
+                slottedPage.insertTuple(t);
+            else
+                heapPage.insertTuple(t);
+        }
+        file.writePage(isSlotted ? slottedPage : heapPage);
+    }
+
+    private static void scan(String name, DbFile file, int pages, int rows, boolean report)
+            throws Exception {
+        Database.resetBufferPool(Math.max(pages, rows / 100) + 10);
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        long nanos = System.nanoTime() - start;
+        Database.getBufferPool().transactionComplete(tid);
+        if (count != rows)
+            throw new IllegalStateException(name + " scan returned " + count + " of " + rows + " rows");
+        if (report)
+            System.out.printf("%-10s %8d %10.1f %10.1f %12.1f%n", name, pages,
+                    pages * (double) BufferPool.getPageSize() / (1024.0 * 1024.0),
+                    nanos / 1e6, (double) nanos / rows);
+    }
+}
@@ -0,0 +1,112 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+
+import simpledb.BufferPool;
+import simpledb.Database;
+import simpledb.HeapFile;
+import simpledb.HeapPage;
+import simpledb.HeapPageId;
+import simpledb.IntField;
+import simpledb.StringField;
+import simpledb.Tuple;
+import simpledb.TupleDesc;
+import simpledb.Type;
+
+/**
+ * Measures the cost of turning the pages of a heap file into tuples:
+ * reading each page with HeapFile.readPage, iterating over its tuples and
+ * reading none, one or all of their fields, the way a scan under a
+ * selective filter, a filter on one column, and a full projection do.
+ * Reports time and bytes allocated per tuple; pages are read from the OS
+ * cache, so most of the time is decoding.
+ * <p>
+ * Each case is run with pages read through the file's channel and through
+ * a memory mapping (see HeapFile#setMemoryMapped). A mapped read saves the
+ * system call but still copies the page out of the mapping, so both
+ * allocate a page's bytes per page read.
+ * <p>
+ * Usage: ant runbench -Dbench=TupleDecodeBenchmark [-Dargs="pages passes"]
+ */
+public class TupleDecodeBenchmark {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE, Type.STRING_TYPE });
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int passes = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Database.reset();
+        File data = File.createTempFile("decode-bench", ".dat");
+        data.deleteOnExit();
+        HeapFile file = new HeapFile(data, TD);
+        Database.getCatalog().addTable(file, "decode");
+        int rows = load(file, pages);
+
+        System.out.printf("%d pages, %d rows, %d passes%n", pages, rows, passes);
+        System.out.printf("%-8s %-14s %12s %14s%n", "read", "fields read", "ns/tuple", "bytes/tuple");
+        // the first round warms up the JIT and is not reported
+        for (int round = 0; round < 2; round++) {
+            int n = round == 0 ? 1 : passes;
+            for (boolean mapped : new boolean[] { false, true }) {
+                file.setMemoryMapped(mapped);
+                String read = mapped ? "mmap" : "channel";
+                run(read, "none", file, 0, n, rows, round == 1);
+                run(read, "one int", file, 1, n, rows, round == 1);
+                run(read, "all", file, TD.numFields(), n, rows, round == 1);
+            }
+        }
+        data.delete();
+    }
+
+    private static int load(HeapFile file, int pages) throws Exception {
+        int rows = 0;
+        for (int p = 0; p < pages; p++) {
+            HeapPage page = new HeapPage(new HeapPageId(file.getId(), p), HeapPage.createEmptyPageData());
+            while (page.getNumEmptySlots() > 0) {
+                Tuple t = new Tuple(TD);
+                t.setField(0, new IntField(rows));
+                t.setField(1, new StringField("name" + rows, Type.STRING_LEN));
+                t.setField(2, new IntField(rows % 100));
+                t.setField(3, new StringField("city" + rows % 1000, Type.STRING_LEN));
+                page.insertTuple(t);
+                rows++;
+            }
+            file.writePage(page);
+        }
+        return rows;
+    }
+
+    private static void run(String read, String name, HeapFile file, int fields, int passes, int rows,
+            boolean report) throws Exception {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long sink = 0;
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int pass = 0; pass < passes; pass++) {
+            for (int p = 0; p < file.numPages(); p++) {
+                HeapPage page = (HeapPage) file.readPage(new HeapPageId(file.getId(), p));
+                Iterator<Tuple> it = page.iterator();
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    for (int i = 0; i < fields; i++)
+                        sink += t.getField(i).hashCode();
+                }
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+        if (sink == 42)
+            System.out.println();
+        if (report) {
+            long tuples = (long) rows * passes;
+            System.out.printf("%-8s %-14s %12.1f %14.1f%n", read, name, (double) nanos / tuples,
+                    (double) allocated / tuples);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import simpledb.BufferPool;
+import simpledb.Database;
+import simpledb.Filter;
+import simpledb.HeapFile;
+import simpledb.HeapFileEncoder;
+import simpledb.IntField;
+import simpledb.Predicate;
+import simpledb.SeqScan;
+import simpledb.TransactionId;
+import simpledb.Utility;
+
+/**
+ * Loads a table of (time, value) rows in time order and times a query for
+ * a narrow range of times, a Filter over a SeqScan, with and without the
+ * filter's predicates pushed down to the scan, which then skips the pages
+ * whose zone map ranges are outside the range. Each query starts from a
+ * cold buffer pool after one full scan has worked out the ranges.
+ * <p>
+ * Usage: ant runbench -Dbench=ZoneMapBenchmark [-Dargs="rows percent passes"]
+ */
+public class ZoneMapBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int percent = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        int passes = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(i % 1000);
+            tuples.add(tuple);
+        }
+        Database.reset();
+        File data = File.createTempFile("zone-bench", ".dat");
+        data.deleteOnExit();
+        HeapFileEncoder.convert(tuples, data, BufferPool.getPageSize(), 2);
+        tuples = null;
+        HeapFile file = new HeapFile(data, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(file, "zones");
+        query(file, 0, rows, false);
+
+        int from = rows / 2, to = from + (int) ((long) rows * percent / 100);
+        System.out.printf("%d rows, %d pages, %d%% of them selected, %d passes%n", rows,
+                file.numPages(), percent, passes);
+        System.out.printf("%-12s %10s %10s%n", "scan", "query ms", "rows");
+        // the first round warms up the JIT and is not reported
+        for (int round = 0; round < 2; round++) {
+            int n = round == 0 ? 1 : passes;
+            for (boolean pushDown : new boolean[] { false, true }) {
+                long start = System.nanoTime();
+                int count = 0;
+                for (int pass = 0; pass < n; pass++)
+                    count = query(file, from, to, pushDown);
+                long nanos = System.nanoTime() - start;
+                if (round == 1)
+                    System.out.printf("%-12s %10.1f %10d%n", pushDown ? "pushed down" : "filter only",
+                            nanos / 1e6 / n, count);
+            }
+        }
+        data.delete();
+    }
+
+    private static int query(HeapFile file, int from, int to, boolean pushDown) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        Predicate ge = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(from));
+        Predicate lt = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(to));
+        SeqScan ss = new SeqScan(tid, file.getId(), "zones");
+        if (pushDown) {
+            ss.addPredicate(ge);
+            ss.addPredicate(lt);
+        }
+        Filter f = new Filter(lt, new Filter(ge, ss));
+        f.open();
+        int count = 0;
+        while (f.hasNext()) {
+            f.next();
+            count++;
+        }
+        f.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+}
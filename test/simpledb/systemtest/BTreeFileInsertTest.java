@@ -42,8 +42,8 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
 		BTreeFile empty = BTreeUtility.createEmptyBTreeFile(emptyFile.getAbsolutePath(), 2, 1);
 
 		Tuple tup = null;
-		// we should be able to add 502 tuples on one page
-		for (int i = 0; i < 502; ++i) {
+		// we should be able to add 501 tuples on one page
+		for (int i = 0; i < 501; ++i) {
 			tup = BTreeUtility.getBTreeTuple(i, 2);
 			empty.insertTuple(tid, tup);
 			assertEquals(1, empty.numPages());
@@ -51,14 +51,14 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
 
 		// the next 251 tuples should live on page 2 since they are greater than
 		// all existing tuples in the file
-		for (int i = 502; i < 753; ++i) {
+		for (int i = 501; i < 752; ++i) {
 			tup = BTreeUtility.getBTreeTuple(i, 2);
 			empty.insertTuple(tid, tup);
 			assertEquals(3, empty.numPages());
 		}
 
-		// one more insert greater than 502 should cause page 2 to split
-		tup = BTreeUtility.getBTreeTuple(753, 2);
+		// one more insert greater than 501 should cause page 2 to split
+		tup = BTreeUtility.getBTreeTuple(752, 2);
 		empty.insertTuple(tid, tup);
 		assertEquals(4, empty.numPages());
 
@@ -132,7 +132,7 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
 	@Test
 	public void testSplitLeafPage() throws Exception {
 		// This should create a B+ tree with one full page
-		BTreeFile onePageFile = BTreeUtility.createRandomBTreeFile(2, 502,
+		BTreeFile onePageFile = BTreeUtility.createRandomBTreeFile(2, 501,
 				null, null, 0);
 
 		// there should be 1 leaf page
@@ -150,7 +150,7 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
 		BTreePageId rootId = rootPtr.getRootId();
 		assertEquals(rootId.pgcateg(), BTreePageId.INTERNAL);
 		BTreeInternalPage root = (BTreeInternalPage) Database.getBufferPool().getPage(tid, rootId, Permissions.READ_ONLY);
-		assertEquals(502, root.getNumEmptySlots());
+		assertEquals(500, root.getNumEmptySlots());
 
 		// each child should have half of the records
 		Iterator<BTreeEntry> it = root.iterator();
@@ -166,22 +166,22 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
 	@Test
 	public void testSplitRootPage() throws Exception {
 		// This should create a packed B+ tree with no empty slots
-		// There are 503 keys per internal page (504 children) and 502 tuples per leaf page
-		// 504 * 502 = 253008
-		BTreeFile bigFile = BTreeUtility.createRandomBTreeFile(2, 253008,
+		// There are 501 keys per internal page (502 children) and 501 tuples per leaf page
+		// 502 * 501 = 251502
+		BTreeFile bigFile = BTreeUtility.createRandomBTreeFile(2, 251502,
 				null, null, 0);
 
 		// we will need more room in the buffer pool for this test
 		Database.resetBufferPool(500);		
 
-		// there should be 504 leaf pages + 1 internal node
-		assertEquals(505, bigFile.numPages());
+		// there should be 502 leaf pages + 1 internal node
+		assertEquals(503, bigFile.numPages());
 
 		// now insert a tuple
 		Database.getBufferPool().insertTuple(tid, bigFile.getId(), BTreeUtility.getBTreeTuple(10, 2));
 
-		// there should now be 505 leaf pages + 3 internal nodes
-		assertEquals(508, bigFile.numPages());
+		// there should now be 503 leaf pages + 3 internal nodes
+		assertEquals(506, bigFile.numPages());
 
 		// the root node should be an internal node and have 2 children (1 entry)
 		BTreePageId rootPtrPid = new BTreePageId(bigFile.getId(), 0, BTreePageId.ROOT_PTR);
@@ -189,7 +189,7 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
 		BTreePageId rootId = rootPtr.getRootId();
 		assertEquals(rootId.pgcateg(), BTreePageId.INTERNAL);
 		BTreeInternalPage root = (BTreeInternalPage) Database.getBufferPool().getPage(tid, rootId, Permissions.READ_ONLY);
-		assertEquals(502, root.getNumEmptySlots());
+		assertEquals(500, root.getNumEmptySlots());
 
 		// each child should have half of the entries
 		Iterator<BTreeEntry> it = root.iterator();
@@ -229,16 +229,16 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
 
 		// This should create a B+ tree with a packed second tier of internal pages
 		// and packed third tier of leaf pages
-    	// (124 entries per internal/leaf page, 125 children per internal page ->
-    	// 125*2*124 = 31000)
-		BTreeFile bigFile = BTreeUtility.createRandomBTreeFile(2, 31000,
+    	// (123 entries per internal/leaf page, 124 children per internal page ->
+    	// 124*2*123 = 30504)
+		BTreeFile bigFile = BTreeUtility.createRandomBTreeFile(2, 30504,
 				null, null, 0);
 		
 		// we will need more room in the buffer pool for this test
 		Database.resetBufferPool(1000);
 
-		// there should be 250 leaf pages + 3 internal nodes
-		assertEquals(253, bigFile.numPages());
+		// there should be 248 leaf pages + 3 internal nodes
+		assertEquals(251, bigFile.numPages());
 
 		// now insert some random tuples and make sure we can find them
 		Random rand = new Random();
@@ -261,7 +261,7 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
 			assertTrue(found);
 		}
 
-		// now make sure we have 31100 records and they are all in sorted order
+		// now make sure we have 30604 records and they are all in sorted order
 		DbFileIterator fit = bigFile.iterator(tid);
 		int count = 0;
 		Tuple prev = null;
@@ -274,7 +274,7 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
 			count++;
 		}
 		fit.close();
-		assertEquals(31100, count);	
+		assertEquals(30604, count);	
 		
 	}
 
@@ -207,7 +207,7 @@ public class BTreeReverseScanTest {
 
         ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
         int keyField = 0;
-        BTreeFile f = BTreeUtility.createBTreeFile(2, LEAF_PAGES*502, null, tuples, keyField);
+        BTreeFile f = BTreeUtility.createBTreeFile(2, LEAF_PAGES*501, null, tuples, keyField);
         Collections.sort(tuples, new BTreeReverseScanTest.TupleComparator(keyField));
 
         Collections.reverse(tuples);
@@ -219,7 +219,7 @@ public class BTreeReverseScanTest {
         // EQUALS
         TransactionId tid = new TransactionId();
         ArrayList<ArrayList<Integer>> tuplesFiltered = new ArrayList<ArrayList<Integer>>();
-        IndexPredicate ipred = new IndexPredicate(Op.EQUALS, new IntField(r.nextInt(LEAF_PAGES*502)));
+        IndexPredicate ipred = new IndexPredicate(Op.EQUALS, new IntField(r.nextInt(LEAF_PAGES*501)));
         Iterator<ArrayList<Integer>> it = tuples.iterator();
         while(it.hasNext()) {
             ArrayList<Integer> tup = it.next();
@@ -237,7 +237,7 @@ public class BTreeReverseScanTest {
 
         // LESS_THAN
         tuplesFiltered.clear();
-        ipred = new IndexPredicate(Op.LESS_THAN, new IntField(r.nextInt(LEAF_PAGES*502)));
+        ipred = new IndexPredicate(Op.LESS_THAN, new IntField(r.nextInt(LEAF_PAGES*501)));
         it = tuples.iterator();
         while(it.hasNext()) {
             ArrayList<Integer> tup = it.next();
@@ -251,14 +251,14 @@ public class BTreeReverseScanTest {
         scan = new BTreeReverseScan(tid, f.getId(), "table", ipred);
         SystemTestUtil.matchTuples(scan, tuplesFiltered);
         // root pointer page + root + leaf pages
-        int leafPageCount = tuplesFiltered.size()/502;
+        int leafPageCount = tuplesFiltered.size()/501;
         if(leafPageCount < LEAF_PAGES)
             leafPageCount++; // +1 for next key locking
         assertEquals(leafPageCount + 2, table.readCount);
 
         // GREATER_THAN
         tuplesFiltered.clear();
-        ipred = new IndexPredicate(Op.GREATER_THAN_OR_EQ, new IntField(r.nextInt(LEAF_PAGES*502)));
+        ipred = new IndexPredicate(Op.GREATER_THAN_OR_EQ, new IntField(r.nextInt(LEAF_PAGES*501)));
         it = tuples.iterator();
         while(it.hasNext()) {
             ArrayList<Integer> tup = it.next();
@@ -272,7 +272,7 @@ public class BTreeReverseScanTest {
         scan = new BTreeReverseScan(tid, f.getId(), "table", ipred);
         SystemTestUtil.matchTuples(scan, tuplesFiltered);
         // root pointer page + root + leaf pages
-        leafPageCount = tuplesFiltered.size()/502;
+        leafPageCount = tuplesFiltered.size()/501;
         if(leafPageCount < LEAF_PAGES)
             leafPageCount++; // +1 for next key locking
         assertEquals(leafPageCount + 2, table.readCount);
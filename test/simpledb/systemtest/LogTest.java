@@ -427,6 +427,210 @@ public class LogTest extends SimpleDbTestBase {
         t.commit();
     }
 
+    @Test public void TestOpenFlushCheckpointCrash()
+            throws IOException, DbException, TransactionAbortedException, InterruptedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // T1 inserts and its page is written, so the update is in no
+        //   dirty page table
+        // checkpoint: analysis starts there and never reads T1's update
+        // T2 inserts and commits
+        // crash
+        // undo still finds T1's update through the checkpoint
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 14, 0);
+        Database.getBufferPool().flushAllPages(); // XXX defeat NO-STEAL-based abort
+
+        Database.getLogFile().logCheckpoint();
+        doInsert(hf2, 30, 31);
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 14, false);
+        look(hf2, t, 30, true);
+        look(hf2, t, 31, true);
+        t.commit();
+    }
+
+    @Test public void TestDeleteCommitCrash()
+            throws IOException, DbException, TransactionAbortedException, InterruptedException {
+        setup();
+        doInsert(hf1, 1, 2);
+        Database.getBufferPool().flushAllPages();
+
+        // *** Test:
+        // a committed delete, logged as a slot change and never written
+        // to the table, is redone after a crash; so is the insert next to it
+        long before = Database.getLogFile().getCurrentLSN();
+        Transaction t = new Transaction();
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), hf1.getId(), "");
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple tu = scan.next();
+            if (((IntField) tu.getField(0)).getValue() == 1)
+                Database.getBufferPool().deleteTuple(t.getId(), tu);
+        }
+        scan.close();
+        insertRow(hf1, t, 3, 0);
+        t.commit();
+        // one small record for the page rather than two images of it
+        assertTrue(Database.getLogFile().getCurrentLSN() - before < BufferPool.getPageSize());
+
+        crash();
+
+        t = new Transaction();
+        t.start();
+        look(hf1, t, 1, false);
+        look(hf1, t, 2, true);
+        look(hf1, t, 3, true);
+        t.commit();
+    }
+
+    @Test public void TestFuzzyCheckpointCrash()
+            throws IOException, DbException, TransactionAbortedException, InterruptedException {
+        setup();
+        doInsert(hf1, 1, -1);
+        Database.getBufferPool().flushAllPages();
+
+        // *** Test:
+        // T1 commits without its page being written; T2 then holds the
+        // page, so not even the page cleaner can write it.  The checkpoint
+        // lists it as dirty, and recovery redoes T1 from before the
+        // checkpoint.
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 5, 0);
+        t1.commit();
+        Transaction t2 = new Transaction();
+        t2.start();
+        insertRow(hf1, t2, 6, 0);
+
+        Database.getLogFile().logCheckpoint();
+        // the checkpoint wrote nothing: only row 1 is in the file
+        Iterator<Tuple> onDisk = ((HeapPage) hf1.readPage(new HeapPageId(hf1.getId(), 0))).iterator();
+        assertEquals(1, ((IntField) onDisk.next().getField(0)).getValue());
+        assertFalse(onDisk.hasNext());
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 5, true);
+        look(hf1, t, 6, false);
+        t.commit();
+    }
+
+    @Test public void TestParallelRedoCrash()
+            throws IOException, DbException, TransactionAbortedException, InterruptedException {
+        setup();
+        doInsert(hf1, 1, 2);
+        doInsert(hf2, 3, 4);
+
+        // *** Test:
+        // committed rows in both tables whose pages never reach disk are
+        // redone with the pages split between threads; a transaction
+        // still open at the crash is not
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 5, 0);
+        insertRow(hf2, t1, 6, 0);
+        t1.commit();
+        Transaction t2 = new Transaction();
+        t2.start();
+        insertRow(hf1, t2, 7, 0);
+        insertRow(hf2, t2, 8, 0);
+
+        Database.reset();
+        hf1 = Utility.openHeapFile(2, file1);
+        hf2 = Utility.openHeapFile(2, file2);
+        Database.getLogFile().setRedoThreads(4);
+        Database.getLogFile().recover();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 5, true);
+        look(hf1, t, 7, false);
+        look(hf2, t, 3, true);
+        look(hf2, t, 4, true);
+        look(hf2, t, 6, true);
+        look(hf2, t, 8, false);
+        t.commit();
+    }
+
+    @Test public void TestCorruptLogRecordCrash()
+            throws IOException, DbException, TransactionAbortedException, InterruptedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // a record damaged on disk, as by a write torn in a crash, fails its
+        // checksum and ends the log: the commit after it is lost, and the
+        // transaction with it
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 3, 0);
+        long lsn = Database.getLogFile().getCurrentLSN();
+        t1.commit();
+
+        // turn the 3 in the SLOTS record for the insert into a 2: type,
+        // tid, previous record, page id, length, count, slot, op and data
+        // length come first
+        long at = lsn + 4 + 8 + 8 + 9 + 4 + 4 + 4 + 1 + 4 + 3;
+        // the control file holds the checkpoint LSN, then the segment size
+        RandomAccessFile control = new RandomAccessFile("log", "r");
+        control.readLong();
+        long segmentSize = control.readLong();
+        control.close();
+        RandomAccessFile segment = new RandomAccessFile(
+                String.format("log.%06d", at / segmentSize), "rw");
+        segment.seek(at % segmentSize);
+        assertEquals(3, segment.read());
+        segment.seek(at % segmentSize);
+        segment.write(2);
+        segment.close();
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 3, false);
+        t.commit();
+    }
+
+    @Test public void TestRedoSkipsPagesOnDisk()
+            throws IOException, DbException, TransactionAbortedException, InterruptedException {
+        setup();
+        doInsert(hf1, 1, 2);
+        Database.getBufferPool().flushAllPages();
+
+        // *** Test:
+        // a page written after its last logged change carries that change's
+        // LSN, so recovery leaves it alone instead of redoing the log over it
+        assertTrue(file1.setLastModified(1000000000000L));
+        crash();
+        assertEquals(1000000000000L, file1.lastModified());
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        t.commit();
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(LogTest.class);